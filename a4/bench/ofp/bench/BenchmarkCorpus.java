@@ -0,0 +1,77 @@
+package ofp.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ofp.BatchCompiler;
+import ofp.ProgramGenerator;
+
+/**
+ * Loads the OFP programs a benchmark runs on.
+ * A corpus is either "a4", the test programs in input/a4, "synthetic-N", a
+ * generated program with N functions, or "deep-N", a generated program with
+ * blocks nested N levels deep.
+ */
+public class BenchmarkCorpus {
+    /**
+     * One program of a corpus.
+     */
+    public static class Program {
+        private final String name;
+        private final String source;
+
+        Program(String name, String source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Loads a corpus by name. The location of the a4 programs can be changed
+     * with the system property ofp.corpus.
+     *
+     * @param corpus the corpus name
+     * @return the programs of the corpus
+     * @throws IOException if the programs cannot be read
+     */
+    public static List<Program> load(String corpus) throws IOException {
+        if (corpus.startsWith("synthetic-")) {
+            ProgramGenerator generator = new ProgramGenerator();
+            generator.setFunctions(Integer.parseInt(corpus.substring("synthetic-".length())));
+            return Collections.singletonList(new Program("synthetic", generator.generate()));
+        }
+
+        if (corpus.startsWith("deep-")) {
+            ProgramGenerator generator = new ProgramGenerator();
+            generator.setFunctions(2);
+            generator.setDepth(Integer.parseInt(corpus.substring("deep-".length())));
+            return Collections.singletonList(new Program("deep", generator.generate()));
+        }
+
+        Path dir = Paths.get(System.getProperty("ofp.corpus", "input/" + corpus));
+        List<Program> programs = new ArrayList<>();
+        for (Path source : BatchCompiler.expandInputs(Collections.singletonList(dir.toString()))) {
+            String fileName = source.getFileName().toString();
+            programs.add(new Program(fileName.substring(0, fileName.length() - ".ofp".length()),
+                    new String(Files.readAllBytes(source), StandardCharsets.UTF_8)));
+        }
+
+        if (programs.isEmpty())
+            throw new IOException("No .ofp programs found in " + dir.toAbsolutePath());
+        return programs;
+    }
+}
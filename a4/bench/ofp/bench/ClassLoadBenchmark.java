@@ -0,0 +1,112 @@
+package ofp.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import generated.OFPLexer;
+import generated.OFPParser;
+import ofp.BytecodeGenerator;
+import ofp.SymbolTableListener;
+
+/**
+ * Measures how long the JVM takes to load, verify and link the generated
+ * classes.
+ * The "frames" format is the output of the compiler, a version 52 class with
+ * stack map frames that is checked by the fast split verifier. The "legacy"
+ * format is the same code rewritten as a version 45 class without frames,
+ * which the JVM checks with the old type-inferencing verifier.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoadBenchmark {
+    @Param({ "a4", "synthetic-100", "synthetic-1000" })
+    public String corpus;
+
+    @Param({ "frames", "legacy" })
+    public String format;
+
+    private List<String> names = new ArrayList<>();
+    private List<byte[]> classes = new ArrayList<>();
+
+    /**
+     * Loader for one set of generated classes, so every operation loads and
+     * verifies the classes again.
+     */
+    private static class ProgramLoader extends ClassLoader {
+        Class<?> load(String name, byte[] bytecode) throws ClassNotFoundException {
+            defineClass(name, bytecode, 0, bytecode.length);
+            // Initializing links the class, which runs the verifier
+            return Class.forName(name, true, this);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        for (BenchmarkCorpus.Program program : BenchmarkCorpus.load(corpus)) {
+            OFPParser.ProgramContext root = new OFPParser(
+                    new CommonTokenStream(new OFPLexer(CharStreams.fromString(program.getSource())))).program();
+            SymbolTableListener symbolTable = new SymbolTableListener();
+            ParseTreeWalker.DEFAULT.walk(symbolTable, root);
+            BytecodeGenerator generator = new BytecodeGenerator(program.getName(), symbolTable.getScope(),
+                    symbolTable.getGlobalScope());
+            generator.visit(root);
+
+            byte[] bytecode = generator.getClassWriter().toByteArray();
+            names.add(program.getName());
+            classes.add(format.equals("legacy") ? toLegacy(bytecode) : bytecode);
+        }
+    }
+
+    @Benchmark
+    public void loadAndVerify(Blackhole blackhole) throws ClassNotFoundException {
+        ProgramLoader loader = new ProgramLoader();
+        for (int i = 0; i < classes.size(); i++)
+            blackhole.consume(loader.load(names.get(i), classes.get(i)));
+    }
+
+    /**
+     * Rewrites a class as a version 45 class without stack map frames.
+     *
+     * @param bytecode the class file
+     * @return the legacy class file
+     */
+    private static byte[] toLegacy(byte[] bytecode) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor versionRewriter = new ClassVisitor(Opcodes.ASM5, cw) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                    String[] interfaces) {
+                super.visit(Opcodes.V1_1, access, name, signature, superName, interfaces);
+            }
+        };
+        new ClassReader(bytecode).accept(versionRewriter, ClassReader.SKIP_FRAMES);
+
+        return cw.toByteArray();
+    }
+}
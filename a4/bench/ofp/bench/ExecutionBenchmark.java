@@ -0,0 +1,110 @@
+package ofp.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import generated.OFPLexer;
+import generated.OFPParser;
+import ofp.BytecodeGenerator;
+import ofp.LoopOptimizer;
+import ofp.Outliner;
+import ofp.SymbolTableListener;
+
+/**
+ * Measures how long the generated programs run.
+ * The "inlineSize" parameter is the largest function the inliner copies into
+ * its callers, so 0 compares the programs without inlining. The
+ * "outlineLoops" parameter moves the loops of main into methods of their own,
+ * which the JIT compiler compiles as methods instead of only through on-stack
+ * replacement. Everything the programs print is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionBenchmark {
+    @Param({ "a4", "synthetic-100", "loops", "print" })
+    public String corpus;
+
+    @Param({ "0", "32" })
+    public int inlineSize;
+
+    @Param({ "false", "true" })
+    public boolean outlineLoops;
+
+    private List<Method> mains = new ArrayList<>();
+    private PrintStream stdout;
+
+    /**
+     * Loader for the generated classes of one trial.
+     */
+    private static class ProgramLoader extends ClassLoader {
+        Class<?> load(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        ProgramLoader loader = new ProgramLoader();
+        for (BenchmarkCorpus.Program program : BenchmarkCorpus.load(corpus)) {
+            OFPParser.ProgramContext root = new OFPParser(
+                    new CommonTokenStream(new OFPLexer(CharStreams.fromString(program.getSource())))).program();
+            SymbolTableListener symbolTable = new SymbolTableListener();
+            ParseTreeWalker.DEFAULT.walk(symbolTable, root);
+            ParseTreeProperty<Object> constants = new ParseTreeProperty<>();
+            ParseTreeProperty<Boolean> removed = new ParseTreeProperty<>();
+            Outliner outliner = new Outliner(symbolTable.getScope(), constants, removed,
+                    new LoopOptimizer(symbolTable.getScope(), constants, removed));
+            outliner.setOutlineLoops(outlineLoops);
+            outliner.visit(root);
+
+            BytecodeGenerator generator = new BytecodeGenerator(program.getName(), symbolTable.getScope(),
+                    symbolTable.getGlobalScope(), constants, removed);
+            generator.setInlineSize(inlineSize);
+            generator.setOutliner(outliner);
+            generator.visit(root);
+
+            Class<?> programClass = loader.load(program.getName(), generator.getClassWriter().toByteArray());
+            mains.add(programClass.getMethod("main", String[].class));
+        }
+
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void run() throws ReflectiveOperationException {
+        for (Method main : mains)
+            main.invoke(null, (Object) null);
+    }
+}
@@ -0,0 +1,308 @@
+package ofp.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import generated.OFPLexer;
+import generated.OFPParser;
+import ofp.ArrayPool;
+import ofp.BytecodeGenerator;
+import ofp.CheckRefListener;
+import ofp.ConstantFolder;
+import ofp.DeadCodeEliminator;
+import ofp.FrameLayout;
+import ofp.FrontEndVisitor;
+import ofp.Inliner;
+import ofp.LoopOptimizer;
+import ofp.OFPType;
+import ofp.Outliner;
+import ofp.PythonGenerator;
+import ofp.SymbolTableListener;
+import ofp.TailCallAnalyzer;
+import ofp.TwoStageParser;
+import ofp.TypeCheckingVisitor;
+
+/**
+ * Measures each compiler phase in isolation.
+ * The inputs of every phase are prepared once per trial by running the
+ * earlier phases, so each benchmark method only pays for its own phase. One
+ * operation processes every program of the corpus. The code generators get
+ * the same side tables as in the compiler, so they generate the folded and
+ * optimized programs the compiler generates with its default options.
+ *
+ * Run with: java -cp ... ofp.bench.PhaseBenchmark [JMH options], which adds
+ * the GC profiler to report allocation rates next to throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+    @Param({ "a4", "synthetic-100", "synthetic-1000", "deep-100" })
+    public String corpus;
+
+    private List<Unit> units = new ArrayList<>();
+
+    /**
+     * A program together with the outputs of all front-end phases.
+     */
+    private static class Unit {
+        String name;
+        String source;
+        List<? extends Token> tokens;
+        OFPParser.ProgramContext root;
+        SymbolTableListener symbolTable;
+        ParseTreeProperty<OFPType> types;
+        ParseTreeProperty<Object> constants;
+        ParseTreeProperty<Boolean> removed;
+        TailCallAnalyzer tailCalls;
+        LoopOptimizer loops;
+        ArrayPool arrayPool;
+        FrameLayout frameLayout;
+        Outliner outliner;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        for (BenchmarkCorpus.Program program : BenchmarkCorpus.load(corpus)) {
+            Unit unit = new Unit();
+            unit.name = program.getName();
+            unit.source = program.getSource();
+            unit.tokens = new OFPLexer(CharStreams.fromString(unit.source)).getAllTokens();
+            unit.root = new OFPParser(new CommonTokenStream(new ListTokenSource(unit.tokens))).program();
+            unit.symbolTable = new SymbolTableListener();
+            new ParseTreeWalker().walk(unit.symbolTable, unit.root);
+            TypeCheckingVisitor typeChecker = new TypeCheckingVisitor(scopes(unit),
+                    unit.symbolTable.getGlobalScope());
+            typeChecker.visit(unit.root);
+            unit.types = typeChecker.getTypes();
+            ConstantFolder folder = new ConstantFolder(scopes(unit));
+            folder.visit(unit.root);
+            unit.constants = folder.getConstants();
+            DeadCodeEliminator eliminator = new DeadCodeEliminator(scopes(unit), unit.constants);
+            eliminator.visit(unit.root);
+            unit.removed = eliminator.getRemoved();
+            unit.tailCalls = new TailCallAnalyzer(unit.constants, unit.removed);
+            unit.tailCalls.visit(unit.root);
+            unit.loops = new LoopOptimizer(scopes(unit), unit.constants, unit.removed);
+            unit.loops.visit(unit.root);
+            unit.arrayPool = new ArrayPool(scopes(unit), unit.constants, unit.removed);
+            unit.arrayPool.visit(unit.root);
+            unit.frameLayout = new FrameLayout(scopes(unit), unit.symbolTable.getGlobalScope(), unit.types,
+                    unit.removed, unit.loops);
+            unit.frameLayout.visit(unit.root);
+            unit.outliner = new Outliner(scopes(unit), unit.constants, unit.removed, unit.loops);
+            unit.outliner.visit(unit.root);
+            units.add(unit);
+        }
+    }
+
+    @Benchmark
+    public void lex(Blackhole blackhole) {
+        for (Unit unit : units)
+            blackhole.consume(new OFPLexer(CharStreams.fromString(unit.source)).getAllTokens());
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (Unit unit : units)
+            blackhole.consume(new TwoStageParser(new CommonTokenStream(new ListTokenSource(unit.tokens))).parse());
+    }
+
+    @Benchmark
+    public void parseFullLl(Blackhole blackhole) {
+        for (Unit unit : units)
+            blackhole.consume(new OFPParser(new CommonTokenStream(new ListTokenSource(unit.tokens))).program());
+    }
+
+    @Benchmark
+    public void symbolTable(Blackhole blackhole) {
+        for (Unit unit : units) {
+            SymbolTableListener listener = new SymbolTableListener();
+            ParseTreeWalker.DEFAULT.walk(listener, unit.root);
+            blackhole.consume(listener.getScope());
+        }
+    }
+
+    @Benchmark
+    public void checkRefs(Blackhole blackhole) {
+        for (Unit unit : units) {
+            CheckRefListener listener = new CheckRefListener(scopes(unit), unit.symbolTable.getGlobalScope());
+            ParseTreeWalker.DEFAULT.walk(listener, unit.root);
+            blackhole.consume(listener.getErrorCount());
+        }
+    }
+
+    @Benchmark
+    public void typeCheck(Blackhole blackhole) {
+        for (Unit unit : units) {
+            TypeCheckingVisitor visitor = new TypeCheckingVisitor(scopes(unit), unit.symbolTable.getGlobalScope());
+            blackhole.consume(visitor.visit(unit.root));
+        }
+    }
+
+    @Benchmark
+    public void frontEndSeparate(Blackhole blackhole) {
+        for (Unit unit : units) {
+            SymbolTableListener symbolTable = new SymbolTableListener();
+            ParseTreeWalker.DEFAULT.walk(symbolTable, unit.root);
+            CheckRefListener checkRefs = new CheckRefListener(symbolTable.getScope(), symbolTable.getGlobalScope());
+            ParseTreeWalker.DEFAULT.walk(checkRefs, unit.root);
+            TypeCheckingVisitor typeCheck = new TypeCheckingVisitor(symbolTable.getScope(),
+                    symbolTable.getGlobalScope());
+            blackhole.consume(typeCheck.visit(unit.root));
+        }
+    }
+
+    @Benchmark
+    public void frontEndFused(Blackhole blackhole) {
+        for (Unit unit : units) {
+            FrontEndVisitor frontEnd = new FrontEndVisitor();
+            frontEnd.visit(unit.root);
+            blackhole.consume(frontEnd.getScope());
+        }
+    }
+
+    @Benchmark
+    public void fold(Blackhole blackhole) {
+        for (Unit unit : units) {
+            ConstantFolder folder = new ConstantFolder(scopes(unit));
+            folder.visit(unit.root);
+            blackhole.consume(folder.getConstants());
+        }
+    }
+
+    @Benchmark
+    public void deadCode(Blackhole blackhole) {
+        for (Unit unit : units) {
+            DeadCodeEliminator eliminator = new DeadCodeEliminator(scopes(unit), unit.constants);
+            eliminator.visit(unit.root);
+            blackhole.consume(eliminator.getRemoved());
+        }
+    }
+
+    @Benchmark
+    public void tailCalls(Blackhole blackhole) {
+        for (Unit unit : units) {
+            TailCallAnalyzer analyzer = new TailCallAnalyzer(unit.constants, unit.removed);
+            analyzer.visit(unit.root);
+            blackhole.consume(analyzer.getTailCalls());
+        }
+    }
+
+    @Benchmark
+    public void loops(Blackhole blackhole) {
+        for (Unit unit : units) {
+            LoopOptimizer optimizer = new LoopOptimizer(scopes(unit), unit.constants, unit.removed);
+            optimizer.visit(unit.root);
+            blackhole.consume(optimizer.getReplaced());
+        }
+    }
+
+    @Benchmark
+    public void frameLayout(Blackhole blackhole) {
+        for (Unit unit : units) {
+            LoopOptimizer loops = new LoopOptimizer(scopes(unit), unit.constants, unit.removed);
+            loops.visit(unit.root);
+            FrameLayout layout = new FrameLayout(scopes(unit), unit.symbolTable.getGlobalScope(), unit.types,
+                    unit.removed, loops);
+            layout.visit(unit.root);
+            blackhole.consume(layout.formatReport());
+        }
+    }
+
+    @Benchmark
+    public void arrayPool(Blackhole blackhole) {
+        for (Unit unit : units) {
+            ArrayPool pool = new ArrayPool(scopes(unit), unit.constants, unit.removed);
+            pool.visit(unit.root);
+            blackhole.consume(pool.getArrays());
+        }
+    }
+
+    @Benchmark
+    public void outline(Blackhole blackhole) {
+        for (Unit unit : units) {
+            LoopOptimizer loops = new LoopOptimizer(scopes(unit), unit.constants, unit.removed);
+            loops.visit(unit.root);
+            Outliner outliner = new Outliner(scopes(unit), unit.constants, unit.removed, loops);
+            outliner.visit(unit.root);
+            blackhole.consume(outliner.getRegions());
+        }
+    }
+
+    @Benchmark
+    public void python(Blackhole blackhole) {
+        for (Unit unit : units) {
+            PythonGenerator generator = new PythonGenerator(scopes(unit), unit.constants, unit.removed,
+                    unit.tailCalls);
+            generator.setLoops(unit.loops);
+            generator.setArrayPool(unit.arrayPool);
+            blackhole.consume(generator.visit(unit.root));
+        }
+    }
+
+    @Benchmark
+    public void bytecode(Blackhole blackhole) {
+        for (Unit unit : units) {
+            BytecodeGenerator generator = new BytecodeGenerator(unit.name, scopes(unit),
+                    unit.symbolTable.getGlobalScope(), unit.constants, unit.removed, unit.tailCalls);
+            generator.setTypes(unit.types);
+            generator.setLoops(unit.loops);
+            generator.setFrameLayout(unit.frameLayout);
+            generator.setArrayPool(unit.arrayPool);
+            generator.setOutliner(unit.outliner);
+            generator.setInlineSize(Inliner.DEFAULT_SIZE);
+            generator.visit(unit.root);
+            blackhole.consume(generator.getClassWriter().toByteArray());
+        }
+    }
+
+    private static ParseTreeProperty<ofp.Scope> scopes(Unit unit) {
+        return unit.symbolTable.getScope();
+    }
+
+    /**
+     * Runs the phase benchmarks with the GC profiler. Accepts the usual JMH
+     * command line options, for example "-p corpus=synthetic-1000 parse".
+     *
+     * @param args the JMH command line options
+     * @throws Exception if the options are invalid or the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine).addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty())
+            options.include(PhaseBenchmark.class.getName());
+
+        new Runner(options.build()).run();
+    }
+}
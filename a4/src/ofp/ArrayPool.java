@@ -0,0 +1,214 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that selects the array literals both backends build once, when the
+ * program starts, instead of element by element every time they are
+ * evaluated. A literal is pooled if it has at least MIN_LENGTH elements that
+ * are all int, float or char constants. Literals with the same elements share
+ * one pooled array.
+ *
+ * A pooled array must not be changed, so a literal is copied from the pool
+ * unless it is stored in a variable that is only ever indexed or asked for its
+ * length in its function. Any other use of the variable, like an element
+ * assignment or passing it on, may change the array, so every literal stored
+ * in it is copied.
+ */
+public class ArrayPool extends OFPBaseVisitor<Object> {
+    /** Minimum number of elements of a pooled literal. */
+    public static final int MIN_LENGTH = 4;
+
+    private ParseTreeProperty<Scope> scopes;
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed;
+    private ParseTreeProperty<Integer> indices = new ParseTreeProperty<>();
+    private ParseTreeProperty<Boolean> copied = new ParseTreeProperty<>();
+    private List<OFPParser.ArrayInitExprContext> arrays = new ArrayList<>();
+    private List<List<Object>> values = new ArrayList<>();
+    private Map<List<Object>, Integer> valueIndices = new HashMap<>();
+    private Map<OFPParser.ArrayInitExprContext, Symbol> literals = new LinkedHashMap<>();
+    private Set<Symbol> escaped = new HashSet<>();
+    private int literalCount;
+    private int copyCount;
+
+    /**
+     * Constructs an ArrayPool with the given scopes, folded constants and
+     * removed code.
+     *
+     * @param scopes    the mapping of parse tree nodes to scopes
+     * @param constants the values of constant expressions
+     * @param removed   the dead statements and initializers
+     */
+    public ArrayPool(ParseTreeProperty<Scope> scopes, ParseTreeProperty<Object> constants,
+            ParseTreeProperty<Boolean> removed) {
+        this.scopes = scopes;
+        this.constants = constants;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the index of the pooled array a literal evaluates to.
+     *
+     * @param ctx the array literal
+     * @return the index, or null if the literal is not pooled
+     */
+    public Integer getIndex(OFPParser.ArrayInitExprContext ctx) {
+        return indices.get(ctx);
+    }
+
+    /**
+     * Checks whether a pooled literal must be copied, since the array it
+     * evaluates to may be changed.
+     *
+     * @param ctx the pooled array literal
+     * @return true if the literal is copied
+     */
+    public boolean isCopied(OFPParser.ArrayInitExprContext ctx) {
+        return copied.get(ctx) != null;
+    }
+
+    /**
+     * Returns the first literal of every pooled array, in the order of their
+     * indices.
+     *
+     * @return the pooled literals
+     */
+    public List<OFPParser.ArrayInitExprContext> getArrays() {
+        return arrays;
+    }
+
+    /**
+     * Returns the elements of a pooled array, which are all Integer, Double
+     * or Character.
+     *
+     * @param index the index of the pooled array
+     * @return the elements
+     */
+    public List<Object> getValues(int index) {
+        return values.get(index);
+    }
+
+    /**
+     * Formats the number of pooled arrays and literals as one line.
+     *
+     * @return the report
+     */
+    public String formatReport() {
+        return arrays.size() + " arrays for " + literalCount + " literals, " + copyCount + " copied";
+    }
+
+    /**
+     * Finds the pooled literals of a function body and whether they must be
+     * copied.
+     *
+     * @param ctx the function body context
+     * @return null
+     */
+    @Override
+    public Object visitFuncBlock(OFPParser.FuncBlockContext ctx) {
+        literals.clear();
+        escaped.clear();
+        collect(ctx, scopes.get(ctx));
+
+        for (Map.Entry<OFPParser.ArrayInitExprContext, Symbol> literal : literals.entrySet()) {
+            List<Object> elements = getElements(literal.getKey());
+            Integer index = valueIndices.get(elements);
+            if (index == null) {
+                index = arrays.size();
+                arrays.add(literal.getKey());
+                values.add(elements);
+                valueIndices.put(elements, index);
+            }
+
+            indices.put(literal.getKey(), index);
+            literalCount++;
+            if (literal.getValue() == null || escaped.contains(literal.getValue())) {
+                copied.put(literal.getKey(), true);
+                copyCount++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the pooled literals in a node with the variable they are stored
+     * in, and the variables that are used as more than an indexed array.
+     *
+     * @param node  the node
+     * @param scope the scope of the node
+     */
+    private void collect(ParseTree node, Scope scope) {
+        if (removed.get(node) != null)
+            return;
+
+        if (node instanceof OFPParser.BlockContext || node instanceof OFPParser.FuncBlockContext)
+            scope = scopes.get(node);
+
+        if (node instanceof OFPParser.ArrayInitExprContext
+                && getElements((OFPParser.ArrayInitExprContext) node) != null) {
+            literals.put((OFPParser.ArrayInitExprContext) node, getTarget(node, scope));
+            return;
+        }
+
+        if (node instanceof OFPParser.IDExprContext
+                && !(node.getParent() instanceof OFPParser.ArrayLengthExprContext)) {
+            escaped.add(scope.resolve(((OFPParser.IDExprContext) node).ID().getText()));
+        } else if (node instanceof OFPParser.AssignStmtContext
+                && ((OFPParser.AssignStmtContext) node).expr().size() > 1) {
+            escaped.add(scope.resolve(((OFPParser.AssignStmtContext) node).ID().getText()));
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collect(node.getChild(i), scope);
+    }
+
+    /**
+     * Returns the variable an array literal is declared with or assigned to.
+     *
+     * @param literal the array literal
+     * @param scope   the scope of the literal
+     * @return the variable, or null if the literal is used otherwise
+     */
+    private static Symbol getTarget(ParseTree literal, Scope scope) {
+        ParseTree parent = literal.getParent();
+        if (parent instanceof OFPParser.VarDeclStmtContext)
+            return scope.resolve(((OFPParser.VarDeclStmtContext) parent).ID().getText());
+        if (parent instanceof OFPParser.AssignStmtContext && ((OFPParser.AssignStmtContext) parent).expr().size() == 1)
+            return scope.resolve(((OFPParser.AssignStmtContext) parent).ID().getText());
+        return null;
+    }
+
+    /**
+     * Returns the elements of an array literal if it may be pooled.
+     *
+     * @param ctx the array literal
+     * @return the elements, or null if the literal is not pooled
+     */
+    private List<Object> getElements(OFPParser.ArrayInitExprContext ctx) {
+        if (ctx.getChild(0).getText().equals("new") || ctx.expr().size() < MIN_LENGTH)
+            return null;
+
+        List<Object> elements = new ArrayList<>();
+        for (OFPParser.ExprContext expr : ctx.expr()) {
+            Object value = ConstantFolder.valueOf(expr, constants);
+            if (!(value instanceof Integer || value instanceof Double || value instanceof Character)
+                    || !elements.isEmpty() && value.getClass() != elements.get(0).getClass())
+                return null;
+            elements.add(value);
+        }
+        return elements;
+    }
+}
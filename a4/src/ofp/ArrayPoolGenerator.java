@@ -0,0 +1,275 @@
+package ofp;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import generated.OFPParser;
+
+/**
+ * Generates the pooled arrays of an ArrayPool.
+ * Every pooled array is held by the static final field array$N and built by
+ * the static initializer, which decodes the elements from string constants
+ * instead of storing them one by one. An int takes two chars of the string, a
+ * float the four chars of its bits and a char itself. Strings are cut into
+ * chunks of CHUNK_LENGTH chars, which keeps them below the size limit of the
+ * constant pool.
+ */
+public class ArrayPoolGenerator implements Opcodes {
+    private static final int CHUNK_LENGTH = 16384;
+    private static final Method DECODE_INTS = Method.getMethod("void array$ints (int[], int, String)");
+    private static final Method DECODE_FLOATS = Method.getMethod("void array$floats (double[], int, String)");
+    private static final Method DECODE_CHARS = Method.getMethod("void array$chars (char[], int, String)");
+    private static final Method CHAR_AT = Method.getMethod("char charAt (int)");
+    private static final Method LENGTH = Method.getMethod("int length ()");
+
+    private ClassVisitor cv;
+    private Type owner;
+    private ArrayPool pool;
+    private Set<Method> decoders = new LinkedHashSet<>();
+
+    /**
+     * Constructs an ArrayPoolGenerator that adds to the given class.
+     *
+     * @param cv        the visitor of the generated class
+     * @param className the name of the generated class
+     * @param pool      the pooled arrays
+     */
+    public ArrayPoolGenerator(ClassVisitor cv, String className, ArrayPool pool) {
+        this.cv = cv;
+        this.owner = Type.getObjectType(className);
+        this.pool = pool;
+    }
+
+    /**
+     * Checks whether any array was pooled, so the class needs a static
+     * initializer.
+     *
+     * @return true if there are pooled arrays
+     */
+    public boolean hasArrays() {
+        return !pool.getArrays().isEmpty();
+    }
+
+    /**
+     * Loads the array a pooled literal evaluates to, copying it if it may be
+     * changed.
+     *
+     * @param mg  the method the literal is in
+     * @param ctx the pooled array literal
+     * @return the array type
+     */
+    public Type load(GeneratorAdapter mg, OFPParser.ArrayInitExprContext ctx) {
+        int index = pool.getIndex(ctx);
+        Type arrayType = getArrayType(pool.getValues(index).get(0));
+        mg.getStatic(owner, "array$" + index, arrayType);
+        if (pool.isCopied(ctx)) {
+            mg.invokeVirtual(arrayType, Method.getMethod("Object clone ()"));
+            mg.checkCast(arrayType);
+        }
+        return arrayType;
+    }
+
+    /**
+     * Generates the fields of the pooled arrays and the methods that decode
+     * their elements. Does nothing if no array was pooled.
+     */
+    public void generateSupport() {
+        for (int i = 0; i < pool.getArrays().size(); i++) {
+            Object first = pool.getValues(i).get(0);
+            cv.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, "array$" + i, getArrayType(first).getDescriptor(),
+                    null, null).visitEnd();
+            decoders.add(getDecoder(first));
+        }
+
+        if (decoders.contains(DECODE_INTS))
+            generateDecodeInts();
+        if (decoders.contains(DECODE_FLOATS))
+            generateDecodeFloats();
+        if (decoders.contains(DECODE_CHARS))
+            generateDecodeChars();
+    }
+
+    /**
+     * Builds the pooled arrays in the static initializer of the class.
+     *
+     * @param mg the static initializer
+     */
+    public void generateInitializer(GeneratorAdapter mg) {
+        for (int i = 0; i < pool.getArrays().size(); i++) {
+            List<Object> values = pool.getValues(i);
+            Type arrayType = getArrayType(values.get(0));
+            String data = encode(values);
+            int charsPerElement = data.length() / values.size();
+
+            mg.push(values.size());
+            mg.newArray(arrayType.getElementType());
+            for (int start = 0; start < data.length(); start += CHUNK_LENGTH) {
+                mg.dup();
+                mg.push(start / charsPerElement);
+                mg.push(data.substring(start, Math.min(start + CHUNK_LENGTH, data.length())));
+                mg.invokeStatic(owner, getDecoder(values.get(0)));
+            }
+            mg.putStatic(owner, "array$" + i, arrayType);
+        }
+    }
+
+    /**
+     * Encodes the elements of an array as a string.
+     *
+     * @param values the elements
+     * @return the encoded elements
+     */
+    private static String encode(List<Object> values) {
+        StringBuilder data = new StringBuilder();
+        for (Object value : values) {
+            if (value instanceof Integer) {
+                int bits = (Integer) value;
+                data.append((char) (bits >>> 16)).append((char) bits);
+            } else if (value instanceof Double) {
+                long bits = Double.doubleToLongBits((Double) value);
+                for (int shift = 48; shift >= 0; shift -= 16)
+                    data.append((char) (bits >>> shift));
+            } else {
+                data.append((char) (Character) value);
+            }
+        }
+        return data.toString();
+    }
+
+    /**
+     * Generates array$ints, which decodes two chars per element.
+     */
+    private void generateDecodeInts() {
+        GeneratorAdapter mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, DECODE_INTS, null, null, cv);
+        int i = mg.newLocal(Type.INT_TYPE);
+        Label loop = new Label();
+        Label condition = new Label();
+
+        mg.push(0);
+        mg.storeLocal(i);
+        mg.goTo(condition);
+
+        mg.mark(loop);
+        mg.loadArg(0);
+        mg.loadArg(1);
+        mg.loadLocal(i);
+        mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        loadChar(mg, i, 2, 0);
+        mg.push(16);
+        mg.math(GeneratorAdapter.SHL, Type.INT_TYPE);
+        loadChar(mg, i, 2, 1);
+        mg.math(GeneratorAdapter.OR, Type.INT_TYPE);
+        mg.arrayStore(Type.INT_TYPE);
+        mg.iinc(i, 1);
+
+        mg.mark(condition);
+        loadElementCount(mg, 2);
+        mg.loadLocal(i);
+        mg.ifICmp(GeneratorAdapter.GT, loop);
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Generates array$floats, which decodes the bits of an element from four
+     * chars.
+     */
+    private void generateDecodeFloats() {
+        GeneratorAdapter mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, DECODE_FLOATS, null, null, cv);
+        int i = mg.newLocal(Type.INT_TYPE);
+        Label loop = new Label();
+        Label condition = new Label();
+
+        mg.push(0);
+        mg.storeLocal(i);
+        mg.goTo(condition);
+
+        mg.mark(loop);
+        mg.loadArg(0);
+        mg.loadArg(1);
+        mg.loadLocal(i);
+        mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        loadChar(mg, i, 4, 0);
+        mg.cast(Type.INT_TYPE, Type.LONG_TYPE);
+        for (int offset = 1; offset < 4; offset++) {
+            mg.push(16);
+            mg.math(GeneratorAdapter.SHL, Type.LONG_TYPE);
+            loadChar(mg, i, 4, offset);
+            mg.cast(Type.INT_TYPE, Type.LONG_TYPE);
+            mg.math(GeneratorAdapter.OR, Type.LONG_TYPE);
+        }
+        mg.invokeStatic(Type.getType(Double.class), Method.getMethod("double longBitsToDouble (long)"));
+        mg.arrayStore(Type.DOUBLE_TYPE);
+        mg.iinc(i, 1);
+
+        mg.mark(condition);
+        loadElementCount(mg, 4);
+        mg.loadLocal(i);
+        mg.ifICmp(GeneratorAdapter.GT, loop);
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Generates array$chars, which copies the chars of the string.
+     */
+    private void generateDecodeChars() {
+        GeneratorAdapter mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, DECODE_CHARS, null, null, cv);
+        mg.loadArg(2);
+        mg.push(0);
+        mg.loadArg(2);
+        mg.invokeVirtual(Type.getType(String.class), LENGTH);
+        mg.loadArg(0);
+        mg.loadArg(1);
+        mg.invokeVirtual(Type.getType(String.class), Method.getMethod("void getChars (int, int, char[], int)"));
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Pushes one char of the element at index i of the string argument.
+     *
+     * @param mg              the decoder
+     * @param i               the local that holds the index
+     * @param charsPerElement the number of chars per element
+     * @param offset          the offset of the char in the element
+     */
+    private static void loadChar(GeneratorAdapter mg, int i, int charsPerElement, int offset) {
+        mg.loadArg(2);
+        mg.loadLocal(i);
+        mg.push(charsPerElement);
+        mg.math(GeneratorAdapter.MUL, Type.INT_TYPE);
+        if (offset > 0) {
+            mg.push(offset);
+            mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        }
+        mg.invokeVirtual(Type.getType(String.class), CHAR_AT);
+    }
+
+    private static void loadElementCount(GeneratorAdapter mg, int charsPerElement) {
+        mg.loadArg(2);
+        mg.invokeVirtual(Type.getType(String.class), LENGTH);
+        mg.push(charsPerElement);
+        mg.math(GeneratorAdapter.DIV, Type.INT_TYPE);
+    }
+
+    private static Method getDecoder(Object element) {
+        if (element instanceof Integer)
+            return DECODE_INTS;
+        return element instanceof Double ? DECODE_FLOATS : DECODE_CHARS;
+    }
+
+    private static Type getArrayType(Object element) {
+        if (element instanceof Integer)
+            return Type.getType(int[].class);
+        return Type.getType(element instanceof Double ? double[].class : char[].class);
+    }
+}
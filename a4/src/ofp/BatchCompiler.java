@@ -0,0 +1,237 @@
+package ofp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many OFP programs in parallel on a work-stealing pool.
+ * Inputs may be files, directories or glob patterns. Programs are compiled in
+ * any order, but their output is always reported in sorted path order, so the
+ * result does not depend on scheduling.
+ */
+public class BatchCompiler {
+    private CompilerOptions options;
+
+    /**
+     * Constructs a BatchCompiler with the given options.
+     *
+     * @param options the compiler options
+     */
+    public BatchCompiler(CompilerOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Compiles all input programs and reports their output and a summary.
+     *
+     * @return the highest exit code of all compilation units
+     */
+    public int run() {
+        OutputCapture.install();
+        PrintStream out = OutputCapture.getOriginalOut();
+        List<Path> sources;
+        try {
+            sources = expandInputs(options.getInputs());
+        } catch (IOException e) {
+            System.err.println("Error: Could not read inputs: " + e.getMessage());
+            return 2;
+        }
+
+        if (sources.isEmpty()) {
+            System.err.println("Error: No .ofp programs found in " + options.getInputs());
+            return 2;
+        }
+
+        CompilationCache cache = null;
+        if (options.getCacheDir() != null) {
+            try {
+                cache = new CompilationCache(options.getCacheDir(), options.getCacheSize());
+            } catch (IOException e) {
+                System.err.println("Error: Could not open compilation cache, compiling everything: "
+                        + e.getMessage());
+            }
+        }
+
+        PrintStream metricsOut = out;
+        if (options.getMetricsFile() != null) {
+            try {
+                metricsOut = new PrintStream(Files.newOutputStream(options.getMetricsFile()), false, "UTF-8");
+            } catch (IOException e) {
+                System.err.println("Error: Could not open metrics file, printing metrics instead: "
+                        + e.getMessage());
+            }
+        }
+
+        Compiler compiler = new Compiler(options, cache);
+        ExecutorService pool = Executors.newWorkStealingPool(options.getThreads());
+        List<Future<CompilationResult>> futures = new ArrayList<>();
+        for (Path source : sources)
+            futures.add(pool.submit(() -> compiler.compile(source)));
+
+        int exitCode = 0;
+        int errorUnits = 0;
+        int failedUnits = 0;
+        try {
+            for (Future<CompilationResult> future : futures) {
+                CompilationResult result = future.get();
+                report(out, result);
+                if (options.getMetricsFormat() != null)
+                    reportMetrics(metricsOut, result.getMetrics());
+                exitCode = Math.max(exitCode, result.getExitCode());
+                if (result.isFailed())
+                    failedUnits++;
+                else if (result.getErrorCount() > 0)
+                    errorUnits++;
+            }
+        } catch (Exception e) {
+            System.err.println("Error: Batch compilation interrupted: " + e);
+            exitCode = 2;
+        } finally {
+            pool.shutdownNow();
+            closeCache(cache);
+            if (metricsOut != out)
+                metricsOut.close();
+        }
+
+        out.println("\nCompiled " + sources.size() + " programs: "
+                + (sources.size() - errorUnits - failedUnits) + " ok, "
+                + errorUnits + " with errors, " + failedUnits + " failed.");
+        if (options.getMetricsFormat() != null)
+            out.println("Parsed " + TwoStageParser.getSllParses() + " programs with SLL, "
+                    + TwoStageParser.getLlFallbacks() + " fell back to full LL.");
+        out.flush();
+
+        return exitCode;
+    }
+
+    /**
+     * Closes the compilation cache, if one is used.
+     *
+     * @param cache the compilation cache, or null
+     */
+    private static void closeCache(CompilationCache cache) {
+        if (cache == null)
+            return;
+
+        try {
+            cache.close();
+        } catch (IOException e) {
+            System.err.println("Error: Could not close compilation cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the captured output of one compilation unit.
+     *
+     * @param out    the stream to print to
+     * @param result the compilation result
+     */
+    private void report(PrintStream out, CompilationResult result) {
+        String status;
+        if (result.isFailed())
+            status = "FAILED";
+        else if (result.getErrorCount() > 0)
+            status = result.getErrorCount() + " errors";
+        else
+            status = "ok";
+
+        out.println("===== " + result.getSource() + " (" + status + ") =====");
+        out.print(result.getConsoleOutput());
+        out.flush();
+    }
+
+    /**
+     * Prints the phase metrics of one compilation unit in the selected format.
+     *
+     * @param out     the stream to print to
+     * @param metrics the phase metrics
+     */
+    private void reportMetrics(PrintStream out, PhaseMetrics metrics) {
+        if (options.getMetricsFormat().equals("table")) {
+            out.println("----- Phase metrics: " + metrics.getUnit() + " -----");
+            out.print(metrics.toTable());
+        } else {
+            out.print(metrics.toJsonLines());
+        }
+        out.flush();
+    }
+
+    /**
+     * Expands files, directories and glob patterns into a sorted list of OFP
+     * programs without duplicates.
+     *
+     * @param inputs the input arguments
+     * @return the sorted OFP program paths
+     * @throws IOException if a directory cannot be read
+     */
+    public static List<Path> expandInputs(List<String> inputs) throws IOException {
+        TreeSet<Path> sources = new TreeSet<>();
+
+        for (String input : inputs) {
+            int globStart = indexOfGlob(input);
+            if (globStart >= 0) {
+                int separator = input.lastIndexOf('/', globStart);
+                Path baseDir = Paths.get(separator >= 0 ? input.substring(0, separator + 1) : ".");
+                PathMatcher matcher = FileSystems.getDefault()
+                        .getPathMatcher("glob:" + input.substring(separator + 1));
+                sources.addAll(listPrograms(baseDir, path -> matcher.matches(baseDir.relativize(path))));
+            } else {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path))
+                    sources.addAll(listPrograms(path, p -> true));
+                else if (input.endsWith(".ofp"))
+                    sources.add(path.toAbsolutePath().normalize());
+                else
+                    throw new IOException("Programs must end with suffix .ofp! Found " + input);
+            }
+        }
+
+        return new ArrayList<>(sources);
+    }
+
+    /**
+     * Lists all OFP programs below a directory that are accepted by a filter.
+     *
+     * @param dir    the directory to search
+     * @param filter the filter applied to each program path
+     * @return the absolute paths of the matching programs
+     * @throws IOException if the directory cannot be read
+     */
+    private static List<Path> listPrograms(Path dir, Predicate<Path> filter) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(path -> path.toString().endsWith(".ofp") && Files.isRegularFile(path))
+                    .filter(filter)
+                    .map(path -> path.toAbsolutePath().normalize())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Returns the index of the first glob character in a path, or -1.
+     *
+     * @param input the input path
+     * @return the index of the first glob character
+     */
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{')
+                return i;
+        }
+        return -1;
+    }
+}
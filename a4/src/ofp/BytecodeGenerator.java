@@ -1,8 +1,12 @@
 package ofp;
 
-import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
@@ -20,14 +24,49 @@ import generated.OFPParser;
  * variables, and control flow.
  */
 public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
+    private static final Type OUTPUT_SINK = Type.getType(OutputSink.class);
+    private static final String SINK_FIELD = "out$sink";
+    private static final Map<OFPType, Type> JAVA_TYPES = new HashMap<>();
+
     private String fileName;
     private ClassWriter cw;
+    private PeepholeOptimizer optimizer;
+    private Inliner inliner;
+    private int inlineSize = Inliner.DEFAULT_SIZE;
+    private MemoGenerator memoGenerator;
+    private Set<String> memoized = new HashSet<>();
     private GeneratorAdapter mg;
     private ParseTreeProperty<Scope> scopes;
+    private ParseTreeProperty<OFPType> types;
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed;
+    private TailCallAnalyzer tailCalls;
+    private LoopOptimizer loops;
+    private FrameLayout frameLayout;
+    private ArrayPool arrayPool;
+    private ArrayPoolGenerator arrayPoolGenerator;
+    private Outliner outliner;
+    private int frameBase;
+    private boolean inRegion;
+    private boolean initializeLocals;
     private Scope globalScope;
     private Scope currentScope = null;
     private FunctionSymbol currentFunctionSymbol;
-    private int pointer;
+    private Label functionStart;
+    private String accumulatorOperator;
+    private int accumulator;
+
+    static {
+        JAVA_TYPES.put(OFPType.VOID, Type.VOID_TYPE);
+        JAVA_TYPES.put(OFPType.INT, Type.INT_TYPE);
+        JAVA_TYPES.put(OFPType.FLOAT, Type.DOUBLE_TYPE);
+        JAVA_TYPES.put(OFPType.BOOLEAN, Type.BOOLEAN_TYPE);
+        JAVA_TYPES.put(OFPType.CHAR, Type.CHAR_TYPE);
+        JAVA_TYPES.put(OFPType.STRING, Type.getType(String.class));
+        JAVA_TYPES.put(OFPType.INT_ARRAY, Type.getType(int[].class));
+        JAVA_TYPES.put(OFPType.FLOAT_ARRAY, Type.getType(double[].class));
+        JAVA_TYPES.put(OFPType.CHAR_ARRAY, Type.getType(char[].class));
+    }
 
     /**
      * Constructs a BytecodeGenerator with the given file name, scopes, and global
@@ -38,15 +77,130 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      * @param globalScope the global scope
      */
     public BytecodeGenerator(String fileName, ParseTreeProperty<Scope> scopes, Scope globalScope) {
+        this(fileName, scopes, globalScope, new ParseTreeProperty<Object>(), new ParseTreeProperty<Boolean>());
+    }
+
+    /**
+     * Constructs a BytecodeGenerator that emits folded constants in place of
+     * constant expressions and skips removed code.
+     *
+     * @param fileName    the output class file name
+     * @param scopes      the mapping of parse tree nodes to scopes
+     * @param globalScope the global scope
+     * @param constants   the values of constant expressions
+     * @param removed     the dead statements and initializers
+     */
+    public BytecodeGenerator(String fileName, ParseTreeProperty<Scope> scopes, Scope globalScope,
+            ParseTreeProperty<Object> constants, ParseTreeProperty<Boolean> removed) {
+        this(fileName, scopes, globalScope, constants, removed, new TailCallAnalyzer(constants, removed));
+    }
+
+    /**
+     * Constructs a BytecodeGenerator that also compiles the tail calls found
+     * by a TailCallAnalyzer as jumps to the start of the function.
+     *
+     * @param fileName    the output class file name
+     * @param scopes      the mapping of parse tree nodes to scopes
+     * @param globalScope the global scope
+     * @param constants   the values of constant expressions
+     * @param removed     the dead statements and initializers
+     * @param tailCalls   the tail calls of every function
+     */
+    public BytecodeGenerator(String fileName, ParseTreeProperty<Scope> scopes, Scope globalScope,
+            ParseTreeProperty<Object> constants, ParseTreeProperty<Boolean> removed, TailCallAnalyzer tailCalls) {
         this.fileName = fileName;
         this.scopes = scopes;
         this.globalScope = globalScope;
+        this.constants = constants;
+        this.removed = removed;
+        this.tailCalls = tailCalls;
+        this.loops = new LoopOptimizer(scopes, constants, removed);
+        this.arrayPool = new ArrayPool(scopes, constants, removed);
+        this.outliner = new Outliner(scopes, constants, removed, loops);
     }
 
     public ClassWriter getClassWriter() {
         return cw;
     }
 
+    public PeepholeOptimizer getOptimizer() {
+        return optimizer;
+    }
+
+    public Inliner getInliner() {
+        return inliner;
+    }
+
+    public void setInlineSize(int inlineSize) {
+        this.inlineSize = inlineSize;
+    }
+
+    public void setTypes(ParseTreeProperty<OFPType> types) {
+        this.types = types;
+    }
+
+    public void setMemoized(Set<String> memoized) {
+        this.memoized = memoized;
+    }
+
+    public void setLoops(LoopOptimizer loops) {
+        this.loops = loops;
+    }
+
+    public void setFrameLayout(FrameLayout frameLayout) {
+        this.frameLayout = frameLayout;
+    }
+
+    public void setArrayPool(ArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
+    }
+
+    public void setOutliner(Outliner outliner) {
+        this.outliner = outliner;
+    }
+
+    /**
+     * Generates bytecode for a node, pushing the value of constant expressions
+     * directly, loading loop temporaries in place of the expressions they hold
+     * and skipping removed code.
+     *
+     * @param tree the node
+     * @return the type of the node, or null if it was removed
+     */
+    @Override
+    public Type visit(ParseTree tree) {
+        if (removed.get(tree) != null)
+            return null;
+
+        LoopOptimizer.Temporary temporary = loops.getReplaced().get(tree);
+        if (temporary != null) {
+            Type type = getType(temporary.getValue());
+            mg.loadLocal(getSlot(temporary), type);
+            return type;
+        }
+
+        Object constant = constants.get(tree);
+        if (constant == null)
+            return super.visit(tree);
+
+        if (constant instanceof Integer) {
+            mg.push((Integer) constant);
+            return Type.INT_TYPE;
+        } else if (constant instanceof Double) {
+            mg.push((Double) constant);
+            return Type.DOUBLE_TYPE;
+        } else if (constant instanceof Boolean) {
+            mg.push((Boolean) constant);
+            return Type.BOOLEAN_TYPE;
+        } else if (constant instanceof Character) {
+            mg.push((Character) constant);
+            return Type.CHAR_TYPE;
+        } else {
+            mg.push((String) constant);
+            return Type.getType(String.class);
+        }
+    }
+
     /**
      * Generates bytecode for the program, including class and method definitions.
      *
@@ -56,24 +210,72 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitProgram(OFPParser.ProgramContext ctx) {
         currentScope = scopes.get(ctx);
-        cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-        cw.visit(V1_1, ACC_PUBLIC, fileName, null, "java/lang/Object", null);
+        cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            /**
+             * Merges reference types without loading classes. Generated code
+             * only stores strings and arrays, and a local slot only holds
+             * different ones at a merge point if its value is dead there, so
+             * Object is always a valid result.
+             */
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return "java/lang/Object";
+            }
+        };
+        // Methods pass through the inliner and the peephole optimizer before frames are computed
+        optimizer = new PeepholeOptimizer(cw);
+        inliner = new Inliner(optimizer, fileName, inlineSize);
+        inliner.visit(V1_8, ACC_PUBLIC + ACC_SUPER, fileName, null, "java/lang/Object", null);
 
         Method constructor = Method.getMethod("void <init> ()");
-        mg = new GeneratorAdapter(ACC_PUBLIC, constructor, null, null, cw);
+        mg = new GeneratorAdapter(ACC_PUBLIC, constructor, null, null, inliner);
         mg.loadThis();
         mg.invokeConstructor(Type.getType(Object.class), constructor);
         mg.returnValue();
         mg.endMethod();
 
+        if (types == null) {
+            TypeCheckingVisitor typeChecker = new TypeCheckingVisitor(scopes, globalScope);
+            typeChecker.visit(ctx);
+            types = typeChecker.getTypes();
+        }
+        if (frameLayout == null) {
+            frameLayout = new FrameLayout(scopes, globalScope, types, removed, loops);
+            frameLayout.visit(ctx);
+        }
+
+        memoGenerator = new MemoGenerator(inliner, fileName);
+        arrayPoolGenerator = new ArrayPoolGenerator(inliner, fileName, arrayPool);
         visitChildren(ctx);
-        cw.visitEnd();
+        memoGenerator.generateSupport();
+        arrayPoolGenerator.generateSupport();
+        inliner.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, SINK_FIELD, OUTPUT_SINK.getDescriptor(), null, null)
+                .visitEnd();
+        generateStaticInitializer();
+        inliner.visitEnd();
 
         return null;
     }
 
     /**
-     * Generates bytecode for the main function.
+     * Generates the static initializer that creates the output sink, allocates
+     * the memo tables and builds the pooled arrays.
+     */
+    private void generateStaticInitializer() {
+        mg = new GeneratorAdapter(ACC_STATIC, Method.getMethod("void <clinit> ()"), null, null, inliner);
+        mg.newInstance(OUTPUT_SINK);
+        mg.dup();
+        mg.invokeConstructor(OUTPUT_SINK, Method.getMethod("void <init> ()"));
+        mg.putStatic(Type.getObjectType(fileName), SINK_FIELD, OUTPUT_SINK);
+        memoGenerator.generateInitializer(mg);
+        arrayPoolGenerator.generateInitializer(mg);
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Generates bytecode for the main function. The output sink is flushed
+     * when main returns and before an exception leaves it.
      *
      * @param ctx the main context
      * @return null
@@ -82,11 +284,20 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     public Type visitMain(OFPParser.MainContext ctx) {
         currentFunctionSymbol = new FunctionSymbol("main", OFPType.VOID);
         Method main = Method.getMethod("void main (String[])");
-        mg = new GeneratorAdapter(ACC_PUBLIC + ACC_STATIC, main, null, null, cw);
-        pointer = 1;
+        mg = new GeneratorAdapter(ACC_PUBLIC + ACC_STATIC, main, null, null, inliner);
+        accumulatorOperator = null;
+        initializeLocals = outliner.hasRegions(ctx);
 
+        // The flush is inside the range, so the range is never empty, even for an empty main
+        Label start = mg.mark();
         visitChildren(ctx);
+        flushOutput();
+        Label end = mg.mark();
         mg.returnValue();
+
+        mg.catchException(start, end, null);
+        flushOutput();
+        mg.throwException();
         mg.endMethod();
 
         return null;
@@ -100,29 +311,33 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitFuncDecl(OFPParser.FuncDeclContext ctx) {
-        currentFunctionSymbol = (FunctionSymbol) globalScope.resolve(ctx.getChild(1).getText());
-        String returnType = ctx.getChild(0).getText();
         String funcName = ctx.getChild(1).getText();
-        FunctionSymbol functionSymbol = (FunctionSymbol) globalScope.resolve(funcName);
-        List<Symbol> funcParams = functionSymbol.getParameters();
-        pointer = funcParams.size();
-        StringBuilder funcParamsStringBuilder = new StringBuilder();
-
-        for (int i = 0; i < funcParams.size(); i++) {
-            OFPType paramType = funcParams.get(i).getType();
-            funcParamsStringBuilder.append(ofpTypeToJavaType(paramType.toString()));
-            if (i < funcParams.size() - 1)
-                funcParamsStringBuilder.append(", ");
+        currentFunctionSymbol = (FunctionSymbol) globalScope.resolve(funcName);
+        Method func = getMethod(currentFunctionSymbol);
+        // The body of a memoized function is called by a wrapper that looks up the result first
+        boolean memoize = memoized.contains(funcName);
+        mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, memoize ? MemoGenerator.getComputeMethod(func) : func,
+                null, null, inliner);
+
+        accumulatorOperator = tailCalls.getAccumulators().get(ctx);
+        initializeLocals = outliner.hasRegions(ctx);
+        if (accumulatorOperator != null) {
+            // The accumulator takes the first slot after the frame layout
+            accumulator = frameLayout.getFrameSize(ctx);
+            mg.push(accumulatorOperator.equals("+") ? 0 : 1);
+            mg.storeLocal(accumulator, Type.INT_TYPE);
         }
-
-        Method func = Method.getMethod(
-                ofpTypeToJavaType(returnType) + " " + funcName + " (" + funcParamsStringBuilder.toString() + ")");
-        mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, func, null, null, cw);
+        functionStart = new Label();
+        if (tailCalls.getLoops().get(ctx) != null)
+            mg.mark(functionStart);
 
         visit(ctx.getChild(ctx.getChildCount() - 1));
         mg.returnValue();
         mg.endMethod();
 
+        if (memoize)
+            memoGenerator.generateWrapper(func);
+
         return null;
     }
 
@@ -134,27 +349,33 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitFuncCall(OFPParser.FuncCallContext ctx) {
-        String funcName = ctx.getChild(0).getText();
-        FunctionSymbol functionSymbol = (FunctionSymbol) globalScope.resolve(funcName);
-
-        List<Symbol> funcParams = functionSymbol.getParameters();
-        StringBuilder funcParamsStringBuilder = new StringBuilder();
-        OFPType returnType = functionSymbol.getType();
-
-        for (int i = 0; i < funcParams.size(); i++) {
-            String paramType = ofpTypeToJavaType(funcParams.get(i).getType().toString());
-            funcParamsStringBuilder.append(paramType);
-            if (i < funcParams.size() - 1)
-                funcParamsStringBuilder.append(", ");
-            funcParams.get(i).setPointer(pointer);
-            visit(ctx.expr(i));
-        }
+        FunctionSymbol functionSymbol = (FunctionSymbol) globalScope.resolve(ctx.getChild(0).getText());
+        for (OFPParser.ExprContext arg : ctx.expr())
+            visit(arg);
 
-        mg.invokeStatic(Type.getType("L" + fileName + ";"),
-                Method.getMethod(ofpTypeToJavaType(returnType.toString()) + " "
-                        + funcName + " (" + funcParamsStringBuilder.toString() + ")"));
+        Method func = getMethod(functionSymbol);
+        mg.invokeStatic(Type.getObjectType(fileName), func);
 
-        return stringTypeToType(returnType.toString());
+        return func.getReturnType();
+    }
+
+    /**
+     * Generates bytecode for a function call statement, discarding the
+     * returned value so the operand stack is empty between statements.
+     *
+     * @param ctx the function call statement context
+     * @return null
+     */
+    @Override
+    public Type visitFuncCallStmt(OFPParser.FuncCallStmtContext ctx) {
+        Type returnType = visit(ctx.funcCall());
+
+        if (returnType.getSize() == 2)
+            mg.pop2();
+        else if (returnType.getSize() == 1)
+            mg.pop();
+
+        return null;
     }
 
     /**
@@ -166,7 +387,7 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitFuncBlock(OFPParser.FuncBlockContext ctx) {
         currentScope = scopes.get(ctx);
-        visitChildren(ctx);
+        visitStatements(ctx.stmt());
         currentScope = currentScope.getEnclosingScope();
 
         return null;
@@ -181,43 +402,149 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitBlock(OFPParser.BlockContext ctx) {
         currentScope = scopes.get(ctx);
-        visitChildren(ctx);
+        visitStatements(ctx.stmt());
         currentScope = currentScope.getEnclosingScope();
 
         return null;
     }
 
     /**
-     * Generates bytecode for print statements.
+     * Generates bytecode for a list of statements, replacing every region
+     * found by the outliner with a call of the method that holds it.
+     *
+     * @param statements the statements
+     */
+    private void visitStatements(List<OFPParser.StmtContext> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Outliner.Region region = outliner.getRegions().get(statements.get(i));
+            if (region != null) {
+                generateRegion(region);
+                i += region.getStatements().size() - 1;
+            } else {
+                visit(statements.get(i));
+            }
+        }
+    }
+
+    /**
+     * Generates the call of a region and the method that holds it. The
+     * method stores its arguments in the slots the frame layout gives the
+     * variables and loop temporaries, after the slots of the arguments, and
+     * returns the first variable it hands back. The others and the increased
+     * induction temporaries are passed through static fields. Regions inside
+     * the region are called from its method.
+     *
+     * @param region the region
+     */
+    private void generateRegion(Outliner.Region region) {
+        List<Symbol> inputs = region.getInputs();
+        List<Symbol> outputs = region.getOutputs();
+        List<LoopOptimizer.Temporary> temporaries = region.getTemporaries();
+        List<LoopOptimizer.Temporary> updated = region.getUpdatedTemporaries();
+        Type owner = Type.getObjectType(fileName);
+        Type[] argumentTypes = new Type[inputs.size() + temporaries.size()];
+        for (int i = 0; i < inputs.size(); i++)
+            argumentTypes[i] = getVariableType(inputs.get(i));
+        for (int i = 0; i < temporaries.size(); i++)
+            argumentTypes[inputs.size() + i] = getType(temporaries.get(i).getValue());
+        Type returnType = outputs.isEmpty() ? Type.VOID_TYPE : getVariableType(outputs.get(0));
+        Method method = new Method(region.getName(), returnType, argumentTypes);
+        // Inlining the region would undo the outlining
+        inliner.keep(region.getName());
+
+        for (int i = 1; i < outputs.size(); i++)
+            inliner.visitField(ACC_PRIVATE + ACC_STATIC, region.getName() + "$" + i,
+                    getVariableType(outputs.get(i)).getDescriptor(), null, null).visitEnd();
+        for (int i = 0; i < updated.size(); i++)
+            inliner.visitField(ACC_PRIVATE + ACC_STATIC, region.getName() + "$t" + i, "I", null, null).visitEnd();
+
+        for (Symbol input : inputs)
+            loadVariable(input, getVariableType(input));
+        for (int i = 0; i < temporaries.size(); i++)
+            mg.loadLocal(getSlot(temporaries.get(i)), argumentTypes[inputs.size() + i]);
+        mg.invokeStatic(owner, method);
+        if (!outputs.isEmpty())
+            storeVariable(outputs.get(0), returnType);
+        for (int i = 1; i < outputs.size(); i++) {
+            mg.getStatic(owner, region.getName() + "$" + i, getVariableType(outputs.get(i)));
+            storeVariable(outputs.get(i), getVariableType(outputs.get(i)));
+        }
+        for (int i = 0; i < updated.size(); i++) {
+            mg.getStatic(owner, region.getName() + "$t" + i, Type.INT_TYPE);
+            mg.storeLocal(getSlot(updated.get(i)), Type.INT_TYPE);
+        }
+
+        GeneratorAdapter caller = mg;
+        int callerFrameBase = frameBase;
+        boolean callerInRegion = inRegion;
+        mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, method, null, null, inliner);
+        frameBase = Type.getArgumentsAndReturnSizes(method.getDescriptor()) >> 2;
+        inRegion = true;
+
+        for (int i = 0; i < inputs.size(); i++) {
+            mg.loadArg(i);
+            storeVariable(inputs.get(i), argumentTypes[i]);
+        }
+        for (int i = 0; i < temporaries.size(); i++) {
+            mg.loadArg(inputs.size() + i);
+            mg.storeLocal(getSlot(temporaries.get(i)), argumentTypes[inputs.size() + i]);
+        }
+        // The first statement is keyed to this region, so a region it starts is nested
+        List<OFPParser.StmtContext> statements = region.getStatements();
+        int rest = 1;
+        if (region.getHead() != null) {
+            generateRegion(region.getHead());
+            rest = region.getHead().getStatements().size();
+        } else {
+            visit(statements.get(0));
+        }
+        visitStatements(statements.subList(rest, statements.size()));
+        for (int i = 1; i < outputs.size(); i++) {
+            loadVariable(outputs.get(i), getVariableType(outputs.get(i)));
+            mg.putStatic(owner, region.getName() + "$" + i, getVariableType(outputs.get(i)));
+        }
+        for (int i = 0; i < updated.size(); i++) {
+            mg.loadLocal(getSlot(updated.get(i)), Type.INT_TYPE);
+            mg.putStatic(owner, region.getName() + "$t" + i, Type.INT_TYPE);
+        }
+        if (!outputs.isEmpty())
+            loadVariable(outputs.get(0), returnType);
+        mg.returnValue();
+        mg.endMethod();
+
+        mg = caller;
+        frameBase = callerFrameBase;
+        inRegion = callerInRegion;
+    }
+
+    /**
+     * Generates bytecode for print statements, which write to the output sink.
      *
      * @param ctx the print statement context
      * @return null
      */
     @Override
     public Type visitPrintStmt(OFPParser.PrintStmtContext ctx) {
-        mg.getStatic(Type.getType(System.class), "out", Type.getType(PrintStream.class));
-
-        Type exprType = visit(ctx.expr());
-        String typeString;
-        if (exprType == Type.INT_TYPE)
-            typeString = "int";
-        else if (exprType == Type.DOUBLE_TYPE)
-            typeString = "double";
-        else if (exprType == Type.BOOLEAN_TYPE)
-            typeString = "boolean";
-        else if (exprType == Type.CHAR_TYPE)
-            typeString = "char";
-        else if (exprType.toString().equals("java.lang.String"))
-            typeString = "java.lang.String";
-        else
+        mg.getStatic(Type.getObjectType(fileName), SINK_FIELD, OUTPUT_SINK);
+
+        Type exprType = getType(ctx.expr());
+        if (exprType.getSort() == Type.ARRAY)
             throw new RuntimeException("Unsupported print type: " + exprType);
 
-        mg.invokeVirtual(Type.getType(PrintStream.class),
-                Method.getMethod("void " + ctx.getChild(0).getText() + " (" + typeString + ")"));
+        visit(ctx.expr());
+        mg.invokeVirtual(OUTPUT_SINK, new Method(ctx.getChild(0).getText(), Type.VOID_TYPE, new Type[] { exprType }));
 
         return null;
     }
 
+    /**
+     * Writes the buffered output of the program.
+     */
+    private void flushOutput() {
+        mg.getStatic(Type.getObjectType(fileName), SINK_FIELD, OUTPUT_SINK);
+        mg.invokeVirtual(OUTPUT_SINK, Method.getMethod("void flush ()"));
+    }
+
     /**
      * Generates bytecode for assignment statements.
      *
@@ -227,36 +554,34 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitAssignStmt(OFPParser.AssignStmtContext ctx) {
         Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
-        int symbolPointer = varSymbol.getPointer();
-        OFPType varType = varSymbol.getType();
-        Type exprType;
+        Type varType = getVariableType(varSymbol);
 
         if (ctx.expr(1) == null) {
-            exprType = visit(ctx.expr(0));
-            mg.storeLocal(symbolPointer, exprType);
+            visit(ctx.expr(0));
+            storeVariable(varSymbol, varType);
+
+            // Induction temporaries follow every update of their variable
+            List<LoopOptimizer.Temporary> updates = loops.getUpdates().get(ctx);
+            if (updates != null) {
+                for (LoopOptimizer.Temporary temporary : updates) {
+                    mg.loadLocal(getSlot(temporary), Type.INT_TYPE);
+                    mg.push((int) temporary.getStep());
+                    mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+                    mg.storeLocal(getSlot(temporary), Type.INT_TYPE);
+                }
+            }
 
-            return exprType;
+            return varType;
         } else {
-            Type arrayType = stringTypeToType(varType.toString());
-            if (arrayType.equals(Type.getType(int[].class)))
-                exprType = Type.INT_TYPE;
-            else if (arrayType.equals(Type.getType(double[].class)))
-                exprType = Type.DOUBLE_TYPE;
-            else if (arrayType.equals(Type.getType(char[].class)))
-                exprType = Type.CHAR_TYPE;
-            else
+            if (varType.getSort() != Type.ARRAY)
                 throw new RuntimeException("Unsupported array type: " + varType);
 
-            boolean isParam = isParameter(varSymbol);
-
-            if (!isParam)
-                mg.loadLocal(symbolPointer, arrayType);
-
+            loadVariable(varSymbol, varType);
             visit(ctx.expr(0));
             visit(ctx.expr(1));
-            mg.arrayStore(exprType);
+            mg.arrayStore(varType.getElementType());
 
-            return arrayType;
+            return varType;
         }
     }
 
@@ -269,18 +594,22 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitVarDeclStmt(OFPParser.VarDeclStmtContext ctx) {
         Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
-        varSymbol.setPointer(pointer);
-        Type varType = stringTypeToType(varSymbol.getType().toString());
+        Type varType = getVariableType(varSymbol);
 
-        if (ctx.expr() != null) {
+        if (ctx.expr() != null && removed.get(ctx.expr()) == null) {
             visit(ctx.expr());
-            mg.storeLocal(pointer, varType);
+            storeVariable(varSymbol, varType);
+        } else if (initializeLocals) {
+            // Locals of outlined functions may be passed to a region before they are assigned
+            if (varType.getSort() == Type.OBJECT || varType.getSort() == Type.ARRAY)
+                mg.visitInsn(ACONST_NULL);
+            else if (varType == Type.DOUBLE_TYPE)
+                mg.push(0.0);
+            else
+                mg.push(0);
+            storeVariable(varSymbol, varType);
         }
 
-        if (varType == Type.DOUBLE_TYPE)
-            pointer++;
-        pointer++;
-
         return varType;
     }
 
@@ -292,20 +621,27 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitIfStmt(OFPParser.IfStmtContext ctx) {
-        Label ifLabel = new Label();
+        // Only the taken branch of a constant condition is emitted, the other one is removed
+        if (constants.get(ctx.expr()) != null) {
+            for (OFPParser.BlockContext block : ctx.block())
+                visit(block);
+            return null;
+        }
+
+        Label elseLabel = new Label();
         Label endLabel = new Label();
 
-        visit(ctx.expr());
-        mg.push(0);
-        mg.ifICmp(GeneratorAdapter.EQ, ifLabel);
+        jumpIf(ctx.expr(), false, elseLabel);
 
         visit(ctx.block(0));
-        mg.goTo(endLabel);
-        mg.mark(ifLabel);
-
         if (ctx.block(1) != null)
+            mg.goTo(endLabel);
+        mg.mark(elseLabel);
+
+        if (ctx.block(1) != null) {
             visit(ctx.block(1));
-        mg.mark(endLabel);
+            mg.mark(endLabel);
+        }
 
         return null;
     }
@@ -318,18 +654,25 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitWhileStmt(OFPParser.WhileStmtContext ctx) {
-        Label whileStartLabel = new Label();
-        Label whileEndLabel = new Label();
-
-        mg.mark(whileStartLabel);
-
-        visit(ctx.expr().getChild(0));
-        visit(ctx.expr().getChild(2));
-        mg.ifICmp(GeneratorAdapter.EQ, whileEndLabel);
+        Label bodyLabel = new Label();
+        Label conditionLabel = new Label();
+
+        // The temporaries of the loop are computed once before it starts
+        List<LoopOptimizer.Temporary> preheader = loops.getPreheaders().get(ctx);
+        if (preheader != null) {
+            for (LoopOptimizer.Temporary temporary : preheader) {
+                super.visit(temporary.getValue());
+                mg.storeLocal(getSlot(temporary), getType(temporary.getValue()));
+            }
+        }
 
+        // The condition is tested at the bottom, so each iteration takes a single jump
+        mg.goTo(conditionLabel);
+        mg.mark(bodyLabel);
         visit(ctx.block());
-        mg.goTo(whileStartLabel);
-        mg.mark(whileEndLabel);
+
+        mg.mark(conditionLabel);
+        jumpIf(ctx.expr(), true, bodyLabel);
 
         return null;
     }
@@ -342,69 +685,82 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitReturnStmt(OFPParser.ReturnStmtContext ctx) {
-        Type returnType = visit(ctx.expr());
+        OFPParser.FuncCallContext tailCall = tailCalls.getTailCalls().get(ctx);
+        if (tailCall != null) {
+            jumpToStart(tailCall, tailCalls.getAccumulated().get(ctx));
+            return JAVA_TYPES.get(currentFunctionSymbol.getReturnType());
+        }
+
+        if (accumulatorOperator != null) {
+            mg.loadLocal(accumulator, Type.INT_TYPE);
+            visit(ctx.expr());
+            accumulate();
+            mg.returnValue();
+            return Type.INT_TYPE;
+        }
+
+        visit(ctx.expr());
         mg.returnValue();
 
-        return returnType;
+        return getType(ctx.expr());
+    }
+
+    /**
+     * Generates bytecode for a self tail call. The arguments are evaluated
+     * before any parameter is assigned, since they may read the parameters.
+     *
+     * @param tailCall the call
+     * @param operand  the value to add to the accumulator, or null
+     */
+    private void jumpToStart(OFPParser.FuncCallContext tailCall, OFPParser.ExprContext operand) {
+        if (operand != null) {
+            mg.loadLocal(accumulator, Type.INT_TYPE);
+            visit(operand);
+            accumulate();
+            mg.storeLocal(accumulator, Type.INT_TYPE);
+        }
+
+        List<Symbol> params = currentFunctionSymbol.getParameters();
+        for (OFPParser.ExprContext arg : tailCall.expr())
+            visit(arg);
+        for (int i = params.size() - 1; i >= 0; i--)
+            mg.storeArg(i);
+
+        mg.goTo(functionStart);
+    }
+
+    private void accumulate() {
+        mg.math(accumulatorOperator.equals("+") ? GeneratorAdapter.ADD : GeneratorAdapter.MUL, Type.INT_TYPE);
     }
 
     /**
-     * Generates bytecode for array initialization expressions.
+     * Generates bytecode for array initialization expressions. Pooled
+     * literals load their array from the pool instead.
      *
      * @param ctx the array initialization expression context
      * @return the array type
      */
     @Override
     public Type visitArrayInitExpr(OFPParser.ArrayInitExprContext ctx) {
-        if (ctx.getChild(0).getText().equals("new")) {
-            String arrayTypeString = ctx.getChild(1).getText();
-            Type arrayType;
-            Type arrayTypeClass;
-
-            if (arrayTypeString.equals("int")) {
-                arrayType = Type.INT_TYPE;
-                arrayTypeClass = Type.getType(int[].class);
-            } else if (arrayTypeString.equals("float")) {
-                arrayType = Type.DOUBLE_TYPE;
-                arrayTypeClass = Type.getType(double[].class);
-            } else if (arrayTypeString.equals("char")) {
-                arrayType = Type.CHAR_TYPE;
-                arrayTypeClass = Type.getType(char[].class);
-            } else
-                throw new RuntimeException("Unsupported array type: " + arrayTypeString);
+        if (arrayPool.getIndex(ctx) != null)
+            return arrayPoolGenerator.load(mg, ctx);
 
+        Type elementType = getType(ctx).getElementType();
+        if (ctx.getChild(0).getText().equals("new")) {
             visit(ctx.expr(0));
-            mg.newArray(arrayType);
-
-            return arrayTypeClass;
+            mg.newArray(elementType);
         } else {
-            int arraySize = ctx.expr().size();
-            Type arrayType = visit(ctx.expr(0));
-
-            if (arrayType == Type.DOUBLE_TYPE)
-                mg.pop2();
-            else
-                mg.pop();
-
-            mg.push(arraySize);
-            mg.newArray(arrayType);
-
-            for (int i = 0; i < arraySize; i++) {
+            mg.push(ctx.expr().size());
+            mg.newArray(elementType);
+            for (int i = 0; i < ctx.expr().size(); i++) {
                 mg.dup();
                 mg.push(i);
                 visit(ctx.expr(i));
-                mg.arrayStore(arrayType);
+                mg.arrayStore(elementType);
             }
-
-            if (arrayType == Type.INT_TYPE)
-                return Type.getType(int[].class);
-            else if (arrayType == Type.DOUBLE_TYPE)
-                return Type.getType(double[].class);
-            else if (arrayType == Type.CHAR_TYPE)
-                return Type.getType(char[].class);
-            else
-                throw new RuntimeException("Unsupported array type: " + arrayType);
         }
+
+        return getType(ctx);
     }
 
     /**
@@ -416,45 +772,16 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitArrayAccessExpr(OFPParser.ArrayAccessExprContext ctx) {
         Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
-        int symbolPointer = varSymbol.getPointer();
-        OFPType varType = varSymbol.getType();
-
-        if (varType == OFPType.STRING) {
-            boolean isParam = isParameter(varSymbol);
-
-            if (!isParam)
-                mg.loadLocal(symbolPointer, Type.getType(String.class));
-
-            visit(ctx.expr());
-            mg.invokeVirtual(Type.getType(String.class), Method.getMethod("char charAt (int)"));
-
-            return Type.CHAR_TYPE;
-        } else {
-            Type arrayType;
-            Type arrayTypeClass;
-
-            if (varType == OFPType.INT_ARRAY) {
-                arrayType = Type.INT_TYPE;
-                arrayTypeClass = Type.getType(int[].class);
-            } else if (varType == OFPType.FLOAT_ARRAY) {
-                arrayType = Type.DOUBLE_TYPE;
-                arrayTypeClass = Type.getType(double[].class);
-            } else if (varType == OFPType.CHAR_ARRAY) {
-                arrayType = Type.CHAR_TYPE;
-                arrayTypeClass = Type.getType(char[].class);
-            } else
-                throw new RuntimeException("Unsupported array type: " + varType);
-
-            boolean isParam = isParameter(varSymbol);
-
-            if (!isParam)
-                mg.loadLocal(symbolPointer, arrayTypeClass);
+        Type varType = getVariableType(varSymbol);
+        loadVariable(varSymbol, varType);
+        visit(ctx.expr());
 
-            visit(ctx.expr());
-            mg.arrayLoad(arrayType);
+        if (varSymbol.getType() == OFPType.STRING)
+            mg.invokeVirtual(varType, Method.getMethod("char charAt (int)"));
+        else
+            mg.arrayLoad(varType.getElementType());
 
-            return arrayType;
-        }
+        return getType(ctx);
     }
 
     /**
@@ -465,11 +792,11 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitArrayLengthExpr(OFPParser.ArrayLengthExprContext ctx) {
-        Type arrayType = visit(ctx.expr());
+        visit(ctx.expr());
 
-        if (arrayType.equals(Type.getType(String.class))) {
+        if (getType(ctx.expr()).getSort() != Type.ARRAY)
             mg.invokeVirtual(Type.getType(String.class), Method.getMethod("int length ()"));
-        } else
+        else
             mg.arrayLength();
 
         return Type.INT_TYPE;
@@ -494,10 +821,10 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitUnaryExpr(OFPParser.UnaryExprContext ctx) {
-        Type exprType = visit(ctx.expr());
-        mg.math(GeneratorAdapter.NEG, exprType);
+        visit(ctx.expr());
+        mg.math(GeneratorAdapter.NEG, getType(ctx));
 
-        return exprType;
+        return getType(ctx);
     }
 
     /**
@@ -508,16 +835,40 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitMultExpr(OFPParser.MultExprContext ctx) {
-        Type leftType = visit(ctx.expr(0));
+        Type type = getType(ctx);
+        visit(ctx.expr(0));
+        Integer shift = loops.getShifts().get(ctx);
+        if (shift != null && type == Type.INT_TYPE) {
+            divideByShift(shift);
+            return type;
+        }
+
         visit(ctx.expr(1));
         String operator = ctx.getChild(1).getText();
 
         if (operator.equals("*"))
-            mg.math(GeneratorAdapter.MUL, leftType);
+            mg.math(GeneratorAdapter.MUL, type);
         else
-            mg.math(GeneratorAdapter.DIV, leftType);
+            mg.math(GeneratorAdapter.DIV, type);
 
-        return leftType;
+        return type;
+    }
+
+    /**
+     * Divides the int on top of the stack by 2^shift. Adding 2^shift - 1 to
+     * negative values first makes the shift round towards zero like idiv.
+     *
+     * @param shift the exponent of the divisor
+     */
+    private void divideByShift(int shift) {
+        mg.dup();
+        mg.push(31);
+        mg.math(GeneratorAdapter.SHR, Type.INT_TYPE);
+        mg.push(32 - shift);
+        mg.math(GeneratorAdapter.USHR, Type.INT_TYPE);
+        mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        mg.push(shift);
+        mg.math(GeneratorAdapter.SHR, Type.INT_TYPE);
     }
 
     /**
@@ -528,15 +879,16 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitAddiExpr(OFPParser.AddiExprContext ctx) {
-        Type leftType = visit(ctx.expr(0));
+        Type type = getType(ctx);
+        visit(ctx.expr(0));
         visit(ctx.expr(1));
         String operator = ctx.getChild(1).getText();
         if (operator.equals("+"))
-            mg.math(GeneratorAdapter.ADD, leftType);
+            mg.math(GeneratorAdapter.ADD, type);
         else
-            mg.math(GeneratorAdapter.SUB, leftType);
+            mg.math(GeneratorAdapter.SUB, type);
 
-        return leftType;
+        return type;
     }
 
     /**
@@ -547,27 +899,7 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitRelExpr(OFPParser.RelExprContext ctx) {
-        Type leftType = visit(ctx.expr(0));
-        visit(ctx.expr(1));
-        String operator = ctx.getChild(1).getText();
-        Label falseLabel = new Label();
-        Label trueLabel = new Label();
-
-        if (operator.equals("<"))
-            mg.ifCmp(leftType, GeneratorAdapter.GT, trueLabel);
-        else if (operator.equals(">"))
-            mg.ifCmp(leftType, GeneratorAdapter.LT, trueLabel);
-        else
-            throw new RuntimeException("Unsupported relational operator: " + operator);
-
-        mg.push(true);
-        mg.goTo(falseLabel);
-
-        mg.mark(trueLabel);
-        mg.push(false);
-        mg.mark(falseLabel);
-
-        return Type.BOOLEAN_TYPE;
+        return pushCondition(ctx);
     }
 
     /**
@@ -578,25 +910,95 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
      */
     @Override
     public Type visitEqExpr(OFPParser.EqExprContext ctx) {
-        Type leftType = visit(ctx.expr(0));
-        visit(ctx.expr(1));
-        String operator = ctx.getChild(1).getText();
-        Label trueLabel = new Label();
-        Label falseLabel = new Label();
+        return pushCondition(ctx);
+    }
 
-        if (operator.equals("=="))
-            mg.ifCmp(leftType, GeneratorAdapter.NE, trueLabel);
+    /**
+     * Pushes the value of a comparison used as a value rather than as the
+     * condition of an if or while statement.
+     *
+     * @param ctx the comparison
+     * @return boolean type
+     */
+    private Type pushCondition(OFPParser.ExprContext ctx) {
+        Label falseLabel = new Label();
+        Label endLabel = new Label();
 
+        jumpIf(ctx, false, falseLabel);
         mg.push(true);
-        mg.goTo(falseLabel);
+        mg.goTo(endLabel);
 
-        mg.mark(trueLabel);
-        mg.push(false);
         mg.mark(falseLabel);
+        mg.push(false);
+        mg.mark(endLabel);
 
         return Type.BOOLEAN_TYPE;
     }
 
+    /**
+     * Generates a jump to a label that is taken if a condition has the given
+     * value and falls through otherwise. A comparison compiles to a single
+     * conditional jump on its operands, without materializing a boolean.
+     *
+     * @param ctx    the condition
+     * @param value  the value of the condition that takes the jump
+     * @param target the jump target
+     */
+    private void jumpIf(OFPParser.ExprContext ctx, boolean value, Label target) {
+        Object constant = constants.get(ctx);
+
+        if (constant != null) {
+            if (constant.equals(value))
+                mg.goTo(target);
+        } else if (ctx instanceof OFPParser.ParenExprContext) {
+            jumpIf(((OFPParser.ParenExprContext) ctx).expr(), value, target);
+        } else if (ctx instanceof OFPParser.RelExprContext) {
+            OFPParser.RelExprContext rel = (OFPParser.RelExprContext) ctx;
+            String operator = rel.getChild(1).getText();
+            int mode;
+            if (operator.equals("<"))
+                mode = GeneratorAdapter.LT;
+            else if (operator.equals(">"))
+                mode = GeneratorAdapter.GT;
+            else
+                throw new RuntimeException("Unsupported relational operator: " + operator);
+            jumpIfCompare(rel.expr(0), rel.expr(1), mode, value, target);
+        } else if (ctx instanceof OFPParser.EqExprContext) {
+            OFPParser.EqExprContext eq = (OFPParser.EqExprContext) ctx;
+            jumpIfCompare(eq.expr(0), eq.expr(1), GeneratorAdapter.EQ, value, target);
+        } else {
+            visit(ctx);
+            mg.ifZCmp(value ? GeneratorAdapter.NE : GeneratorAdapter.EQ, target);
+        }
+    }
+
+    /**
+     * Generates a jump to a label that is taken if a comparison has the given
+     * value.
+     *
+     * @param left   the left operand
+     * @param right  the right operand
+     * @param mode   the comparison, one of the GeneratorAdapter modes
+     * @param value  the value of the comparison that takes the jump
+     * @param target the jump target
+     */
+    private void jumpIfCompare(OFPParser.ExprContext left, OFPParser.ExprContext right, int mode,
+            boolean value, Label target) {
+        Type type = getType(left);
+        visit(left);
+        visit(right);
+        // The modes are the IFxx opcodes, in which every condition is paired with its negation
+        int jumpMode = value ? mode : ((mode - IFEQ) ^ 1) + IFEQ;
+
+        if (type == Type.DOUBLE_TYPE) {
+            // Picking the instruction by the operator keeps the comparison false for NaN
+            mg.visitInsn(mode == GeneratorAdapter.GT ? DCMPL : DCMPG);
+            mg.ifZCmp(jumpMode, target);
+        } else {
+            mg.ifCmp(type, jumpMode, target);
+        }
+    }
+
     /**
      * Generates bytecode for integer literals.
      *
@@ -660,7 +1062,7 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
         String str = ctx.getText().substring(1, ctx.getText().length() - 1);
         mg.push(str);
 
-        return Type.getType("java.lang.String");
+        return Type.getType(String.class);
     }
 
     /**
@@ -672,93 +1074,78 @@ public class BytecodeGenerator extends OFPBaseVisitor<Type> implements Opcodes {
     @Override
     public Type visitIDExpr(OFPParser.IDExprContext ctx) {
         Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
-        int symbolPointer = varSymbol.getPointer();
-        OFPType varType = varSymbol.getType();
-
-        Type javaType = stringTypeToType(varType.toString());
+        Type varType = getVariableType(varSymbol);
+        loadVariable(varSymbol, varType);
 
-        for (int i = 0; i < currentFunctionSymbol.getParameters().size(); i++) {
-            if (currentFunctionSymbol.getParameters().get(i).getName().equals(varSymbol.getName())) {
-                mg.loadArg(i);
-                return javaType;
-            }
-        }
+        return varType;
+    }
 
-        mg.loadLocal(symbolPointer, javaType);
+    /**
+     * Returns the Java type of an expression, as recorded by the type checker.
+     *
+     * @param expr the expression
+     * @return the Java type
+     */
+    private Type getType(ParseTree expr) {
+        return JAVA_TYPES.get(types.get(expr));
+    }
 
-        return javaType;
+    private static Type getVariableType(Symbol varSymbol) {
+        return JAVA_TYPES.get(varSymbol.getType());
     }
 
     /**
-     * Converts an OFP type string to a Java type string for ASM.
+     * Returns the method that implements a function.
      *
-     * @param ofpType the OFP type string
-     * @return the Java type string
+     * @param function the function
+     * @return the method
      */
-    private String ofpTypeToJavaType(String ofpType) {
-        switch (ofpType) {
-            case "float":
-                return "double";
-            case "bool":
-                return "boolean";
-            case "string":
-                return "String";
-            case "float[]":
-                return "double[]";
-
-            default:
-                return ofpType;
-        }
+    private static Method getMethod(FunctionSymbol function) {
+        List<Symbol> params = function.getParameters();
+        Type[] argumentTypes = new Type[params.size()];
+        for (int i = 0; i < params.size(); i++)
+            argumentTypes[i] = getVariableType(params.get(i));
+        return new Method(function.getName(), JAVA_TYPES.get(function.getReturnType()), argumentTypes);
     }
 
     /**
-     * Converts a type string to an ASM Type.
-     *
-     * @param stringType the type string
-     * @return the ASM Type
-     */
-    private Type stringTypeToType(String stringType) {
-        switch (stringType) {
-            case "void":
-                return Type.VOID_TYPE;
-            case "int":
-                return Type.INT_TYPE;
-            case "float":
-                return Type.DOUBLE_TYPE;
-            case "bool":
-                return Type.BOOLEAN_TYPE;
-            case "char":
-                return Type.CHAR_TYPE;
-            case "string":
-                return Type.getType(String.class);
-            case "int[]":
-                return Type.getType(int[].class);
-            case "float[]":
-                return Type.getType(double[].class);
-            case "char[]":
-                return Type.getType(char[].class);
-
-            default:
-                return null;
-        }
+     * Loads a variable, which is either a parameter or a local of the current
+     * function. In a region, parameters of the function are locals too.
+     *
+     * @param varSymbol the variable
+     * @param type      the type of the variable
+     */
+    private void loadVariable(Symbol varSymbol, Type type) {
+        int arg = varSymbol.getParameterIndex();
+        if (arg >= 0 && !inRegion)
+            mg.loadArg(arg);
+        else
+            mg.loadLocal(frameBase + varSymbol.getPointer(), type);
     }
 
     /**
-     * Checks if a symbol is a function parameter.
+     * Stores the value on top of the stack in a variable, which is either a
+     * parameter or a local of the current function. In a region, parameters
+     * of the function are locals too.
      *
-     * @param varSymbol the symbol to check
-     * @return true if the symbol is a parameter, false otherwise
+     * @param varSymbol the variable
+     * @param type      the type of the variable
      */
-    private boolean isParameter(Symbol varSymbol) {
-        boolean isParam = false;
-        for (int i = 0; i < currentFunctionSymbol.getParameters().size(); i++) {
-            if (currentFunctionSymbol.getParameters().get(i).getName().equals(varSymbol.getName())) {
-                isParam = true;
-                mg.loadArg(i);
-                break;
-            }
-        }
+    private void storeVariable(Symbol varSymbol, Type type) {
+        int arg = varSymbol.getParameterIndex();
+        if (arg >= 0 && !inRegion)
+            mg.storeArg(arg);
+        else
+            mg.storeLocal(frameBase + varSymbol.getPointer(), type);
+    }
 
-        return isParam;
+    /**
+     * Returns the slot of a loop temporary in the current method.
+     *
+     * @param temporary the temporary
+     * @return the slot
+     */
+    private int getSlot(LoopOptimizer.Temporary temporary) {
+        return frameBase + frameLayout.getSlot(temporary);
     }
 }
@@ -149,6 +149,10 @@ public class CheckRefListener extends OFPBaseListener {
         }
     }
 
+    public int getErrorCount() {
+        return checkRefErrorCount;
+    }
+
     /**
      * Reports the total number of semantic errors found.
      */
@@ -0,0 +1,501 @@
+package ofp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent, content-addressed cache of compilation results.
+ * All entries live in a single append-only store file. Each record holds a
+ * SHA-256 key of the compiler version, the options and the program source,
+ * followed by the diagnostics, the Python code and the class file. The index
+ * of key to file offset is rebuilt from the record headers when the cache is
+ * opened. When the store grows beyond its size limit, the least recently
+ * used entries are dropped by rewriting the file.
+ *
+ * The cache is safe to use from parallel compilations: reads run
+ * concurrently, appends and compaction are exclusive. Several compiler
+ * processes can share one store. Appends and compaction additionally lock a
+ * separate lock file, which is never replaced, and the lock file holds a
+ * generation number that every compaction increments. A cache that finds a
+ * new generation reopens the store and rebuilds its index before it reads or
+ * appends, so it never writes to a store another process has replaced. A
+ * cache that finds records beyond the end it has indexed adds them to its
+ * index, so records appended by other processes are found and kept by
+ * compaction.
+ */
+public class CompilationCache implements Closeable {
+    public static final String STORE_FILE = "ofp-cache.bin";
+    public static final String LOCK_FILE = "ofp-cache.lock";
+    private static final int MAGIC = 0x4F465043;
+    private static final int KEY_SIZE = 32;
+    private static final int HEADER_SIZE = 4 + KEY_SIZE + 4 + 4;
+
+    private Path file;
+    private long maxBytes;
+    private FileChannel channel;
+    private FileChannel lockChannel;
+    private long generation;
+    private long end;
+    private Map<String, Entry> index = new LinkedHashMap<>(16, 0.75f, true);
+    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Location of one record in the store file.
+     */
+    private static class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Opens, or creates, the cache store in the given directory.
+     *
+     * @param dir      the cache directory
+     * @param maxBytes the size limit of the store file
+     * @throws IOException if the store cannot be opened
+     */
+    public CompilationCache(Path dir, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        this.file = dir.resolve(STORE_FILE);
+        this.maxBytes = maxBytes;
+        lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileLock fileLock = lockChannel.lock();
+        try {
+            generation = readGeneration();
+            open();
+        } finally {
+            fileLock.release();
+        }
+    }
+
+    /**
+     * Computes the cache key of a program.
+     *
+     * @param source      the program source, which is consumed
+     * @param programName the name of the generated class
+     * @param fingerprint the compiler version and options that affect the outputs
+     * @return the SHA-256 key
+     */
+    public static byte[] key(ByteBuffer source, String programName, String fingerprint) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(programName.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Restores a cached compilation into a result.
+     *
+     * @param key    the cache key
+     * @param result the result to fill in
+     * @return true if the key was found, false otherwise
+     */
+    public boolean restore(byte[] key, CompilationResult result) {
+        String hexKey = toHex(key);
+        try {
+            if (isStale())
+                update();
+        } catch (IOException e) {
+            return false;
+        }
+
+        lock.readLock().lock();
+        try {
+            Entry entry;
+            synchronized (index) {
+                entry = index.get(hexKey);
+            }
+            if (entry == null)
+                return false;
+
+            byte[] payload = readRecord(entry, key);
+            if (payload == null) {
+                synchronized (index) {
+                    index.remove(hexKey);
+                }
+                return false;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            result.addErrors(in.readInt());
+            result.setConsoleOutput(new String(readBytes(in), StandardCharsets.UTF_8));
+            result.setPythonCode(new String(readBytes(in), StandardCharsets.UTF_8));
+            result.setBytecode(readBytes(in));
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a successful compilation.
+     *
+     * @param key    the cache key
+     * @param result the compilation result
+     * @throws IOException if the store cannot be written
+     */
+    public void store(byte[] key, CompilationResult result) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(result.getErrorCount());
+        writeBytes(out, result.getConsoleOutput().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, result.getPythonCode().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, result.getBytecode());
+        byte[] record = toRecord(key, payload.toByteArray());
+
+        boolean full;
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = lockChannel.lock();
+            try {
+                refresh();
+                long offset = end;
+                channel.write(ByteBuffer.wrap(record), offset);
+                synchronized (index) {
+                    index.put(toHex(key), new Entry(offset, record.length));
+                }
+                end = offset + record.length;
+                full = end > maxBytes;
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (full)
+            compact();
+    }
+
+    /**
+     * Rewrites the store with the most recently used entries that fit into
+     * three quarters of the size limit, dropping older and superseded records.
+     *
+     * @throws IOException if the store cannot be rewritten
+     */
+    private void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Map<String, Entry> compacted = new LinkedHashMap<>(16, 0.75f, true);
+            Path temp = file.resolveSibling(STORE_FILE + ".tmp");
+
+            FileLock fileLock = lockChannel.lock();
+            try {
+                refresh();
+                if (end <= maxBytes)
+                    return;
+
+                List<Map.Entry<String, Entry>> entries;
+                synchronized (index) {
+                    entries = new ArrayList<>(index.entrySet());
+                }
+
+                // Keep entries from most to least recently used until the budget is spent
+                long budget = maxBytes * 3 / 4;
+                int first = entries.size();
+                while (first > 0 && entries.get(first - 1).getValue().length <= budget) {
+                    budget -= entries.get(first - 1).getValue().length;
+                    first--;
+                }
+
+                long offset = 0;
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (Map.Entry<String, Entry> entry : entries.subList(first, entries.size())) {
+                        ByteBuffer record = ByteBuffer.allocate(entry.getValue().length);
+                        if (!readFully(record, entry.getValue().offset))
+                            continue;
+                        out.write(record, offset);
+                        compacted.put(entry.getKey(), new Entry(offset, entry.getValue().length));
+                        offset += entry.getValue().length;
+                    }
+                }
+
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                writeGeneration(generation + 1);
+
+                channel.close();
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                synchronized (index) {
+                    index = compacted;
+                }
+                end = offset;
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens the store file and rebuilds the index from the record headers.
+     * The caller holds the lock file.
+     *
+     * @throws IOException if the store cannot be read
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        synchronized (index) {
+            index = new LinkedHashMap<>(16, 0.75f, true);
+        }
+        end = 0;
+        scan();
+    }
+
+    /**
+     * Adds the records between the last indexed end of the store and the end
+     * of the file to the index. These are the records other processes have
+     * appended since. A truncated or corrupt tail, left by an interrupted
+     * write, is cut off. The caller holds the lock file.
+     *
+     * @throws IOException if the store cannot be read
+     */
+    private void scan() throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        long size = channel.size();
+        long offset = end;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (offset + HEADER_SIZE <= size) {
+            header.clear();
+            if (!readFully(header, offset) || header.getInt() != MAGIC)
+                break;
+
+            byte[] key = new byte[KEY_SIZE];
+            header.get(key);
+            int payloadLength = header.getInt();
+            int recordLength = HEADER_SIZE + payloadLength;
+            if (payloadLength < 0 || offset + recordLength > size)
+                break;
+
+            entries.put(toHex(key), new Entry(offset, recordLength));
+            offset += recordLength;
+        }
+
+        if (offset < size)
+            channel.truncate(offset);
+        synchronized (index) {
+            index.putAll(entries);
+        }
+        end = offset;
+    }
+
+    /**
+     * Checks whether another process has compacted the store, or appended to
+     * it, since it was last indexed.
+     *
+     * @return true if the index must be updated
+     * @throws IOException if the lock file or the store cannot be read
+     */
+    private boolean isStale() throws IOException {
+        lock.readLock().lock();
+        try {
+            return readGeneration() != generation || channel.size() != end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Brings the index up to date with the store under the lock file.
+     *
+     * @throws IOException if the store cannot be read
+     */
+    private void update() throws IOException {
+        lock.writeLock().lock();
+        try {
+            FileLock fileLock = lockChannel.lock();
+            try {
+                refresh();
+            } finally {
+                fileLock.release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reopens the store and rebuilds the index if the generation in the lock
+     * file has changed, and indexes the records other processes have appended
+     * otherwise. The caller holds the write lock and the lock file.
+     *
+     * @throws IOException if the store cannot be read
+     */
+    private void refresh() throws IOException {
+        long current = readGeneration();
+        if (current == generation) {
+            scan();
+            return;
+        }
+
+        channel.close();
+        generation = current;
+        open();
+    }
+
+    /**
+     * Reads the generation number from the lock file.
+     *
+     * @return the generation, or 0 if none was written yet
+     * @throws IOException if the lock file cannot be read
+     */
+    private long readGeneration() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        while (buffer.hasRemaining()) {
+            if (lockChannel.read(buffer, buffer.position()) < 0)
+                return 0;
+        }
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Writes a new generation number to the lock file. The caller holds the
+     * write lock and the lock file.
+     *
+     * @param next the new generation
+     * @throws IOException if the lock file cannot be written
+     */
+    private void writeGeneration(long next) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(next).flip();
+        while (buffer.hasRemaining())
+            lockChannel.write(buffer, buffer.position());
+        generation = next;
+    }
+
+    /**
+     * Reads and validates the payload of a record.
+     *
+     * @param entry the record location
+     * @param key   the expected key
+     * @return the payload, or null if the record does not match the key or is
+     *         corrupt
+     * @throws IOException if the store cannot be read
+     */
+    private byte[] readRecord(Entry entry, byte[] key) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(entry.length);
+        if (!readFully(record, entry.offset))
+            return null;
+
+        byte[] recordKey = new byte[KEY_SIZE];
+        if (record.getInt() != MAGIC)
+            return null;
+        record.get(recordKey);
+        int payloadLength = record.getInt();
+        int checksum = record.getInt();
+        if (!Arrays.equals(key, recordKey) || payloadLength != entry.length - HEADER_SIZE)
+            return null;
+
+        byte[] payload = new byte[payloadLength];
+        record.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    /**
+     * Fills a buffer from the store file and flips it for reading.
+     *
+     * @param buffer the buffer to fill
+     * @param offset the file offset to read from
+     * @return true if the buffer was filled, false if the file ended first
+     * @throws IOException if the store cannot be read
+     */
+    private boolean readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                return false;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Builds a complete record from a key and payload.
+     *
+     * @param key     the cache key
+     * @param payload the serialized compilation result
+     * @return the record bytes
+     */
+    private static byte[] toRecord(byte[] key, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(MAGIC);
+        record.put(key);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+
+        return record.array();
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+            lockChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
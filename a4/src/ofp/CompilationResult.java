@@ -0,0 +1,99 @@
+package ofp;
+
+import java.nio.file.Path;
+
+/**
+ * Represents the outcome of compiling a single OFP program.
+ * Stores the generated code, the number of diagnostics, everything the
+ * compilation printed and the cost of each compiler phase, so results can be
+ * reported in a deterministic order.
+ */
+public class CompilationResult {
+    private Path source;
+    private String programName;
+    private String pythonCode;
+    private byte[] bytecode;
+    private int errorCount = 0;
+    private boolean failed = false;
+    private String consoleOutput = "";
+    private PhaseMetrics metrics;
+
+    /**
+     * Constructs a CompilationResult for the given source file.
+     *
+     * @param source      the path of the OFP program
+     * @param programName the program name used for the generated class
+     */
+    public CompilationResult(Path source, String programName) {
+        this.source = source;
+        this.programName = programName;
+        this.metrics = new PhaseMetrics(source.toString());
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public String getPythonCode() {
+        return pythonCode;
+    }
+
+    public void setPythonCode(String pythonCode) {
+        this.pythonCode = pythonCode;
+    }
+
+    public byte[] getBytecode() {
+        return bytecode;
+    }
+
+    public void setBytecode(byte[] bytecode) {
+        this.bytecode = bytecode;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public void addErrors(int count) {
+        errorCount += count;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+
+    public String getConsoleOutput() {
+        return consoleOutput;
+    }
+
+    public void setConsoleOutput(String consoleOutput) {
+        this.consoleOutput = consoleOutput;
+    }
+
+    public PhaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the process exit code for this result: 0 on success, 1 if
+     * diagnostics were reported and 2 if the compilation or execution failed.
+     *
+     * @return the exit code
+     */
+    public int getExitCode() {
+        if (failed)
+            return 2;
+        else if (errorCount > 0)
+            return 1;
+        else
+            return 0;
+    }
+}
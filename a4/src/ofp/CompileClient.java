@@ -0,0 +1,117 @@
+package ofp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client for the CompileServer.
+ * Sends each program to the server over its UNIX domain socket, prints the
+ * captured output and writes the returned Python code and class file to the
+ * output directory.
+ *
+ * Usage: java ofp.CompileClient --socket path [-o outputDir] [--run] file.ofp...
+ */
+public class CompileClient {
+    public static void main(String[] args) {
+        Path socket = null;
+        Path outputDir = Paths.get("output");
+        String command = CompileServer.COMPILE;
+        int exitCode = 0;
+        int first = 0;
+
+        for (; first < args.length && args[first].startsWith("-"); first++) {
+            if (args[first].equals("--socket") && first + 1 < args.length)
+                socket = Paths.get(args[++first]);
+            else if (args[first].equals("-o") && first + 1 < args.length)
+                outputDir = Paths.get(args[++first]);
+            else if (args[first].equals("--run"))
+                command = CompileServer.RUN;
+            else
+                break;
+        }
+
+        if (socket == null || first >= args.length) {
+            System.err.println("Usage: java ofp.CompileClient --socket path [-o outputDir] [--run] file.ofp...");
+            System.exit(2);
+        }
+
+        for (int i = first; i < args.length; i++) {
+            try {
+                exitCode = Math.max(exitCode, request(socket, command, Paths.get(args[i]), outputDir));
+            } catch (IOException e) {
+                System.err.println("Error: Request for " + args[i] + " failed: " + e.getMessage());
+                exitCode = 2;
+            }
+        }
+
+        System.exit(exitCode);
+    }
+
+    /**
+     * Sends one request to the server and stores its outputs.
+     *
+     * @param socket    the server socket file
+     * @param command   the request command
+     * @param source    the program to compile
+     * @param outputDir the directory for the returned outputs
+     * @return the exit code of the compilation
+     * @throws IOException if the request fails
+     */
+    private static int request(Path socket, String command, Path source, Path outputDir) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+
+            out.writeUTF(command);
+            out.writeUTF(source.toAbsolutePath().toString());
+            out.flush();
+
+            int exitCode = in.readInt();
+            String programName = in.readUTF();
+            byte[] console = readBytes(in);
+            byte[] python = readBytes(in);
+            byte[] bytecode = readBytes(in);
+
+            System.out.write(console);
+            System.out.flush();
+
+            if (python != null) {
+                Files.createDirectories(outputDir.resolve("python"));
+                Files.write(outputDir.resolve("python").resolve(programName + ".py"), python);
+            }
+            if (bytecode != null) {
+                Files.createDirectories(outputDir.resolve("bytecode"));
+                Files.write(outputDir.resolve("bytecode").resolve(programName + ".class"), bytecode);
+                Compiler.writeRuntime(outputDir.resolve("bytecode"));
+            }
+
+            return exitCode;
+        }
+    }
+
+    /**
+     * Reads a length-prefixed byte array written by the server.
+     *
+     * @param in the input stream
+     * @return the bytes, or null if the server sent none
+     * @throws IOException if reading fails
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,252 @@
+package ofp;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running compile daemon that keeps the JVM, the loaded compiler classes
+ * and the shared ANTLR prediction caches warm between requests.
+ * Requests are read either from a UNIX domain socket (see CompileClient) or
+ * line by line from stdin, and each request is compiled on its own thread.
+ *
+ * Usage: java ofp.CompileServer [--socket path] [-o outputDir] [--warmup dir]
+ */
+public class CompileServer {
+    public static final String COMPILE = "compile";
+    public static final String RUN = "run";
+
+    private Compiler compiler;
+    private Compiler runningCompiler;
+    private ExecutorService executor = newRequestExecutor();
+
+    /**
+     * Constructs a CompileServer whose compilers share the given options.
+     *
+     * @param outputDir the directory for outputs of stdin requests, or null if
+     *                  outputs are returned to the client instead
+     * @param verbose   whether to print the full diagnostic output
+     */
+    public CompileServer(Path outputDir, boolean verbose) {
+        compiler = new Compiler(createOptions(outputDir, verbose, false));
+        runningCompiler = new Compiler(createOptions(outputDir, verbose, true));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path socket = null;
+        Path outputDir = null;
+        Path warmup = null;
+        boolean verbose = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length)
+                socket = Paths.get(args[++i]);
+            else if (args[i].equals("-o") && i + 1 < args.length)
+                outputDir = Paths.get(args[++i]);
+            else if (args[i].equals("--warmup") && i + 1 < args.length)
+                warmup = Paths.get(args[++i]);
+            else if (args[i].equals("--verbose"))
+                verbose = true;
+            else {
+                System.err.println("Usage: java ofp.CompileServer [--socket path] [-o outputDir] [--warmup dir]");
+                System.exit(2);
+            }
+        }
+
+        if (socket == null && outputDir == null)
+            outputDir = Paths.get("output");
+
+        CompileServer server = new CompileServer(socket == null ? outputDir : null, verbose);
+        if (warmup != null)
+            server.warmUp(warmup);
+
+        if (socket != null)
+            server.serveSocket(socket);
+        else
+            server.serveStdin();
+    }
+
+    /**
+     * Compiles all programs in a directory once and discards the results, so
+     * that class loading and the parser's prediction caches are done before the
+     * first real request.
+     *
+     * @param dir the directory with warm-up programs
+     * @throws IOException if the directory cannot be read
+     */
+    public void warmUp(Path dir) throws IOException {
+        Compiler warmupCompiler = new Compiler(createOptions(null, false, false));
+        for (Path source : BatchCompiler.expandInputs(Collections.singletonList(dir.toString())))
+            warmupCompiler.compile(source);
+    }
+
+    /**
+     * Serves requests from stdin, one per line: "compile path" or "run path".
+     * Requests run concurrently, and the captured output of each request is
+     * printed as soon as it finishes, followed by a line "#done exitCode path".
+     * The done lines can therefore come in another order than the requests.
+     * Outputs are written to the output directory.
+     *
+     * @throws Exception if reading stdin fails
+     */
+    public void serveStdin() throws Exception {
+        OutputCapture.install();
+        PrintStream out = OutputCapture.getOriginalOut();
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+
+            int space = line.indexOf(' ');
+            String command = space < 0 ? line : line.substring(0, space);
+            String path = space < 0 ? "" : line.substring(space + 1).trim();
+
+            if (!command.equals(COMPILE) && !command.equals(RUN) || !path.endsWith(".ofp")) {
+                synchronized (out) {
+                    out.println("Error: Expected 'compile <file.ofp>' or 'run <file.ofp>' but got '" + line + "'");
+                    out.println("#done 2 " + path);
+                    out.flush();
+                }
+                continue;
+            }
+
+            executor.execute(() -> {
+                CompilationResult result = handle(command, Paths.get(path));
+                synchronized (out) {
+                    out.print(result.getConsoleOutput());
+                    out.println("#done " + result.getExitCode() + " " + path);
+                    out.flush();
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    /**
+     * Serves requests from a UNIX domain socket, one request per connection.
+     *
+     * @param socket the socket file to listen on
+     * @throws IOException if the socket cannot be created
+     */
+    public void serveSocket(Path socket) throws IOException {
+        OutputCapture.install();
+        Files.deleteIfExists(socket);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            System.out.println("Compile server listening on " + socket);
+
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.submit(() -> serveConnection(channel));
+            }
+        }
+    }
+
+    /**
+     * Reads one request from a client connection and sends back the result.
+     * A request consists of the command and the absolute program path. The
+     * response holds the exit code, the captured console output, the Python
+     * code and the class file.
+     *
+     * @param channel the client connection
+     */
+    private void serveConnection(SocketChannel channel) {
+        try (SocketChannel ch = channel;
+                DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+                DataOutputStream out = new DataOutputStream(Channels.newOutputStream(ch))) {
+            String command = in.readUTF();
+            Path source = Paths.get(in.readUTF());
+            CompilationResult result = handle(command, source);
+
+            out.writeInt(result.getExitCode());
+            out.writeUTF(result.getProgramName());
+            writeBytes(out, result.getConsoleOutput().getBytes());
+            writeBytes(out, result.getPythonCode() == null ? null : result.getPythonCode().getBytes());
+            writeBytes(out, result.getBytecode());
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error: Request failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles, and for run requests executes, a program.
+     *
+     * @param command the request command
+     * @param source  the program path
+     * @return the compilation result
+     */
+    private CompilationResult handle(String command, Path source) {
+        return command.equals(RUN) ? runningCompiler.compile(source) : compiler.compile(source);
+    }
+
+    /**
+     * Writes a length-prefixed byte array, using -1 for a missing array.
+     *
+     * @param out   the output stream
+     * @param bytes the bytes to write, or null
+     * @throws IOException if writing fails
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Creates the options for one of the server's compilers.
+     *
+     * @param outputDir the output directory, or null to not write outputs
+     * @param verbose   whether to print the full diagnostic output
+     * @param run       whether to execute the generated bytecode
+     * @return the options
+     */
+    private static CompilerOptions createOptions(Path outputDir, boolean verbose, boolean run) {
+        CompilerOptions options = new CompilerOptions();
+        if (outputDir != null)
+            options.setOutputDir(outputDir);
+        options.setWriteOutputs(outputDir != null);
+        options.setVerbose(verbose);
+        options.setRun(run);
+        return options;
+    }
+
+    /**
+     * Returns an executor that starts one virtual thread per request when the
+     * running JVM supports them (Java 21+), and a cached thread pool otherwise.
+     *
+     * @return the request executor
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
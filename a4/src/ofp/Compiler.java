@@ -0,0 +1,559 @@
+package ofp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.antlr.v4.runtime.BufferedTokenStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.objectweb.asm.util.TraceClassVisitor;
+
+import generated.OFPLexer;
+import generated.OFPParser;
+
+/**
+ * Runs the complete compiler pipeline for one OFP program.
+ * Parses the program, builds the symbol table, checks references and types,
+ * folds constants, removes dead code, finds tail calls, optimizes loops,
+ * generates Python code, lays out the local variable slots, generates
+ * bytecode, and optionally executes the bytecode.
+ * Everything printed while compiling is captured in the returned result, so
+ * several programs can be compiled in parallel.
+ */
+public class Compiler {
+    /** Version of the generated code; change it whenever the outputs change. */
+    public static final String VERSION = "5.13";
+
+    /** Size of the largest method HotSpot compiles, in bytes of code. */
+    private static final int MAX_COMPILED_SIZE = 8000;
+
+    private static final String[] RUNTIME_CLASSES = { "OutputSink", "TextFormatter", "TextFormatter$Power" };
+
+    private CompilerOptions options;
+    private CompilationCache cache;
+
+    /**
+     * Constructs a Compiler with the given options.
+     *
+     * @param options the compiler options
+     */
+    public Compiler(CompilerOptions options) {
+        this(options, null);
+    }
+
+    /**
+     * Constructs a Compiler that reuses results from a compilation cache.
+     *
+     * @param options the compiler options
+     * @param cache   the compilation cache, or null to always compile
+     */
+    public Compiler(CompilerOptions options, CompilationCache cache) {
+        this.options = options;
+        this.cache = cache;
+    }
+
+    /**
+     * Compiles the given OFP program and writes the generated outputs.
+     *
+     * @param source the path of the OFP program
+     * @return the compilation result
+     */
+    public CompilationResult compile(Path source) {
+        String fileName = source.getFileName().toString();
+        String programName = fileName.substring(0, fileName.length() - ".ofp".length());
+        CompilationResult result = new CompilationResult(source, programName);
+        PhaseMetrics metrics = result.getMetrics();
+        byte[] key = null;
+        boolean cached = false;
+
+        OutputCapture.begin();
+        try {
+            metrics.begin("read");
+            ByteBuffer sourceBytes = MappedCharStream.map(source);
+            metrics.end();
+            if (cache != null) {
+                metrics.begin("cache-lookup");
+                key = CompilationCache.key(sourceBytes.duplicate(), programName, options.getFingerprint());
+                cached = cache.restore(key, result);
+                metrics.end();
+            }
+            if (!cached)
+                runPipeline(source, sourceBytes, result);
+        } catch (Exception e) {
+            System.err.println("Error: Compilation of " + source + " failed: " + e);
+            e.printStackTrace();
+            result.setFailed(true);
+        } finally {
+            String consoleOutput = OutputCapture.end();
+            if (!cached)
+                result.setConsoleOutput(consoleOutput);
+        }
+
+        if (result.getBytecode() == null || result.isFailed())
+            return result;
+
+        OutputCapture.begin();
+        try {
+            if (cache != null && !cached) {
+                metrics.begin("cache-store");
+                cache.store(key, result);
+                metrics.end();
+            }
+            if (options.isWriteOutputs()) {
+                metrics.begin("write");
+                writeOutputs(result, cached);
+                metrics.end();
+            }
+            if (options.isRun()) {
+                metrics.begin("execute");
+                execute(result);
+                metrics.end();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: Writing outputs of " + source + " failed: " + e.getMessage());
+            result.setFailed(true);
+        } finally {
+            result.setConsoleOutput(result.getConsoleOutput() + OutputCapture.end());
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs all compiler phases for a program, recording the cost of each
+     * phase in the metrics of the result.
+     *
+     * @param source      the path of the OFP program
+     * @param sourceBytes the contents of the OFP program
+     * @param result      the result to fill in
+     */
+    private void runPipeline(Path source, ByteBuffer sourceBytes, CompilationResult result) {
+        boolean verbose = options.isVerbose();
+        String programName = result.getProgramName();
+        PhaseMetrics metrics = result.getMetrics();
+
+        if (verbose) {
+            System.out.println("Reading test program from: " + source);
+            System.out.println("\nParsing started");
+        }
+
+        // Parse input program
+        metrics.begin("parse");
+        // The first stage streams tokens, so only the parse tree keeps them alive
+        CharStream inputStream = new MappedCharStream(sourceBytes, source.toString());
+        OFPLexer lexer = new OFPLexer(inputStream);
+        TwoStageParser parser = new TwoStageParser(new UnbufferedTokenStream<Token>(lexer), () -> {
+            // Lexical errors were already reported by the first stage
+            inputStream.seek(0);
+            OFPLexer fallbackLexer = new OFPLexer(inputStream);
+            fallbackLexer.removeErrorListeners();
+            return new BufferedTokenStream(fallbackLexer);
+        });
+        OFPParser.ProgramContext root = parser.parse();
+        metrics.end();
+        if (verbose && parser.isFallback())
+            System.out.println("SLL parsing failed, parsed again with full LL");
+        result.addErrors(parser.getNumberOfSyntaxErrors());
+
+        // The later phases assume a well-formed tree
+        if (parser.getNumberOfSyntaxErrors() > 0)
+            return;
+
+        if (verbose) {
+            System.out.println("\nParsing completed");
+
+            // Indented tree print
+            System.out.println("\n===== Print Listener =====");
+            metrics.begin("print-tree");
+            new ParseTreeWalker().walk(new PrintListener(), root);
+            metrics.end();
+        }
+
+        ParseTreeProperty<Scope> scopes;
+        Scope globalScope;
+        ParseTreeProperty<OFPType> types;
+        if (options.isFusedFrontEnd()) {
+            // Symbol table, reference and type checking in one traversal
+            if (verbose)
+                System.out.println("\n===== Front End Errors =====");
+            metrics.begin("front-end");
+            FrontEndVisitor frontEnd = new FrontEndVisitor();
+            frontEnd.visit(root);
+            metrics.end();
+            scopes = frontEnd.getScope();
+            globalScope = frontEnd.getGlobalScope();
+            types = frontEnd.getTypes();
+            result.addErrors(frontEnd.getErrorCount());
+            if (verbose) {
+                SymbolTableListener.printSymbolTable(globalScope);
+                System.out.println("\nSemantic analysis completed with " + frontEnd.getErrorCount() + " errors.\n");
+            }
+        } else {
+            // Symbol table construction
+            metrics.begin("symbol-table");
+            ParseTreeWalker walker = new ParseTreeWalker();
+            SymbolTableListener stListener = new SymbolTableListener();
+            walker.walk(stListener, root);
+            metrics.end();
+            if (verbose)
+                stListener.printSymbolTable();
+            scopes = stListener.getScope();
+            globalScope = stListener.getGlobalScope();
+            result.addErrors(stListener.getErrorCount());
+
+            // Symbol reference checking
+            if (verbose)
+                System.out.println("\n===== Symbol Refrence Checking =====");
+            metrics.begin("check-refs");
+            CheckRefListener checkRefListener = new CheckRefListener(scopes, globalScope);
+            walker.walk(checkRefListener, root);
+            metrics.end();
+            if (verbose)
+                checkRefListener.reportErrors();
+            result.addErrors(checkRefListener.getErrorCount());
+
+            // Type checking
+            if (verbose)
+                System.out.println("===== Type Checking Errors =====");
+            metrics.begin("type-check");
+            TypeCheckingVisitor tcVisitor = new TypeCheckingVisitor(scopes, globalScope);
+            tcVisitor.visit(root);
+            metrics.end();
+            types = tcVisitor.getTypes();
+            result.addErrors(tcVisitor.getErrorCount());
+        }
+
+        // Constant folding and propagation
+        metrics.begin("fold");
+        ConstantFolder folder = new ConstantFolder(scopes);
+        folder.visit(root);
+        ParseTreeProperty<Object> constants = folder.getConstants();
+        metrics.end();
+
+        // Dead code and dead store elimination
+        metrics.begin("dce");
+        DeadCodeEliminator eliminator = new DeadCodeEliminator(scopes, constants);
+        eliminator.visit(root);
+        ParseTreeProperty<Boolean> removed = eliminator.getRemoved();
+        metrics.end();
+
+        // Tail call detection
+        metrics.begin("tail-calls");
+        TailCallAnalyzer tailCalls = new TailCallAnalyzer(constants, removed);
+        tailCalls.visit(root);
+        metrics.end();
+
+        // Loop-invariant code motion and strength reduction
+        metrics.begin("loops");
+        LoopOptimizer loops = new LoopOptimizer(scopes, constants, removed);
+        loops.visit(root);
+        metrics.end();
+
+        // Constant array literals built once per program
+        metrics.begin("array-pool");
+        ArrayPool arrayPool = new ArrayPool(scopes, constants, removed);
+        arrayPool.visit(root);
+        metrics.end();
+
+        // Purity analysis for memoization
+        Set<String> memoized = new LinkedHashSet<>();
+        if (!options.getMemoized().isEmpty()) {
+            metrics.begin("purity");
+            memoized = selectMemoized(root, globalScope);
+            metrics.end();
+        }
+
+        // Python generation
+        if (verbose)
+            System.out.println("\nGenerating Python code...");
+        metrics.begin("python");
+        PythonGenerator pythonCodeGenerator = new PythonGenerator(scopes, constants, removed, tailCalls);
+        pythonCodeGenerator.setMemoized(memoized);
+        pythonCodeGenerator.setLoops(loops);
+        pythonCodeGenerator.setArrayPool(arrayPool);
+        result.setPythonCode(pythonCodeGenerator.visit(root));
+        metrics.end();
+
+        // Local variable slots
+        metrics.begin("frame-layout");
+        FrameLayout frameLayout = new FrameLayout(scopes, globalScope, types, removed, loops);
+        frameLayout.visit(root);
+        metrics.end();
+
+        // Regions of oversized functions, and optionally the loops of main, moved into methods of their own
+        metrics.begin("outline");
+        Outliner outliner = new Outliner(scopes, constants, removed, loops);
+        outliner.setOutlineLoops(options.isOutlineLoops());
+        outliner.visit(root);
+        metrics.end();
+
+        // Bytecode generation
+        if (verbose)
+            System.out.println("\nBytecode generation started\n");
+        metrics.begin("bytecode");
+        BytecodeGenerator byteGen = new BytecodeGenerator(programName, scopes, globalScope, constants, removed,
+                tailCalls);
+        byteGen.setTypes(types);
+        byteGen.setMemoized(memoized);
+        byteGen.setLoops(loops);
+        byteGen.setFrameLayout(frameLayout);
+        byteGen.setArrayPool(arrayPool);
+        byteGen.setOutliner(outliner);
+        byteGen.setInlineSize(options.getInlineSize());
+        byteGen.visit(root);
+        ClassWriter cw = byteGen.getClassWriter();
+        result.setBytecode(cw.toByteArray());
+        metrics.end();
+
+        if (verbose) {
+            System.out.println("\nLoop optimizations: " + loops.formatReport());
+            System.out.println("Frame layout: " + frameLayout.formatReport());
+            System.out.println("Pooled arrays: " + arrayPool.formatReport());
+            System.out.println("Outlined regions: " + outliner.formatReport());
+            System.out.println("Inlined calls: " + byteGen.getInliner().formatReport());
+            System.out.println("Peephole rules applied: " + byteGen.getOptimizer().formatReport());
+        }
+
+        metrics.begin("verify");
+        verify(result.getBytecode());
+        metrics.end();
+    }
+
+    /**
+     * Selects the functions to memoize among those named by the options.
+     * Functions that are impure or take or return non-primitive values are
+     * skipped with a warning, unless they were only selected by "*".
+     *
+     * @param root        the program
+     * @param globalScope the global scope
+     * @return the names of the functions to memoize
+     */
+    private Set<String> selectMemoized(OFPParser.ProgramContext root, Scope globalScope) {
+        PurityAnalyzer purity = new PurityAnalyzer(globalScope);
+        purity.visit(root);
+        Set<String> memoized = new LinkedHashSet<>();
+
+        for (OFPParser.FuncDeclContext funcDecl : root.funcDecl()) {
+            String name = funcDecl.ID(0).getText();
+            boolean named = options.getMemoized().contains(name);
+            if (!named && !options.getMemoized().contains("*"))
+                continue;
+
+            Symbol symbol = globalScope.resolve(name);
+            if (symbol instanceof FunctionSymbol && purity.isMemoizable((FunctionSymbol) symbol))
+                memoized.add(name);
+            else if (named)
+                System.err.println("Warning: Function '" + name + "' is not memoized, since it is not pure"
+                        + " or takes or returns non-primitive values.");
+        }
+
+        if (options.isVerbose() && !memoized.isEmpty())
+            System.out.println("\nMemoized functions: " + String.join(", ", memoized));
+
+        return memoized;
+    }
+
+    /**
+     * Verifies the generated bytecode, printing the class when verbose, and
+     * warns about methods too large for the JIT compiler.
+     *
+     * @param bytecode the generated class file
+     */
+    private void verify(byte[] bytecode) {
+        if (options.isVerbose())
+            System.out.println("\nVerifying generated bytecode:\n");
+
+        ClassReader cr = new ClassReader(bytecode);
+        ClassVisitor cv_next = options.isVerbose() ? new TraceClassVisitor(new PrintWriter(System.out))
+                : new ClassNode();
+        ClassVisitor cv_check = new CheckClassAdapter(cv_next, true);
+        cr.accept(cv_check, 0);
+        checkMethodSizes(cr);
+    }
+
+    /**
+     * Warns about every method whose code is larger than HotSpot compiles.
+     * The sizes are read from the Code attributes of the class file, after
+     * the fields and their attributes.
+     *
+     * @param cr the reader of the generated class file
+     */
+    private static void checkMethodSizes(ClassReader cr) {
+        char[] buffer = new char[cr.getMaxStringLength()];
+        int offset = cr.header + 6;
+        offset += 2 + 2 * cr.readUnsignedShort(offset);
+
+        int fieldCount = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < fieldCount; i++)
+            offset = skipAttributes(cr, offset + 6);
+
+        int methodCount = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methodCount; i++) {
+            String name = cr.readUTF8(offset + 2, buffer);
+            int attributeCount = cr.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributeCount; j++) {
+                // A Code attribute starts with max_stack and max_locals, followed by code_length
+                if (cr.readUTF8(offset, buffer).equals("Code") && cr.readInt(offset + 10) > MAX_COMPILED_SIZE)
+                    System.err.println("Warning: Method '" + name + "' has " + cr.readInt(offset + 10)
+                            + " bytes of code, more than the " + MAX_COMPILED_SIZE + " bytes HotSpot compiles.");
+                offset += 6 + cr.readInt(offset + 2);
+            }
+        }
+    }
+
+    /**
+     * Skips the attribute count and the attributes of a field or method.
+     *
+     * @param cr     the class file reader
+     * @param offset the position of the attribute count
+     * @return the position after the attributes
+     */
+    private static int skipAttributes(ClassReader cr, int offset) {
+        int count = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++)
+            offset += 6 + cr.readInt(offset + 2);
+        return offset;
+    }
+
+    /**
+     * Writes the generated Python code and class file to the output directory.
+     *
+     * @param result the compilation result
+     * @param cached whether the result came from the cache, in which case
+     *               outputs that are already up to date are not rewritten
+     * @throws IOException if an output cannot be written
+     */
+    private void writeOutputs(CompilationResult result, boolean cached) throws IOException {
+        Path pythonDir = options.getOutputDir().resolve("python");
+        Path bytecodeDir = options.getOutputDir().resolve("bytecode");
+        Files.createDirectories(pythonDir);
+        Files.createDirectories(bytecodeDir);
+
+        Path pythonFile = pythonDir.resolve(result.getProgramName() + ".py");
+        byte[] pythonCode = result.getPythonCode().getBytes(StandardCharsets.UTF_8);
+        if (!cached || !isUpToDate(pythonFile, pythonCode))
+            Files.write(pythonFile, pythonCode);
+        if (options.isVerbose())
+            System.out.println("Python code generated and written to: " + pythonFile);
+
+        Path classFile = bytecodeDir.resolve(result.getProgramName() + ".class");
+        if (!cached || !isUpToDate(classFile, result.getBytecode()))
+            Files.write(classFile, result.getBytecode());
+        writeRuntime(bytecodeDir);
+        if (options.isVerbose())
+            System.out.println("Bytecode written to: " + classFile);
+    }
+
+    /**
+     * Copies the class files of the runtime the generated code calls next to
+     * the generated classes, so they also run outside the compiler. Up to
+     * date copies are kept.
+     *
+     * @param bytecodeDir the directory of the generated classes
+     * @throws IOException if a class file cannot be copied
+     */
+    static synchronized void writeRuntime(Path bytecodeDir) throws IOException {
+        for (String runtimeClass : RUNTIME_CLASSES) {
+            byte[] runtime;
+            try (InputStream in = Compiler.class.getResourceAsStream(runtimeClass + ".class")) {
+                runtime = in.readAllBytes();
+            }
+
+            Path runtimeFile = bytecodeDir.resolve("ofp").resolve(runtimeClass + ".class");
+            if (Files.exists(runtimeFile) && Arrays.equals(Files.readAllBytes(runtimeFile), runtime))
+                continue;
+            Files.createDirectories(runtimeFile.getParent());
+            Files.write(runtimeFile, runtime);
+        }
+    }
+
+    /**
+     * Checks whether an output file already holds the given contents. An
+     * output of another size is rejected without reading it.
+     *
+     * @param output   the output file
+     * @param contents the expected contents
+     * @return true if the output does not need to be rewritten
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean isUpToDate(Path output, byte[] contents) throws IOException {
+        return Files.exists(output) && Files.size(output) == contents.length
+                && Arrays.equals(Files.readAllBytes(output), contents);
+    }
+
+    /**
+     * Loads and runs the generated class in a fresh class loader.
+     *
+     * @param result the compilation result
+     */
+    private void execute(CompilationResult result) {
+        if (options.isVerbose())
+            System.out.println("\nExecuting generated bytecode:\n");
+
+        byte[] bytecode = result.getBytecode();
+        GeneratedClassLoader loader = new GeneratedClassLoader();
+        try {
+            Class<?> programClass = loader.define(result.getProgramName(), bytecode);
+            programClass.getMethod("main", String[].class).invoke(null, (Object) null);
+            if (options.isVerbose())
+                reportMemoization(programClass);
+        } catch (InvocationTargetException e) {
+            System.err.println("Error: Program " + result.getProgramName() + " terminated with "
+                    + e.getCause());
+            result.setFailed(true);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Error: Could not execute " + result.getProgramName() + ": " + e);
+            result.setFailed(true);
+        }
+    }
+
+    /**
+     * Prints the hit and miss counters of every memoized function of an
+     * executed program.
+     *
+     * @param programClass the program class
+     * @throws ReflectiveOperationException if a counter cannot be read
+     */
+    private static void reportMemoization(Class<?> programClass) throws ReflectiveOperationException {
+        for (Field hits : programClass.getFields()) {
+            if (!hits.getName().endsWith("$memoHits"))
+                continue;
+
+            String function = hits.getName().substring(0, hits.getName().indexOf('$'));
+            Field misses = programClass.getField(function + "$memoMisses");
+            System.out.println("Memo table of " + function + ": " + hits.getLong(null) + " hits, "
+                    + misses.getLong(null) + " misses");
+        }
+    }
+
+    /**
+     * Class loader that defines one generated program class.
+     */
+    private static class GeneratedClassLoader extends ClassLoader {
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ofp;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds the command line options of the OFP compiler.
+ * Options control where outputs are written, how much is printed, whether the
+ * generated bytecode is executed, which functions are memoized or inlined,
+ * how many programs are compiled in parallel and whether per-phase metrics
+ * are reported.
+ */
+public class CompilerOptions {
+    private Path outputDir = Paths.get("output");
+    private boolean verbose = false;
+    private boolean run = false;
+    private boolean writeOutputs = true;
+    private boolean fusedFrontEnd = false;
+    private Set<String> memoized = new LinkedHashSet<>();
+    private int inlineSize = Inliner.DEFAULT_SIZE;
+    private boolean outlineLoops = false;
+    private Path cacheDir = null;
+    private long cacheSize = 64L * 1024 * 1024;
+    private String metricsFormat = null;
+    private Path metricsFile = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private List<String> inputs = new ArrayList<>();
+
+    /**
+     * Parses the command line arguments.
+     * Usage: [-o outputDir] [-j threads] [--run] [--verbose] [--fused-front-end]
+     * [--memoize f,g|*] [--inline-size n] [--outline-loops] [--cache dir]
+     * [--cache-size MB] [--metrics table|json] [--metrics-file file]
+     * (dir | glob | file)...
+     *
+     * @param args the command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException if the arguments are invalid
+     */
+    public static CompilerOptions parse(String[] args) {
+        CompilerOptions options = new CompilerOptions();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    options.outputDir = Paths.get(requireValue(args, ++i, "-o"));
+                    break;
+                case "-j":
+                    options.threads = Integer.parseInt(requireValue(args, ++i, "-j"));
+                    if (options.threads < 1)
+                        throw new IllegalArgumentException("Thread count must be at least 1.");
+                    break;
+                case "--run":
+                    options.run = true;
+                    break;
+                case "--verbose":
+                    options.verbose = true;
+                    break;
+                case "--fused-front-end":
+                    options.fusedFrontEnd = true;
+                    break;
+                case "--memoize":
+                    options.memoized.addAll(Arrays.asList(requireValue(args, ++i, "--memoize").split(",")));
+                    break;
+                case "--inline-size":
+                    options.inlineSize = Integer.parseInt(requireValue(args, ++i, "--inline-size"));
+                    if (options.inlineSize < 0)
+                        throw new IllegalArgumentException("Inline size must not be negative.");
+                    break;
+                case "--outline-loops":
+                    options.outlineLoops = true;
+                    break;
+                case "--cache":
+                    options.cacheDir = Paths.get(requireValue(args, ++i, "--cache"));
+                    break;
+                case "--cache-size":
+                    options.cacheSize = Long.parseLong(requireValue(args, ++i, "--cache-size")) * 1024 * 1024;
+                    break;
+                case "--metrics":
+                    options.metricsFormat = requireValue(args, ++i, "--metrics");
+                    if (!options.metricsFormat.equals("table") && !options.metricsFormat.equals("json"))
+                        throw new IllegalArgumentException("Metrics format must be table or json.");
+                    break;
+                case "--metrics-file":
+                    options.metricsFile = Paths.get(requireValue(args, ++i, "--metrics-file"));
+                    if (options.metricsFormat == null)
+                        options.metricsFormat = "json";
+                    break;
+                default:
+                    if (args[i].startsWith("-"))
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                    options.inputs.add(args[i]);
+            }
+        }
+
+        if (options.inputs.isEmpty())
+            throw new IllegalArgumentException("No input programs given.");
+
+        return options;
+    }
+
+    /**
+     * Returns the value following an option, failing if it is missing.
+     *
+     * @param args   the command line arguments
+     * @param i      the index of the value
+     * @param option the option name
+     * @return the option value
+     */
+    private static String requireValue(String[] args, int i, String option) {
+        if (i >= args.length)
+            throw new IllegalArgumentException("Option " + option + " requires a value.");
+        return args[i];
+    }
+
+    public Path getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(Path outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public boolean isRun() {
+        return run;
+    }
+
+    public void setRun(boolean run) {
+        this.run = run;
+    }
+
+    public boolean isWriteOutputs() {
+        return writeOutputs;
+    }
+
+    public void setWriteOutputs(boolean writeOutputs) {
+        this.writeOutputs = writeOutputs;
+    }
+
+    public boolean isFusedFrontEnd() {
+        return fusedFrontEnd;
+    }
+
+    public void setFusedFrontEnd(boolean fusedFrontEnd) {
+        this.fusedFrontEnd = fusedFrontEnd;
+    }
+
+    /**
+     * Returns the names of the functions to memoize if they are pure, where
+     * "*" stands for every pure function.
+     *
+     * @return the function names
+     */
+    public Set<String> getMemoized() {
+        return memoized;
+    }
+
+    public int getInlineSize() {
+        return inlineSize;
+    }
+
+    public boolean isOutlineLoops() {
+        return outlineLoops;
+    }
+
+    public Path getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public String getMetricsFormat() {
+        return metricsFormat;
+    }
+
+    public Path getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * Returns a string identifying the compiler version and every option that
+     * changes the diagnostics or generated code, used to key cached results.
+     *
+     * @return the options fingerprint
+     */
+    public String getFingerprint() {
+        return Compiler.VERSION + ";verbose=" + verbose + ";fused=" + fusedFrontEnd + ";memoize="
+                + String.join(",", memoized) + ";inline=" + inlineSize + ";outlineLoops=" + outlineLoops;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public List<String> getInputs() {
+        return inputs;
+    }
+}
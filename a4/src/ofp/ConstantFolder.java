@@ -0,0 +1,461 @@
+package ofp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
+import generated.OFPBaseListener;
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that folds constant expressions and propagates constant variables.
+ * Runs after type checking and records the value of every expression that is
+ * known at compile time, so both backends can emit a literal instead of the
+ * expression. Values are Integer, Double, Boolean, Character or String.
+ *
+ * A variable is constant if it is initialized with a constant and never
+ * reassigned. Arrays are never replaced, but the length of an array variable
+ * that is never reassigned is constant. Folding follows the semantics both
+ * backends share: integer division and arithmetic that overflows, divides by
+ * zero or produces an infinite float is left to run time.
+ */
+public class ConstantFolder extends OFPBaseVisitor<Object> {
+    private ParseTreeProperty<Scope> scopes;
+    private Scope currentScope;
+    private ParseTreeProperty<Object> constants = new ParseTreeProperty<>();
+    private Set<Symbol> reassigned = new HashSet<>();
+    private Map<Symbol, Object> values = new HashMap<>();
+    private Map<Symbol, Integer> arrayLengths = new HashMap<>();
+
+    /**
+     * Constructs a ConstantFolder with the given scopes.
+     *
+     * @param scopes the mapping of parse tree nodes to scopes
+     */
+    public ConstantFolder(ParseTreeProperty<Scope> scopes) {
+        this.scopes = scopes;
+    }
+
+    public ParseTreeProperty<Object> getConstants() {
+        return constants;
+    }
+
+    /**
+     * Returns the value of a folded expression or literal. Literals are not
+     * recorded as constants, since both backends emit them unchanged.
+     *
+     * @param expr      the expression
+     * @param constants the values of constant expressions
+     * @return the value, or null if the expression is not constant
+     */
+    public static Object valueOf(ParseTree expr, ParseTreeProperty<Object> constants) {
+        if (expr instanceof OFPParser.IntExprContext) {
+            try {
+                return Integer.parseInt(expr.getText());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (expr instanceof OFPParser.FloatExprContext)
+            return Double.parseDouble(expr.getText());
+        if (expr instanceof OFPParser.CharExprContext)
+            return expr.getText().charAt(1);
+        return constants.get(expr);
+    }
+
+    /**
+     * Finds all reassigned variables, then folds the program.
+     *
+     * @param ctx the program context
+     * @return null
+     */
+    @Override
+    public Object visitProgram(OFPParser.ProgramContext ctx) {
+        ParseTreeWalker.DEFAULT.walk(new AssignmentCollector(), ctx);
+        currentScope = scopes.get(ctx);
+        visitChildren(ctx);
+
+        return null;
+    }
+
+    /**
+     * Folds the statements of a function block in its scope.
+     *
+     * @param ctx the function block context
+     * @return null
+     */
+    @Override
+    public Object visitFuncBlock(OFPParser.FuncBlockContext ctx) {
+        Scope enclosingScope = currentScope;
+        currentScope = scopes.get(ctx);
+        visitChildren(ctx);
+        currentScope = enclosingScope;
+
+        return null;
+    }
+
+    /**
+     * Folds the statements of a block in its scope.
+     *
+     * @param ctx the block context
+     * @return null
+     */
+    @Override
+    public Object visitBlock(OFPParser.BlockContext ctx) {
+        Scope enclosingScope = currentScope;
+        currentScope = scopes.get(ctx);
+        visitChildren(ctx);
+        currentScope = enclosingScope;
+
+        return null;
+    }
+
+    /**
+     * Folds the initializer of a variable and records the value of the
+     * variable if it is never reassigned.
+     *
+     * @param ctx the variable declaration statement context
+     * @return null
+     */
+    @Override
+    public Object visitVarDeclStmt(OFPParser.VarDeclStmtContext ctx) {
+        if (ctx.expr() == null)
+            return null;
+
+        Object value = visit(ctx.expr());
+        Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
+        if (varSymbol == null || reassigned.contains(varSymbol))
+            return null;
+
+        Integer length = lengthOf(ctx.expr());
+        if (length != null)
+            arrayLengths.put(varSymbol, length);
+        else if (value != null)
+            values.put(varSymbol, value);
+
+        return null;
+    }
+
+    /**
+     * Folds the operand of a unary minus.
+     *
+     * @param ctx the unary expression context
+     * @return the negated constant, or null if not constant
+     */
+    @Override
+    public Object visitUnaryExpr(OFPParser.UnaryExprContext ctx) {
+        Object value = visit(ctx.expr());
+
+        try {
+            if (value instanceof Integer)
+                return fold(ctx, Math.negateExact((Integer) value));
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        if (value instanceof Double)
+            return fold(ctx, -(Double) value);
+
+        return null;
+    }
+
+    /**
+     * Folds multiplications and float divisions.
+     *
+     * @param ctx the multiplication/division expression context
+     * @return the product or quotient, or null if not constant
+     */
+    @Override
+    public Object visitMultExpr(OFPParser.MultExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        boolean multiply = ctx.getChild(1).getText().equals("*");
+
+        try {
+            if (left instanceof Integer && right instanceof Integer && multiply)
+                return fold(ctx, Math.multiplyExact((Integer) left, (Integer) right));
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        if (left instanceof Double && right instanceof Double) {
+            if (multiply)
+                return foldFloat(ctx, (Double) left * (Double) right);
+            if ((Double) right != 0.0)
+                return foldFloat(ctx, (Double) left / (Double) right);
+        }
+
+        return null;
+    }
+
+    /**
+     * Folds additions and subtractions.
+     *
+     * @param ctx the addition/subtraction expression context
+     * @return the sum or difference, or null if not constant
+     */
+    @Override
+    public Object visitAddiExpr(OFPParser.AddiExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        boolean add = ctx.getChild(1).getText().equals("+");
+
+        try {
+            if (left instanceof Integer && right instanceof Integer)
+                return fold(ctx, add ? Math.addExact((Integer) left, (Integer) right)
+                        : Math.subtractExact((Integer) left, (Integer) right));
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        if (left instanceof Double && right instanceof Double)
+            return foldFloat(ctx, add ? (Double) left + (Double) right : (Double) left - (Double) right);
+
+        return null;
+    }
+
+    /**
+     * Folds less than and greater than comparisons of numbers and chars.
+     *
+     * @param ctx the relational expression context
+     * @return the boolean result, or null if not constant
+     */
+    @Override
+    public Object visitRelExpr(OFPParser.RelExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        if (left == null || right == null || left.getClass() != right.getClass() || left instanceof Boolean
+                || left instanceof String)
+            return null;
+
+        double leftValue = toDouble(left);
+        double rightValue = toDouble(right);
+        if (ctx.getChild(1).getText().equals("<"))
+            return fold(ctx, leftValue < rightValue);
+        return fold(ctx, leftValue > rightValue);
+    }
+
+    /**
+     * Folds equality comparisons of numbers and chars.
+     *
+     * @param ctx the equality expression context
+     * @return the boolean result, or null if not constant
+     */
+    @Override
+    public Object visitEqExpr(OFPParser.EqExprContext ctx) {
+        Object left = visit(ctx.expr(0));
+        Object right = visit(ctx.expr(1));
+        if (left == null || right == null || left.getClass() != right.getClass() || left instanceof Boolean
+                || left instanceof String)
+            return null;
+
+        return fold(ctx, toDouble(left) == toDouble(right));
+    }
+
+    /**
+     * Folds the length of literal arrays, strings and constant-length array
+     * variables.
+     *
+     * @param ctx the array length expression context
+     * @return the length, or null if not constant
+     */
+    @Override
+    public Object visitArrayLengthExpr(OFPParser.ArrayLengthExprContext ctx) {
+        Object value = visit(ctx.expr());
+        if (value instanceof String)
+            return fold(ctx, ((String) value).length());
+
+        Integer length = lengthOf(ctx.expr());
+        return length != null ? fold(ctx, length) : null;
+    }
+
+    /**
+     * Returns the value of the parenthesized expression.
+     *
+     * @param ctx the parenthesized expression context
+     * @return the constant, or null if not constant
+     */
+    @Override
+    public Object visitParenExpr(OFPParser.ParenExprContext ctx) {
+        Object value = visit(ctx.expr());
+        return value != null ? fold(ctx, value) : null;
+    }
+
+    /**
+     * Returns the value of a constant variable.
+     *
+     * @param ctx the ID expression context
+     * @return the constant, or null if the variable is not constant
+     */
+    @Override
+    public Object visitIDExpr(OFPParser.IDExprContext ctx) {
+        Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
+        Object value = varSymbol != null ? values.get(varSymbol) : null;
+
+        return value != null ? fold(ctx, value) : null;
+    }
+
+    /**
+     * Folds the elements of an array, which itself is never constant.
+     *
+     * @param ctx the array initialization expression context
+     * @return null
+     */
+    @Override
+    public Object visitArrayInitExpr(OFPParser.ArrayInitExprContext ctx) {
+        visitChildren(ctx);
+        return null;
+    }
+
+    /**
+     * Folds the index of an array access.
+     *
+     * @param ctx the array access expression context
+     * @return null
+     */
+    @Override
+    public Object visitArrayAccessExpr(OFPParser.ArrayAccessExprContext ctx) {
+        visit(ctx.expr());
+        return null;
+    }
+
+    /**
+     * Folds the arguments of a function call.
+     *
+     * @param ctx the function call expression context
+     * @return null
+     */
+    @Override
+    public Object visitFuncCallExpr(OFPParser.FuncCallExprContext ctx) {
+        visit(ctx.funcCall());
+        return null;
+    }
+
+    @Override
+    public Object visitIntExpr(OFPParser.IntExprContext ctx) {
+        try {
+            return Integer.parseInt(ctx.getText());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Object visitFloatExpr(OFPParser.FloatExprContext ctx) {
+        return Double.parseDouble(ctx.getText());
+    }
+
+    /**
+     * Records the value of a boolean literal, so constant conditions are
+     * found with a single lookup.
+     *
+     * @param ctx the boolean expression context
+     * @return the boolean value
+     */
+    @Override
+    public Object visitBoolExpr(OFPParser.BoolExprContext ctx) {
+        return fold(ctx, Boolean.parseBoolean(ctx.getText()));
+    }
+
+    @Override
+    public Object visitCharExpr(OFPParser.CharExprContext ctx) {
+        return ctx.getText().charAt(1);
+    }
+
+    @Override
+    public Object visitStringExpr(OFPParser.StringExprContext ctx) {
+        return ctx.getText().substring(1, ctx.getText().length() - 1);
+    }
+
+    /**
+     * Returns the length of an array expression if it is known.
+     *
+     * @param expr the array expression
+     * @return the length, or null if not known
+     */
+    private Integer lengthOf(OFPParser.ExprContext expr) {
+        if (expr instanceof OFPParser.ArrayInitExprContext) {
+            OFPParser.ArrayInitExprContext arrayInit = (OFPParser.ArrayInitExprContext) expr;
+            if (!arrayInit.getChild(0).getText().equals("new"))
+                return arrayInit.expr().size();
+
+            Object size = visit(arrayInit.expr(0));
+            return size instanceof Integer && (Integer) size >= 0 ? (Integer) size : null;
+        }
+        if (expr instanceof OFPParser.IDExprContext) {
+            Symbol varSymbol = currentScope.resolve(((OFPParser.IDExprContext) expr).ID().getText());
+            return varSymbol != null ? arrayLengths.get(varSymbol) : null;
+        }
+        if (expr instanceof OFPParser.ParenExprContext)
+            return lengthOf(((OFPParser.ParenExprContext) expr).expr());
+
+        return null;
+    }
+
+    /**
+     * Records the value of a folded expression.
+     *
+     * @param ctx   the folded expression
+     * @param value the value of the expression
+     * @return the value
+     */
+    private Object fold(ParseTree ctx, Object value) {
+        constants.put(ctx, value);
+        return value;
+    }
+
+    /**
+     * Records the value of a folded float expression, unless it overflowed.
+     *
+     * @param ctx   the folded expression
+     * @param value the value of the expression
+     * @return the value, or null if it is not finite
+     */
+    private Object foldFloat(ParseTree ctx, double value) {
+        return Double.isFinite(value) ? fold(ctx, value) : null;
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Character)
+            return (Character) value;
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * Listener that collects every variable that is assigned after its
+     * declaration.
+     */
+    private class AssignmentCollector extends OFPBaseListener {
+        private Scope scope;
+
+        @Override
+        public void enterFuncBlock(OFPParser.FuncBlockContext ctx) {
+            scope = scopes.get(ctx);
+        }
+
+        @Override
+        public void exitFuncBlock(OFPParser.FuncBlockContext ctx) {
+            scope = scope.getEnclosingScope();
+        }
+
+        @Override
+        public void enterBlock(OFPParser.BlockContext ctx) {
+            scope = scopes.get(ctx);
+        }
+
+        @Override
+        public void exitBlock(OFPParser.BlockContext ctx) {
+            scope = scope.getEnclosingScope();
+        }
+
+        @Override
+        public void enterAssignStmt(OFPParser.AssignStmtContext ctx) {
+            Symbol varSymbol = scope.resolve(ctx.ID().getText());
+            if (varSymbol != null && ctx.expr(1) == null)
+                reassigned.add(varSymbol);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package ofp;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that finds unreachable statements and dead stores.
+ * Runs after constant folding and marks every node that the backends should
+ * not emit:
+ * - statements after a return, also when every branch of an if returns,
+ * - the branch of an if whose condition is a constant,
+ * - assignments and initializers whose value is never read, and
+ * - declarations of variables that are never referenced.
+ *
+ * A dead initializer is marked on its expression, so the variable is still
+ * declared. Stores are only removed if their value is free of side effects,
+ * so calls, array accesses, allocations and divisions, which can throw, are
+ * always kept. Liveness is computed backwards over the structured control
+ * flow; a loop keeps every variable used anywhere in its body alive, which
+ * avoids iterating to a fixed point.
+ */
+public class DeadCodeEliminator extends OFPBaseVisitor<Object> {
+    private ParseTreeProperty<Scope> scopes;
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed = new ParseTreeProperty<>();
+    private Set<Symbol> referenced = new HashSet<>();
+
+    /**
+     * Constructs a DeadCodeEliminator with the given scopes and folded
+     * constants.
+     *
+     * @param scopes    the mapping of parse tree nodes to scopes
+     * @param constants the values of constant expressions
+     */
+    public DeadCodeEliminator(ParseTreeProperty<Scope> scopes, ParseTreeProperty<Object> constants) {
+        this.scopes = scopes;
+        this.constants = constants;
+    }
+
+    public ParseTreeProperty<Boolean> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Removes unreachable statements and dead stores from a function body.
+     *
+     * @param ctx the function block context
+     * @return null
+     */
+    @Override
+    public Object visitFuncBlock(OFPParser.FuncBlockContext ctx) {
+        Scope scope = scopes.get(ctx);
+        markUnreachable(ctx.stmt());
+
+        referenced.clear();
+        collectUses(ctx, scope, referenced, true);
+        removeDeadStores(ctx.stmt(), scope, new HashSet<Symbol>());
+
+        return null;
+    }
+
+    /**
+     * Marks the statements that follow a statement that never completes, and
+     * the untaken branches of constant conditions.
+     *
+     * @param stmts the statements of a block
+     * @return true if the statements can complete normally
+     */
+    private boolean markUnreachable(List<OFPParser.StmtContext> stmts) {
+        boolean reachable = true;
+
+        for (OFPParser.StmtContext stmt : stmts) {
+            if (!reachable)
+                removed.put(stmt, true);
+            else
+                reachable = markUnreachable(stmt);
+        }
+
+        return reachable;
+    }
+
+    /**
+     * Marks the unreachable parts of a statement.
+     *
+     * @param stmt the statement
+     * @return true if the statement can complete normally
+     */
+    private boolean markUnreachable(OFPParser.StmtContext stmt) {
+        if (stmt instanceof OFPParser.ReturnStmtContext)
+            return false;
+
+        if (stmt instanceof OFPParser.WhileStmtContext) {
+            markUnreachable(((OFPParser.WhileStmtContext) stmt).block().stmt());
+            return true;
+        }
+
+        if (stmt instanceof OFPParser.IfStmtContext) {
+            OFPParser.IfStmtContext ifStmt = (OFPParser.IfStmtContext) stmt;
+            OFPParser.BlockContext thenBlock = ifStmt.block(0);
+            OFPParser.BlockContext elseBlock = ifStmt.block(1);
+            Object condition = constants.get(ifStmt.expr());
+
+            if (Boolean.TRUE.equals(condition)) {
+                if (elseBlock != null)
+                    removed.put(elseBlock, true);
+                return markUnreachable(thenBlock.stmt());
+            } else if (Boolean.FALSE.equals(condition)) {
+                removed.put(thenBlock, true);
+                return elseBlock == null || markUnreachable(elseBlock.stmt());
+            }
+
+            boolean thenCompletes = markUnreachable(thenBlock.stmt());
+            boolean elseCompletes = elseBlock == null || markUnreachable(elseBlock.stmt());
+            return thenCompletes || elseCompletes;
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks dead stores in a sequence of statements, from the last to the
+     * first.
+     *
+     * @param stmts   the statements of a block
+     * @param scope   the scope of the block
+     * @param liveOut the variables read after the statements
+     * @return the variables read before the statements
+     */
+    private Set<Symbol> removeDeadStores(List<OFPParser.StmtContext> stmts, Scope scope, Set<Symbol> liveOut) {
+        Set<Symbol> live = liveOut;
+
+        for (int i = stmts.size() - 1; i >= 0; i--) {
+            if (removed.get(stmts.get(i)) == null)
+                live = removeDeadStores(stmts.get(i), scope, live);
+        }
+
+        return live;
+    }
+
+    /**
+     * Marks dead stores in a statement.
+     *
+     * @param stmt    the statement
+     * @param scope   the scope of the statement
+     * @param liveOut the variables read after the statement
+     * @return the variables read before the statement
+     */
+    private Set<Symbol> removeDeadStores(OFPParser.StmtContext stmt, Scope scope, Set<Symbol> liveOut) {
+        Set<Symbol> live = new HashSet<>(liveOut);
+
+        if (stmt instanceof OFPParser.ReturnStmtContext) {
+            live.clear();
+            collectUses(stmt, scope, live, false);
+        } else if (stmt instanceof OFPParser.AssignStmtContext) {
+            OFPParser.AssignStmtContext assign = (OFPParser.AssignStmtContext) stmt;
+            Symbol varSymbol = scope.resolve(assign.ID().getText());
+
+            if (assign.expr(1) != null) {
+                live.add(varSymbol);
+            } else if (!live.contains(varSymbol) && isPure(assign.expr(0), constants)) {
+                removed.put(stmt, true);
+                return live;
+            } else {
+                live.remove(varSymbol);
+            }
+            collectUses(stmt, scope, live, false);
+        } else if (stmt instanceof OFPParser.VarDeclStmtContext) {
+            OFPParser.VarDeclStmtContext varDecl = (OFPParser.VarDeclStmtContext) stmt;
+            Symbol varSymbol = scope.resolve(varDecl.ID().getText());
+
+            boolean dead = varDecl.expr() == null || (!live.contains(varSymbol) && isPure(varDecl.expr(), constants));
+            if (dead && !referenced.contains(varSymbol))
+                removed.put(stmt, true);
+            else if (dead && varDecl.expr() != null)
+                removed.put(varDecl.expr(), true);
+            else
+                collectUses(stmt, scope, live, false);
+            live.remove(varSymbol);
+        } else if (stmt instanceof OFPParser.IfStmtContext) {
+            OFPParser.IfStmtContext ifStmt = (OFPParser.IfStmtContext) stmt;
+            Set<Symbol> thenLive = branchLiveIn(ifStmt.block(0), liveOut);
+            Set<Symbol> elseLive = ifStmt.block(1) != null ? branchLiveIn(ifStmt.block(1), liveOut) : liveOut;
+
+            live.clear();
+            live.addAll(thenLive);
+            live.addAll(elseLive);
+            collectUses(ifStmt.expr(), scope, live, false);
+        } else if (stmt instanceof OFPParser.WhileStmtContext) {
+            OFPParser.WhileStmtContext whileStmt = (OFPParser.WhileStmtContext) stmt;
+
+            // Everything the loop reads may be read again on the next iteration
+            collectUses(whileStmt.expr(), scope, live, false);
+            collectUses(whileStmt.block(), scope, live, false);
+            removeDeadStores(whileStmt.block().stmt(), scopes.get(whileStmt.block()), live);
+        } else {
+            collectUses(stmt, scope, live, false);
+        }
+
+        return live;
+    }
+
+    /**
+     * Marks dead stores in a branch of an if statement.
+     *
+     * @param block   the branch
+     * @param liveOut the variables read after the if statement
+     * @return the variables read before the branch
+     */
+    private Set<Symbol> branchLiveIn(OFPParser.BlockContext block, Set<Symbol> liveOut) {
+        if (removed.get(block) != null)
+            return new HashSet<>();
+        return removeDeadStores(block.stmt(), scopes.get(block), liveOut);
+    }
+
+    /**
+     * Collects the variables a node reads. Removed nodes and folded
+     * constants read nothing, since the backends do not emit them.
+     *
+     * @param node        the node
+     * @param scope       the scope of the node
+     * @param uses        the set to add the variables to
+     * @param withTargets whether assigned variables are collected as well
+     */
+    private void collectUses(ParseTree node, Scope scope, Set<Symbol> uses, boolean withTargets) {
+        if (removed.get(node) != null || constants.get(node) != null)
+            return;
+
+        if (node instanceof OFPParser.BlockContext || node instanceof OFPParser.FuncBlockContext)
+            scope = scopes.get(node);
+
+        if (node instanceof OFPParser.IDExprContext)
+            addSymbol(scope, ((OFPParser.IDExprContext) node).ID().getText(), uses);
+        else if (node instanceof OFPParser.ArrayAccessExprContext)
+            addSymbol(scope, ((OFPParser.ArrayAccessExprContext) node).ID().getText(), uses);
+        else if (node instanceof OFPParser.AssignStmtContext) {
+            OFPParser.AssignStmtContext assign = (OFPParser.AssignStmtContext) node;
+            if (withTargets || assign.expr(1) != null)
+                addSymbol(scope, assign.ID().getText(), uses);
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collectUses(node.getChild(i), scope, uses, withTargets);
+    }
+
+    private static void addSymbol(Scope scope, String name, Set<Symbol> uses) {
+        Symbol symbol = scope.resolve(name);
+        if (symbol != null)
+            uses.add(symbol);
+    }
+
+    /**
+     * Checks whether evaluating an expression has no effect besides its
+     * value, so it can be skipped if the value is not needed.
+     *
+     * @param expr      the expression
+     * @param constants the values of constant expressions
+     * @return true if the expression is free of side effects and cannot throw
+     */
+    static boolean isPure(ParseTree expr, ParseTreeProperty<Object> constants) {
+        if (constants.get(expr) != null)
+            return true;
+
+        if (expr instanceof OFPParser.FuncCallExprContext || expr instanceof OFPParser.ArrayAccessExprContext)
+            return false;
+        if (expr instanceof OFPParser.ArrayInitExprContext && expr.getChild(0).getText().equals("new"))
+            return false;
+        if (expr instanceof OFPParser.MultExprContext && expr.getChild(1).getText().equals("/"))
+            return false;
+
+        for (int i = 0; i < expr.getChildCount(); i++) {
+            if (!isPure(expr.getChild(i), constants))
+                return false;
+        }
+
+        return true;
+    }
+}
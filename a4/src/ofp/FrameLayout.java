@@ -0,0 +1,313 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that assigns the local variable slots of every function before
+ * bytecode is generated. Parameters keep the slots the calling convention
+ * gives them and record their position in the parameter list, so the
+ * generator never searches the parameter list. Locals and loop temporaries
+ * share slots whenever their lifetimes do not overlap.
+ *
+ * The lifetime of a local runs from its declaration to its last reference,
+ * numbering the references of a function in source order. A local declared
+ * outside a loop and referenced inside it stays alive until the loop ends,
+ * since the next iteration may read it again. A local declared inside a loop
+ * never carries a value into the next iteration, because the verifier only
+ * accepts reads that follow a store on every path. Loop temporaries live for
+ * the whole loop. Slots are then handed out by a linear scan over the
+ * lifetimes, in the order they start.
+ */
+public class FrameLayout extends OFPBaseVisitor<Object> {
+    private ParseTreeProperty<Scope> scopes;
+    private Scope globalScope;
+    private ParseTreeProperty<OFPType> types;
+    private ParseTreeProperty<Boolean> removed;
+    private LoopOptimizer loops;
+    private ParseTreeProperty<Integer> frameSizes = new ParseTreeProperty<>();
+    private Map<LoopOptimizer.Temporary, Integer> temporarySlots = new HashMap<>();
+    private int position;
+    private List<Lifetime> lifetimes = new ArrayList<>();
+    private Map<Symbol, Lifetime> locals = new HashMap<>();
+    private List<Loop> openLoops = new ArrayList<>();
+    private int variableCount;
+    private int slotCount;
+
+    /**
+     * The lifetime of a local or loop temporary.
+     */
+    private static class Lifetime {
+        Object owner;
+        int start;
+        int end;
+        int size;
+        int slot;
+
+        Lifetime(Object owner, int start, int size) {
+            this.owner = owner;
+            this.start = start;
+            this.end = start;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A loop whose end has not been reached yet, with the lifetimes that
+     * must last until it ends.
+     */
+    private static class Loop {
+        int start;
+        Set<Lifetime> extended = new HashSet<>();
+
+        Loop(int start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * Constructs a FrameLayout with the given scopes, expression types,
+     * removed code and loop temporaries.
+     *
+     * @param scopes      the mapping of parse tree nodes to scopes
+     * @param globalScope the global scope
+     * @param types       the types of the expressions
+     * @param removed     the dead statements and initializers
+     * @param loops       the temporaries of every loop
+     */
+    public FrameLayout(ParseTreeProperty<Scope> scopes, Scope globalScope, ParseTreeProperty<OFPType> types,
+            ParseTreeProperty<Boolean> removed, LoopOptimizer loops) {
+        this.scopes = scopes;
+        this.globalScope = globalScope;
+        this.types = types;
+        this.removed = removed;
+        this.loops = loops;
+    }
+
+    /**
+     * Returns the number of slots a function uses for its parameters and
+     * locals. Slots from this number on are free for the generator.
+     *
+     * @param function the main or function declaration context
+     * @return the number of slots
+     */
+    public int getFrameSize(ParserRuleContext function) {
+        return frameSizes.get(function);
+    }
+
+    /**
+     * Returns the slot of a loop temporary.
+     *
+     * @param temporary the temporary
+     * @return the slot
+     */
+    public int getSlot(LoopOptimizer.Temporary temporary) {
+        return temporarySlots.get(temporary);
+    }
+
+    /**
+     * Formats the number of slots the locals need as one line.
+     *
+     * @return the report
+     */
+    public String formatReport() {
+        return slotCount + " slots for " + variableCount + " locals and temporaries";
+    }
+
+    /**
+     * Lays out the frame of the main function, whose slot 0 holds the
+     * command line arguments.
+     *
+     * @param ctx the main context
+     * @return null
+     */
+    @Override
+    public Object visitMain(OFPParser.MainContext ctx) {
+        layout(ctx, ctx.funcBlock(), 1);
+        return null;
+    }
+
+    /**
+     * Assigns the parameters of a function their slots and lays out its
+     * frame.
+     *
+     * @param ctx the function declaration context
+     * @return null
+     */
+    @Override
+    public Object visitFuncDecl(OFPParser.FuncDeclContext ctx) {
+        Symbol symbol = globalScope.resolve(ctx.ID(0).getText());
+        if (!(symbol instanceof FunctionSymbol))
+            return null;
+
+        List<Symbol> params = ((FunctionSymbol) symbol).getParameters();
+        int slot = 0;
+        for (int i = 0; i < params.size(); i++) {
+            params.get(i).setParameterIndex(i);
+            params.get(i).setPointer(slot);
+            slot += getSize(params.get(i).getType());
+        }
+
+        layout(ctx, ctx.funcBlock(), slot);
+        return null;
+    }
+
+    /**
+     * Computes the lifetimes of the locals of a function and assigns them
+     * slots.
+     *
+     * @param function  the main or function declaration context
+     * @param body      the function body
+     * @param firstSlot the first slot after the parameters
+     */
+    private void layout(ParserRuleContext function, OFPParser.FuncBlockContext body, int firstSlot) {
+        position = 0;
+        lifetimes.clear();
+        locals.clear();
+        collectLifetimes(body, scopes.get(body));
+
+        // The lifetimes were created in the order they start
+        List<Lifetime> active = new ArrayList<>();
+        int frameSize = firstSlot;
+        for (Lifetime lifetime : lifetimes) {
+            active.removeIf(other -> other.end < lifetime.start);
+
+            lifetime.slot = findFreeSlot(active, firstSlot, lifetime.size);
+            active.add(lifetime);
+            frameSize = Math.max(frameSize, lifetime.slot + lifetime.size);
+
+            if (lifetime.owner instanceof Symbol)
+                ((Symbol) lifetime.owner).setPointer(lifetime.slot);
+            else
+                temporarySlots.put((LoopOptimizer.Temporary) lifetime.owner, lifetime.slot);
+        }
+
+        frameSizes.put(function, frameSize);
+        variableCount += lifetimes.size();
+        slotCount += frameSize - firstSlot;
+    }
+
+    /**
+     * Returns the lowest slot from which a value of the given size does not
+     * overlap any active lifetime.
+     *
+     * @param active    the active lifetimes
+     * @param firstSlot the first slot after the parameters
+     * @param size      the number of slots needed
+     * @return the slot
+     */
+    private static int findFreeSlot(List<Lifetime> active, int firstSlot, int size) {
+        int slot = firstSlot;
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            for (Lifetime other : active) {
+                if (slot < other.slot + other.size && other.slot < slot + size) {
+                    slot = other.slot + other.size;
+                    moved = true;
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Numbers the references in a node and extends the lifetimes they
+     * belong to.
+     *
+     * @param node  the node
+     * @param scope the scope of the node
+     */
+    private void collectLifetimes(ParseTree node, Scope scope) {
+        if (removed.get(node) != null)
+            return;
+
+        if (node instanceof OFPParser.BlockContext || node instanceof OFPParser.FuncBlockContext)
+            scope = scopes.get(node);
+
+        if (node instanceof OFPParser.WhileStmtContext) {
+            collectLoop((OFPParser.WhileStmtContext) node, scope);
+            return;
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collectLifetimes(node.getChild(i), scope);
+
+        if (node instanceof OFPParser.VarDeclStmtContext) {
+            Symbol symbol = scope.resolve(((OFPParser.VarDeclStmtContext) node).ID().getText());
+            if (symbol == null)
+                return;
+            Lifetime lifetime = new Lifetime(symbol, ++position, getSize(symbol.getType()));
+            lifetimes.add(lifetime);
+            locals.put(symbol, lifetime);
+        } else if (node instanceof OFPParser.IDExprContext) {
+            reference(scope.resolve(((OFPParser.IDExprContext) node).ID().getText()));
+        } else if (node instanceof OFPParser.ArrayAccessExprContext) {
+            reference(scope.resolve(((OFPParser.ArrayAccessExprContext) node).ID().getText()));
+        } else if (node instanceof OFPParser.AssignStmtContext) {
+            reference(scope.resolve(((OFPParser.AssignStmtContext) node).ID().getText()));
+        }
+    }
+
+    /**
+     * Numbers the references in a loop. The temporaries of the loop and the
+     * locals it reads from outside live until the loop ends.
+     *
+     * @param ctx   the while statement context
+     * @param scope the scope of the while statement
+     */
+    private void collectLoop(OFPParser.WhileStmtContext ctx, Scope scope) {
+        Loop loop = new Loop(++position);
+        List<LoopOptimizer.Temporary> preheader = loops.getPreheaders().get(ctx);
+        if (preheader != null) {
+            for (LoopOptimizer.Temporary temporary : preheader) {
+                Lifetime lifetime = new Lifetime(temporary, loop.start, getSize(types.get(temporary.getValue())));
+                lifetimes.add(lifetime);
+                loop.extended.add(lifetime);
+            }
+        }
+
+        openLoops.add(loop);
+        collectLifetimes(ctx.expr(), scope);
+        collectLifetimes(ctx.block(), scope);
+        openLoops.remove(openLoops.size() - 1);
+
+        int end = ++position;
+        for (Lifetime lifetime : loop.extended)
+            lifetime.end = Math.max(lifetime.end, end);
+    }
+
+    /**
+     * Extends the lifetime of a local to the current position and to the end
+     * of every open loop that started after its declaration.
+     *
+     * @param symbol the referenced variable
+     */
+    private void reference(Symbol symbol) {
+        Lifetime lifetime = locals.get(symbol);
+        position++;
+        if (lifetime == null)
+            return;
+
+        lifetime.end = position;
+        for (Loop loop : openLoops) {
+            if (loop.start > lifetime.start)
+                loop.extended.add(lifetime);
+        }
+    }
+
+    private static int getSize(OFPType type) {
+        return type == OFPType.FLOAT ? 2 : 1;
+    }
+}
@@ -0,0 +1,268 @@
+package ofp;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import generated.OFPParser;
+
+/**
+ * Fused front end that builds the symbol table, checks references and checks
+ * types in a single traversal of the parse tree.
+ * Function signatures are declared up front from the top-level declarations
+ * only, so calls to functions declared later, e.g. from main, resolve
+ * correctly. Everything else is defined in program order, so variables must be
+ * declared before they are used. The resulting scopes are the same as those
+ * built by the SymbolTableListener, and each error is reported once.
+ */
+public class FrontEndVisitor extends TypeCheckingVisitor {
+    private FunctionSymbol currentFunctionSymbol;
+
+    /**
+     * Constructs a FrontEndVisitor with an empty symbol table.
+     */
+    public FrontEndVisitor() {
+        super(new ParseTreeProperty<Scope>(), null);
+    }
+
+    /**
+     * Creates the global scope and declares all functions before visiting
+     * their bodies.
+     *
+     * @param ctx the program context
+     * @return null
+     */
+    @Override
+    public OFPType visitProgram(OFPParser.ProgramContext ctx) {
+        globalScope = new Scope(null);
+        currentScope = globalScope;
+        scopes.put(ctx, globalScope);
+
+        for (ParseTree child : ctx.children) {
+            if (child instanceof OFPParser.MainContext)
+                declareMain((OFPParser.MainContext) child);
+            else if (child instanceof OFPParser.FuncDeclContext)
+                declareFunction((OFPParser.FuncDeclContext) child);
+        }
+
+        return visitChildren(ctx);
+    }
+
+    /**
+     * Checks the body of the main function in its declared scope.
+     *
+     * @param ctx the main context
+     * @return null
+     */
+    @Override
+    public OFPType visitMain(OFPParser.MainContext ctx) {
+        currentFunctionSymbol = (FunctionSymbol) globalScope.resolve("main");
+        currentScope = scopes.get(ctx);
+        visit(ctx.funcBlock());
+        currentScope = globalScope;
+        currentFunctionSymbol = null;
+
+        return null;
+    }
+
+    /**
+     * Checks the body of a function in its declared scope.
+     *
+     * @param ctx the function declaration context
+     * @return null
+     */
+    @Override
+    public OFPType visitFuncDecl(OFPParser.FuncDeclContext ctx) {
+        currentScope = scopes.get(ctx);
+        currentFunctionSymbol = currentScope.getFunctionSymbol();
+        visit(ctx.funcBlock());
+        currentScope = globalScope;
+        currentFunctionSymbol = null;
+
+        return null;
+    }
+
+    /**
+     * Creates the scope of a function block before checking it.
+     *
+     * @param ctx the function block context
+     * @return null
+     */
+    @Override
+    public OFPType visitFuncBlock(OFPParser.FuncBlockContext ctx) {
+        enterScope(ctx);
+        return super.visitFuncBlock(ctx);
+    }
+
+    /**
+     * Creates the scope of a block before checking it.
+     *
+     * @param ctx the block context
+     * @return null
+     */
+    @Override
+    public OFPType visitBlock(OFPParser.BlockContext ctx) {
+        enterScope(ctx);
+        return super.visitBlock(ctx);
+    }
+
+    /**
+     * Defines a variable and then checks its initializer.
+     *
+     * @param ctx the variable declaration statement context
+     * @return the variable type or error type if invalid
+     */
+    @Override
+    public OFPType visitVarDeclStmt(OFPParser.VarDeclStmtContext ctx) {
+        String varName = ctx.ID().getText();
+        OFPType varType = OFPType.getTypeFor(ctx.TYPE().getText());
+
+        Symbol existingSymbol = currentScope.paramLocalResolve(varName);
+        if (existingSymbol != null && !(existingSymbol instanceof FunctionSymbol))
+            error("Error: Variable '" + varName + "' is already declared within this scope.");
+        else
+            currentScope.define(new Symbol(varName, varType));
+
+        return super.visitVarDeclStmt(ctx);
+    }
+
+    /**
+     * Checks that an assigned variable is declared before checking types.
+     *
+     * @param ctx the assignment statement context
+     * @return the assigned type or error type if invalid
+     */
+    @Override
+    public OFPType visitAssignStmt(OFPParser.AssignStmtContext ctx) {
+        if (currentScope.resolve(ctx.ID().getText()) == null) {
+            reportUndeclared(ctx.ID().getText(), ctx);
+            for (OFPParser.ExprContext expr : ctx.expr())
+                visit(expr);
+            return OFPType.ERROR;
+        }
+
+        return super.visitAssignStmt(ctx);
+    }
+
+    /**
+     * Associates a return statement with its scope before checking it.
+     *
+     * @param ctx the return statement context
+     * @return error type if return value does not match function return type
+     */
+    @Override
+    public OFPType visitReturnStmt(OFPParser.ReturnStmtContext ctx) {
+        if (currentFunctionSymbol != null)
+            scopes.put(ctx, currentScope);
+
+        return super.visitReturnStmt(ctx);
+    }
+
+    /**
+     * Returns the type of a referenced variable, reporting undeclared ones.
+     *
+     * @param ctx the ID expression context
+     * @return the variable type or error type if not declared
+     */
+    @Override
+    public OFPType visitIDExpr(OFPParser.IDExprContext ctx) {
+        Symbol varSymbol = currentScope.resolve(ctx.ID().getText());
+
+        if (varSymbol == null) {
+            reportUndeclared(ctx.ID().getText(), ctx);
+            return OFPType.ERROR;
+        }
+
+        return varSymbol.getType();
+    }
+
+    /**
+     * Declares the main function and its scope.
+     *
+     * @param ctx the main context
+     */
+    private void declareMain(OFPParser.MainContext ctx) {
+        Scope mainScope = new Scope(globalScope);
+        scopes.put(ctx, mainScope);
+
+        Symbol mainSymbol = globalScope.resolve("main");
+        if (mainSymbol != null && mainSymbol instanceof FunctionSymbol) {
+            error("Error: 'main' function is already defined.");
+            return;
+        }
+
+        globalScope.define(new FunctionSymbol("main", OFPType.VOID));
+        globalScope.addChildScope(mainScope);
+    }
+
+    /**
+     * Declares a function, its parameters and its scope.
+     *
+     * @param ctx the function declaration context
+     */
+    private void declareFunction(OFPParser.FuncDeclContext ctx) {
+        String functionName = ctx.ID(0).getText();
+        OFPType returnType = OFPType.getTypeFor(ctx.getChild(0).getText());
+        FunctionSymbol functionSymbol = new FunctionSymbol(functionName, returnType);
+        Scope functionScope = new Scope(globalScope);
+        functionScope.setFunctionSymbol(functionSymbol);
+        scopes.put(ctx, functionScope);
+
+        if (globalScope.resolve(functionName) instanceof FunctionSymbol) {
+            // Still check the body, but in a scope that is not part of the symbol table
+            error("Error: Function '" + functionName + "' is already declared within this scope.");
+            return;
+        }
+
+        globalScope.define(functionSymbol);
+        globalScope.addChildScope(functionScope);
+
+        // The return type of non-void functions is the first TYPE token
+        int firstParam = returnType.equals(OFPType.VOID) ? 0 : 1;
+        for (int i = firstParam; i < ctx.TYPE().size(); i++) {
+            String paramName = ctx.ID(i - firstParam + 1).getText();
+            if (functionScope.localResolve(paramName) != null) {
+                error("Error: Parameter '" + paramName + "' is already declared in function '"
+                        + functionName + "'.");
+                continue;
+            }
+
+            Symbol paramSymbol = new Symbol(paramName, OFPType.getTypeFor(ctx.TYPE(i).getText()));
+            functionScope.define(paramSymbol);
+            functionSymbol.addParameter(paramSymbol);
+        }
+    }
+
+    /**
+     * Creates a nested scope for a block and associates it with the block.
+     *
+     * @param ctx the block context
+     */
+    private void enterScope(ParseTree ctx) {
+        Scope blockScope = new Scope(currentScope);
+        if (currentScope.getFunctionSymbol() != null)
+            blockScope.setFunctionSymbol(currentScope.getFunctionSymbol());
+
+        currentScope.addChildScope(blockScope);
+        scopes.put(ctx, blockScope);
+    }
+
+    /**
+     * Reports a reference to an undeclared variable with its position.
+     *
+     * @param varName the variable name
+     * @param ctx     the referencing node
+     */
+    private void reportUndeclared(String varName, ParserRuleContext ctx) {
+        error("Error: Variable '" + varName + "' is not declared in this scope at line "
+                + ctx.getStart().getLine() + ", column " + ctx.getStart().getCharPositionInLine() + ".");
+    }
+
+    public ParseTreeProperty<Scope> getScope() {
+        return scopes;
+    }
+
+    public Scope getGlobalScope() {
+        return globalScope;
+    }
+}
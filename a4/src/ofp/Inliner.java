@@ -0,0 +1,271 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Class visitor that inlines calls of small static methods of the same class.
+ * All methods are buffered until the class ends, then every call of a method
+ * that is small enough and does not call itself is replaced by a copy of its
+ * body, and the methods are passed on in their original order.
+ *
+ * The copy stores the arguments into fresh locals above those of the caller,
+ * and every return becomes a jump to the end of the copy with the result left
+ * on the stack. The size of a method is its number of instructions. Callers
+ * stop growing at MAX_CALLER_SIZE instructions, which keeps them well below
+ * the size at which HotSpot no longer compiles a method. Methods marked with
+ * keep, such as the regions of the outliner, are never inlined, since they
+ * were moved out of their caller on purpose.
+ */
+public class Inliner extends ClassVisitor implements Opcodes {
+    /** Default maximum number of instructions of an inlined method. */
+    public static final int DEFAULT_SIZE = 32;
+
+    private static final int MAX_CALLER_SIZE = 2000;
+
+    private String owner;
+    private int maxSize;
+    private List<MethodNode> methods = new ArrayList<>();
+    private Map<String, MethodNode> methodsByName = new HashMap<>();
+    private Set<String> kept = new HashSet<>();
+    private Map<String, Integer> report = new LinkedHashMap<>();
+
+    /**
+     * Constructs an Inliner for the given class.
+     *
+     * @param next    the visitor that receives the class
+     * @param owner   the internal name of the class
+     * @param maxSize the maximum number of instructions of an inlined method,
+     *                or 0 to inline nothing
+     */
+    public Inliner(ClassVisitor next, String owner, int maxSize) {
+        super(ASM5, next);
+        this.owner = owner;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Keeps every call of a method, whatever its size.
+     *
+     * @param name the name of the method
+     */
+    public void keep(String name) {
+        kept.add(name);
+    }
+
+    /**
+     * Returns the inlined call sites as "caller -> callee" with the number of
+     * calls inlined there.
+     *
+     * @return the inlined call sites
+     */
+    public Map<String, Integer> getReport() {
+        return report;
+    }
+
+    /**
+     * Formats the report as one line.
+     *
+     * @return the report
+     */
+    public String formatReport() {
+        if (report.isEmpty())
+            return "none";
+
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : report.entrySet()) {
+            if (line.length() > 0)
+                line.append(", ");
+            line.append(entry.getKey()).append(" (").append(entry.getValue()).append(')');
+        }
+        return line.toString();
+    }
+
+    /**
+     * Buffers a method until all methods of the class are known.
+     */
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+            String[] exceptions) {
+        MethodNode method = new MethodNode(ASM5, access, name, desc, signature, exceptions);
+        methods.add(method);
+        methodsByName.put(name + desc, method);
+        return method;
+    }
+
+    /**
+     * Inlines the calls in every method and passes the methods on.
+     */
+    @Override
+    public void visitEnd() {
+        for (MethodNode method : methods) {
+            if (maxSize > 0)
+                inlineCalls(method);
+            method.accept(cv);
+        }
+        super.visitEnd();
+    }
+
+    /**
+     * Inlines the calls of small methods in a method.
+     *
+     * @param caller the calling method
+     */
+    private void inlineCalls(MethodNode caller) {
+        int nextLocal = getMaxLocals(caller);
+        int size = getSize(caller);
+
+        for (AbstractInsnNode insn = caller.instructions.getFirst(); insn != null;) {
+            AbstractInsnNode next = insn.getNext();
+            MethodNode callee = getInlinableCallee(insn);
+
+            if (callee != null && callee != caller && size + getSize(callee) <= MAX_CALLER_SIZE) {
+                inline(caller, (MethodInsnNode) insn, callee, nextLocal);
+                nextLocal += getMaxLocals(callee);
+                size += getSize(callee);
+
+                String site = caller.name + " -> " + callee.name;
+                report.put(site, report.getOrDefault(site, 0) + 1);
+            }
+            insn = next;
+        }
+    }
+
+    /**
+     * Returns the method called by an instruction if it may be inlined.
+     *
+     * @param insn the instruction
+     * @return the called method, or null if the call is kept
+     */
+    private MethodNode getInlinableCallee(AbstractInsnNode insn) {
+        if (insn.getOpcode() != INVOKESTATIC || !((MethodInsnNode) insn).owner.equals(owner))
+            return null;
+
+        MethodInsnNode call = (MethodInsnNode) insn;
+        if (kept.contains(call.name))
+            return null;
+        MethodNode callee = methodsByName.get(call.name + call.desc);
+        if (callee == null || getSize(callee) > maxSize || !callee.tryCatchBlocks.isEmpty())
+            return null;
+
+        for (AbstractInsnNode calleeInsn = callee.instructions.getFirst(); calleeInsn != null;
+                calleeInsn = calleeInsn.getNext()) {
+            if (calleeInsn instanceof MethodInsnNode && ((MethodInsnNode) calleeInsn).owner.equals(owner)
+                    && ((MethodInsnNode) calleeInsn).name.equals(callee.name)
+                    && ((MethodInsnNode) calleeInsn).desc.equals(callee.desc))
+                return null;
+        }
+
+        return callee;
+    }
+
+    /**
+     * Replaces a call with a copy of the called method.
+     *
+     * @param caller the calling method
+     * @param call   the call instruction
+     * @param callee the called method
+     * @param base   the first free local of the caller
+     */
+    private void inline(MethodNode caller, MethodInsnNode call, MethodNode callee, int base) {
+        InsnList copy = new InsnList();
+        LabelNode end = new LabelNode();
+        Map<LabelNode, LabelNode> labels = new HashMap<>();
+        for (AbstractInsnNode insn = callee.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof LabelNode)
+                labels.put((LabelNode) insn, new LabelNode());
+        }
+
+        // The arguments are on the stack with the last one on top
+        Type[] argumentTypes = Type.getArgumentTypes(callee.desc);
+        int[] argumentSlots = new int[argumentTypes.length];
+        int slot = base;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            argumentSlots[i] = slot;
+            slot += argumentTypes[i].getSize();
+        }
+        for (int i = argumentTypes.length - 1; i >= 0; i--)
+            copy.add(new VarInsnNode(argumentTypes[i].getOpcode(ISTORE), argumentSlots[i]));
+
+        for (AbstractInsnNode insn = callee.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            int opcode = insn.getOpcode();
+            if (insn instanceof FrameNode || insn instanceof LineNumberNode)
+                continue;
+
+            if (opcode >= IRETURN && opcode <= RETURN) {
+                copy.add(new JumpInsnNode(GOTO, end));
+                continue;
+            }
+
+            AbstractInsnNode clone = insn.clone(labels);
+            if (clone instanceof VarInsnNode)
+                ((VarInsnNode) clone).var += base;
+            else if (clone instanceof IincInsnNode)
+                ((IincInsnNode) clone).var += base;
+            copy.add(clone);
+        }
+        copy.add(end);
+
+        caller.instructions.insert(call, copy);
+        caller.instructions.remove(call);
+    }
+
+    /**
+     * Returns the number of locals a method uses, including its arguments.
+     *
+     * @param method the method
+     * @return the number of locals
+     */
+    private static int getMaxLocals(MethodNode method) {
+        int maxLocals = Type.getArgumentsAndReturnSizes(method.desc) >> 2;
+        if ((method.access & ACC_STATIC) != 0)
+            maxLocals--;
+
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof VarInsnNode) {
+                int opcode = insn.getOpcode();
+                int size = opcode == LLOAD || opcode == DLOAD || opcode == LSTORE || opcode == DSTORE ? 2 : 1;
+                maxLocals = Math.max(maxLocals, ((VarInsnNode) insn).var + size);
+            } else if (insn instanceof IincInsnNode) {
+                maxLocals = Math.max(maxLocals, ((IincInsnNode) insn).var + 1);
+            }
+        }
+
+        return maxLocals;
+    }
+
+    /**
+     * Returns the number of instructions of a method, not counting labels.
+     *
+     * @param method the method
+     * @return the number of instructions
+     */
+    private static int getSize(MethodNode method) {
+        int size = 0;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0)
+                size++;
+        }
+        return size;
+    }
+}
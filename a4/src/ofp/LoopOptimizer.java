@@ -0,0 +1,426 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that finds loop-invariant expressions and induction variables in
+ * while loops. Runs after dead code elimination and records, for every loop,
+ * the temporaries the backends compute before the loop starts and the
+ * expressions inside the loop that read a temporary instead.
+ *
+ * An expression is invariant if it only reads variables the loop never
+ * assigns and cannot throw, so computing it before the loop is unobservable
+ * even if the loop body never runs. Array lengths are invariant since an
+ * array never changes its size. Outer loops are optimized first, so an
+ * expression is hoisted out of as many loops as possible.
+ *
+ * An int variable whose only assignment in the loop is i = i + c at the top
+ * of the loop body is an induction variable. A product i * k with a constant
+ * k is kept in a temporary that is increased by c * k right after i is
+ * updated, which is exact since int arithmetic wraps. Int division by a
+ * constant power of two inside a loop is recorded as a shift.
+ */
+public class LoopOptimizer extends OFPBaseVisitor<Object> {
+    private ParseTreeProperty<Scope> scopes;
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed;
+    private ParseTreeProperty<List<Temporary>> preheaders = new ParseTreeProperty<>();
+    private ParseTreeProperty<Temporary> replaced = new ParseTreeProperty<>();
+    private ParseTreeProperty<List<Temporary>> updates = new ParseTreeProperty<>();
+    private ParseTreeProperty<Integer> shifts = new ParseTreeProperty<>();
+    private int temporaryCount;
+    private int hoistedCount;
+    private int reducedCount;
+    private int shiftCount;
+
+    /**
+     * A value computed before a loop. An invariant temporary holds the value
+     * of its expression for the whole loop, while an induction temporary is
+     * increased by its step whenever its induction variable is updated.
+     */
+    public static class Temporary {
+        private int index;
+        private OFPParser.ExprContext value;
+        private long step;
+
+        Temporary(int index, OFPParser.ExprContext value, long step) {
+            this.index = index;
+            this.value = value;
+            this.step = step;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public OFPParser.ExprContext getValue() {
+            return value;
+        }
+
+        public long getStep() {
+            return step;
+        }
+    }
+
+    /**
+     * What is known about the loop being optimized.
+     */
+    private static class Loop {
+        Set<Symbol> assigned;
+        Map<Symbol, OFPParser.AssignStmtContext> inductions = new HashMap<>();
+        Map<Symbol, Integer> steps = new HashMap<>();
+        List<Temporary> temporaries = new ArrayList<>();
+        Map<String, Temporary> invariants = new HashMap<>();
+        Map<Symbol, Map<Integer, Temporary>> products = new HashMap<>();
+    }
+
+    /**
+     * Constructs a LoopOptimizer with the given scopes, folded constants and
+     * removed code.
+     *
+     * @param scopes    the mapping of parse tree nodes to scopes
+     * @param constants the values of constant expressions
+     * @param removed   the dead statements and initializers
+     */
+    public LoopOptimizer(ParseTreeProperty<Scope> scopes, ParseTreeProperty<Object> constants,
+            ParseTreeProperty<Boolean> removed) {
+        this.scopes = scopes;
+        this.constants = constants;
+        this.removed = removed;
+    }
+
+    public ParseTreeProperty<List<Temporary>> getPreheaders() {
+        return preheaders;
+    }
+
+    public ParseTreeProperty<Temporary> getReplaced() {
+        return replaced;
+    }
+
+    public ParseTreeProperty<List<Temporary>> getUpdates() {
+        return updates;
+    }
+
+    public ParseTreeProperty<Integer> getShifts() {
+        return shifts;
+    }
+
+    /**
+     * Formats the number of optimized expressions as one line.
+     *
+     * @return the report
+     */
+    public String formatReport() {
+        return hoistedCount + " hoisted, " + reducedCount + " strength reduced, " + shiftCount + " shifts";
+    }
+
+    /**
+     * Optimizes the loops of a function body.
+     *
+     * @param ctx the function block context
+     * @return null
+     */
+    @Override
+    public Object visitFuncBlock(OFPParser.FuncBlockContext ctx) {
+        findLoops(ctx, scopes.get(ctx));
+        return null;
+    }
+
+    /**
+     * Optimizes every loop in a node, outer loops before inner ones.
+     *
+     * @param node  the node
+     * @param scope the scope of the node
+     */
+    private void findLoops(ParseTree node, Scope scope) {
+        if (removed.get(node) != null)
+            return;
+
+        if (node instanceof OFPParser.BlockContext || node instanceof OFPParser.FuncBlockContext)
+            scope = scopes.get(node);
+        if (node instanceof OFPParser.WhileStmtContext)
+            optimizeLoop((OFPParser.WhileStmtContext) node, scope);
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            findLoops(node.getChild(i), scope);
+    }
+
+    /**
+     * Finds the invariant expressions and induction variables of a loop.
+     *
+     * @param loop  the while statement
+     * @param scope the scope of the while statement
+     */
+    private void optimizeLoop(OFPParser.WhileStmtContext loop, Scope scope) {
+        Map<Symbol, Integer> assignments = new HashMap<>();
+        countAssignments(loop, scope, assignments);
+        Loop state = new Loop();
+        state.assigned = assignments.keySet();
+
+        // Induction variables are updated once per iteration by a statement of the loop body itself
+        Scope bodyScope = scopes.get(loop.block());
+        for (OFPParser.StmtContext stmt : loop.block().stmt()) {
+            if (!(stmt instanceof OFPParser.AssignStmtContext) || removed.get(stmt) != null)
+                continue;
+
+            OFPParser.AssignStmtContext assign = (OFPParser.AssignStmtContext) stmt;
+            Symbol symbol = bodyScope.resolve(assign.ID().getText());
+            Integer step = getStep(assign, symbol, bodyScope);
+            if (step != null && assignments.get(symbol) == 1) {
+                state.inductions.put(symbol, assign);
+                state.steps.put(symbol, step);
+            }
+        }
+
+        optimize(loop.expr(), scope, state);
+        optimize(loop.block(), scope, state);
+
+        if (!state.temporaries.isEmpty())
+            preheaders.put(loop, state.temporaries);
+    }
+
+    /**
+     * Replaces the invariant expressions and induction products in a node
+     * with temporaries of a loop.
+     *
+     * @param node  the node
+     * @param scope the scope of the node
+     * @param loop  the loop
+     */
+    private void optimize(ParseTree node, Scope scope, Loop loop) {
+        if (removed.get(node) != null || constants.get(node) != null || replaced.get(node) != null)
+            return;
+
+        if (node instanceof OFPParser.BlockContext)
+            scope = scopes.get(node);
+
+        if (node instanceof OFPParser.ExprContext) {
+            OFPParser.ExprContext expr = (OFPParser.ExprContext) node;
+
+            if (isInvariant(expr, scope, loop.assigned) && hasOperation(expr)) {
+                // Equal texts read the same variables, since none of them is assigned in the loop
+                Temporary temporary = loop.invariants.get(expr.getText());
+                if (temporary == null) {
+                    temporary = new Temporary(temporaryCount++, expr, 0);
+                    loop.invariants.put(expr.getText(), temporary);
+                    loop.temporaries.add(temporary);
+                    hoistedCount++;
+                }
+                replaced.put(expr, temporary);
+                return;
+            }
+
+            if (reduce(expr, scope, loop))
+                return;
+
+            if (expr instanceof OFPParser.MultExprContext && expr.getChild(1).getText().equals("/")) {
+                int shift = getShift(expr.getChild(2));
+                if (shift > 0 && shifts.get(expr) == null) {
+                    shifts.put(expr, shift);
+                    shiftCount++;
+                }
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            optimize(node.getChild(i), scope, loop);
+    }
+
+    /**
+     * Replaces a product of an induction variable and a constant with an
+     * induction temporary.
+     *
+     * @param expr  the expression
+     * @param scope the scope of the expression
+     * @param loop  the loop
+     * @return true if the expression was replaced
+     */
+    private boolean reduce(OFPParser.ExprContext expr, Scope scope, Loop loop) {
+        if (!(expr instanceof OFPParser.MultExprContext) || !expr.getChild(1).getText().equals("*"))
+            return false;
+
+        OFPParser.ExprContext left = unwrap(expr.getChild(OFPParser.ExprContext.class, 0));
+        OFPParser.ExprContext right = unwrap(expr.getChild(OFPParser.ExprContext.class, 1));
+        OFPParser.ExprContext variable = getValue(right) instanceof Integer ? left : right;
+        Object factor = getValue(variable == left ? right : left);
+        if (!(factor instanceof Integer) || !(variable instanceof OFPParser.IDExprContext)
+                || constants.get(variable) != null)
+            return false;
+
+        Symbol symbol = scope.resolve(((OFPParser.IDExprContext) variable).ID().getText());
+        OFPParser.AssignStmtContext update = loop.inductions.get(symbol);
+        if (update == null)
+            return false;
+
+        Map<Integer, Temporary> products = loop.products.computeIfAbsent(symbol, s -> new HashMap<>());
+        Temporary temporary = products.get(factor);
+        if (temporary == null) {
+            temporary = new Temporary(temporaryCount++, expr, (long) loop.steps.get(symbol) * (Integer) factor);
+            products.put((Integer) factor, temporary);
+            loop.temporaries.add(temporary);
+            if (updates.get(update) == null)
+                updates.put(update, new ArrayList<Temporary>());
+            updates.get(update).add(temporary);
+            reducedCount++;
+        }
+        replaced.put(expr, temporary);
+
+        return true;
+    }
+
+    /**
+     * Counts the assignments and declarations of every variable in a node.
+     *
+     * @param node        the node
+     * @param scope       the scope of the node
+     * @param assignments the number of assignments of every variable
+     */
+    private void countAssignments(ParseTree node, Scope scope, Map<Symbol, Integer> assignments) {
+        if (node instanceof OFPParser.BlockContext)
+            scope = scopes.get(node);
+
+        String target = null;
+        if (node instanceof OFPParser.AssignStmtContext && ((OFPParser.AssignStmtContext) node).expr(1) == null)
+            target = ((OFPParser.AssignStmtContext) node).ID().getText();
+        else if (node instanceof OFPParser.VarDeclStmtContext)
+            target = ((OFPParser.VarDeclStmtContext) node).ID().getText();
+
+        Symbol symbol = target != null ? scope.resolve(target) : null;
+        if (symbol != null)
+            assignments.put(symbol, assignments.getOrDefault(symbol, 0) + 1);
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            countAssignments(node.getChild(i), scope, assignments);
+    }
+
+    /**
+     * Returns the step of an assignment of the form i = i + c, c + i or
+     * i - c to an int variable.
+     *
+     * @param assign the assignment
+     * @param symbol the assigned variable
+     * @param scope  the scope of the assignment
+     * @return the constant added to the variable, or null if the assignment
+     *         has another form
+     */
+    private Integer getStep(OFPParser.AssignStmtContext assign, Symbol symbol, Scope scope) {
+        OFPParser.ExprContext expr = unwrap(assign.expr(0));
+        if (assign.expr(1) != null || symbol == null || symbol.getType() != OFPType.INT
+                || !(expr instanceof OFPParser.AddiExprContext))
+            return null;
+
+        OFPParser.ExprContext left = unwrap(expr.getChild(OFPParser.ExprContext.class, 0));
+        OFPParser.ExprContext right = unwrap(expr.getChild(OFPParser.ExprContext.class, 1));
+        boolean subtract = expr.getChild(1).getText().equals("-");
+
+        if (isVariable(left, symbol, scope) && getValue(right) instanceof Integer)
+            return subtract ? -(Integer) getValue(right) : (Integer) getValue(right);
+        if (!subtract && isVariable(right, symbol, scope) && getValue(left) instanceof Integer)
+            return (Integer) getValue(left);
+        return null;
+    }
+
+    private boolean isVariable(OFPParser.ExprContext expr, Symbol symbol, Scope scope) {
+        return expr instanceof OFPParser.IDExprContext && constants.get(expr) == null
+                && scope.resolve(((OFPParser.IDExprContext) expr).ID().getText()) == symbol;
+    }
+
+    /**
+     * Checks whether an expression has the same value in every iteration of
+     * a loop and can be computed before it without throwing.
+     *
+     * @param expr     the expression
+     * @param scope    the scope of the expression
+     * @param assigned the variables assigned in the loop
+     * @return true if the expression is invariant
+     */
+    private boolean isInvariant(ParseTree expr, Scope scope, Set<Symbol> assigned) {
+        if (constants.get(expr) != null || expr instanceof OFPParser.IntExprContext
+                || expr instanceof OFPParser.FloatExprContext || expr instanceof OFPParser.BoolExprContext
+                || expr instanceof OFPParser.CharExprContext || expr instanceof OFPParser.StringExprContext)
+            return true;
+
+        if (expr instanceof OFPParser.IDExprContext) {
+            Symbol symbol = scope.resolve(((OFPParser.IDExprContext) expr).ID().getText());
+            return symbol != null && !(symbol instanceof FunctionSymbol) && !assigned.contains(symbol);
+        }
+
+        // Only division by a constant other than zero cannot throw
+        if (expr instanceof OFPParser.MultExprContext && expr.getChild(1).getText().equals("/")) {
+            Object divisor = getValue(expr.getChild(2));
+            if (!(divisor instanceof Double || divisor instanceof Integer && (Integer) divisor != 0))
+                return false;
+        } else if (!(expr instanceof OFPParser.MultExprContext || expr instanceof OFPParser.AddiExprContext
+                || expr instanceof OFPParser.UnaryExprContext || expr instanceof OFPParser.ParenExprContext
+                || expr instanceof OFPParser.ArrayLengthExprContext)) {
+            return false;
+        }
+
+        for (int i = 0; i < expr.getChildCount(); i++) {
+            if (expr.getChild(i) instanceof OFPParser.ExprContext && !isInvariant(expr.getChild(i), scope, assigned))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether an expression computes anything, so hoisting it saves
+     * more than a load.
+     *
+     * @param expr the expression
+     * @return true if the expression contains an arithmetic operation or an
+     *         array length
+     */
+    private boolean hasOperation(ParseTree expr) {
+        if (constants.get(expr) != null)
+            return false;
+        if (expr instanceof OFPParser.MultExprContext || expr instanceof OFPParser.AddiExprContext
+                || expr instanceof OFPParser.ArrayLengthExprContext)
+            return true;
+
+        for (int i = 0; i < expr.getChildCount(); i++) {
+            if (hasOperation(expr.getChild(i)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the shift that divides by a constant.
+     *
+     * @param divisor the divisor
+     * @return n if the divisor is the int 2^n with n > 0, otherwise 0
+     */
+    private int getShift(ParseTree divisor) {
+        Object value = getValue(divisor);
+        if (!(value instanceof Integer) || (Integer) value < 2 || Integer.bitCount((Integer) value) != 1)
+            return 0;
+        return Integer.numberOfTrailingZeros((Integer) value);
+    }
+
+    /**
+     * Returns the value of a folded expression or literal.
+     *
+     * @param expr the expression
+     * @return the value, or null if the expression is not constant
+     */
+    private Object getValue(ParseTree expr) {
+        return ConstantFolder.valueOf(expr, constants);
+    }
+
+    private static OFPParser.ExprContext unwrap(OFPParser.ExprContext expr) {
+        while (expr instanceof OFPParser.ParenExprContext)
+            expr = ((OFPParser.ParenExprContext) expr).expr();
+        return expr;
+    }
+}
@@ -0,0 +1,117 @@
+package ofp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Character stream over the bytes of an OFP program, typically a memory-mapped
+ * source file.
+ * The OFP grammar only uses ASCII, so every byte is one character and the
+ * lexer can read the bytes directly, without decoding the file into a
+ * code point array first. Bytes outside of ASCII are passed on as the
+ * characters U+0080 to U+00FF.
+ */
+public class MappedCharStream implements CharStream {
+    private ByteBuffer bytes;
+    private String sourceName;
+    private int position = 0;
+
+    /**
+     * Constructs a MappedCharStream reading from a buffer.
+     *
+     * @param bytes      the program bytes, from position zero to the limit
+     * @param sourceName the name of the source, used in error messages
+     */
+    public MappedCharStream(ByteBuffer bytes, String sourceName) {
+        this.bytes = bytes;
+        this.sourceName = sourceName;
+    }
+
+    /**
+     * Memory-maps a file for reading.
+     *
+     * @param file the file to map
+     * @return the read-only buffer of the file contents
+     * @throws IOException if the file cannot be read or is too large
+     */
+    public static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("File is too large: " + file);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public void consume() {
+        if (position >= bytes.limit())
+            throw new IllegalStateException("cannot consume EOF");
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0)
+            return 0;
+
+        // LA(1) is the current character, LA(-1) the previous one
+        int index = i > 0 ? position + i - 1 : position + i;
+        if (index < 0 || index >= bytes.limit())
+            return IntStream.EOF;
+        return bytes.get(index) & 0xFF;
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = Math.min(index, bytes.limit());
+    }
+
+    @Override
+    public int size() {
+        return bytes.limit();
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(interval.a, 0);
+        int stop = Math.min(interval.b, bytes.limit() - 1);
+        if (stop < start)
+            return "";
+
+        char[] text = new char[stop - start + 1];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (char) (bytes.get(start + i) & 0xFF);
+        return new String(text);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, bytes.limit() - 1));
+    }
+}
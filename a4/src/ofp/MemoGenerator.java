@@ -0,0 +1,493 @@
+package ofp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+/**
+ * Generates the memo tables of memoized functions.
+ * The body of a memoized function f is compiled as f$compute, and f becomes
+ * a wrapper that packs the arguments into a key of one or more longs and
+ * looks it up in an open-addressing hash table before computing the result.
+ * Arguments are packed into a long until the next one does not fit, so
+ * (int,int) takes one long and (float,int) or (int,int,int) take two.
+ *
+ * Every table is a long[] in the static field f$memo. An entry holds 1 if it
+ * is used, the key longs and the result bits. The table is probed linearly
+ * and doubles when it is half full. The probe and grow methods are shared by
+ * all tables with keys of the same number of longs. The public static fields
+ * f$memoHits and f$memoMisses count the lookups.
+ */
+public class MemoGenerator implements Opcodes {
+    private static final Type TABLE_TYPE = Type.getType(long[].class);
+    private static final int KEY_BITS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private ClassVisitor cv;
+    private Type owner;
+    private Map<String, Integer> tables = new LinkedHashMap<>();
+
+    /**
+     * Constructs a MemoGenerator that adds to the given class.
+     *
+     * @param cv        the visitor of the generated class
+     * @param className the name of the generated class
+     */
+    public MemoGenerator(ClassVisitor cv, String className) {
+        this.cv = cv;
+        this.owner = Type.getObjectType(className);
+    }
+
+    /**
+     * Returns the method that holds the body of a memoized function.
+     *
+     * @param method the memoized function
+     * @return the method that computes the result
+     */
+    public static Method getComputeMethod(Method method) {
+        return new Method(method.getName() + "$compute", method.getDescriptor());
+    }
+
+    /**
+     * Generates the fields of a memoized function and the wrapper that looks
+     * up the result before calling the compute method.
+     *
+     * @param method the memoized function
+     */
+    public void generateWrapper(Method method) {
+        String name = method.getName();
+        Type returnType = method.getReturnType();
+        Type[] argumentTypes = method.getArgumentTypes();
+        int[] words = getKeyWords(argumentTypes);
+        int keyLength = words.length == 0 ? 1 : words[words.length - 1] + 1;
+        int entryLength = keyLength + 2;
+        Method slotMethod = getSlotMethod(keyLength);
+        tables.put(name + "$memo", keyLength);
+
+        cv.visitField(ACC_PRIVATE + ACC_STATIC, name + "$memo", TABLE_TYPE.getDescriptor(), null, null).visitEnd();
+        cv.visitField(ACC_PRIVATE + ACC_STATIC, name + "$memoSize", "I", null, null).visitEnd();
+        cv.visitField(ACC_PUBLIC + ACC_STATIC, name + "$memoHits", "J", null, null).visitEnd();
+        cv.visitField(ACC_PUBLIC + ACC_STATIC, name + "$memoMisses", "J", null, null).visitEnd();
+
+        GeneratorAdapter mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, method, null, null, cv);
+        int[] key = new int[keyLength];
+        for (int j = 0; j < keyLength; j++)
+            key[j] = mg.newLocal(Type.LONG_TYPE);
+        int table = mg.newLocal(TABLE_TYPE);
+        int slot = mg.newLocal(Type.INT_TYPE);
+        int value = mg.newLocal(returnType);
+        Label miss = new Label();
+        Label stored = new Label();
+        Label done = new Label();
+
+        // Pack the arguments into the key, the first one in the highest bits
+        mg.push(0L);
+        for (int i = 0; i < argumentTypes.length; i++) {
+            if (i > 0 && words[i] != words[i - 1]) {
+                mg.storeLocal(key[words[i - 1]]);
+                mg.push(0L);
+            }
+            mg.push(getKeyBits(argumentTypes[i]));
+            mg.math(GeneratorAdapter.SHL, Type.LONG_TYPE);
+            mg.loadArg(i);
+            toBits(mg, argumentTypes[i]);
+            if (argumentTypes[i] == Type.INT_TYPE) {
+                mg.push(0xFFFFFFFFL);
+                mg.math(GeneratorAdapter.AND, Type.LONG_TYPE);
+            }
+            mg.math(GeneratorAdapter.OR, Type.LONG_TYPE);
+        }
+        mg.storeLocal(key[keyLength - 1]);
+
+        mg.getStatic(owner, name + "$memo", TABLE_TYPE);
+        mg.dup();
+        mg.storeLocal(table);
+        for (int k : key)
+            mg.loadLocal(k);
+        mg.invokeStatic(owner, slotMethod);
+        mg.storeLocal(slot);
+
+        mg.loadLocal(table);
+        mg.loadLocal(slot);
+        mg.arrayLoad(Type.LONG_TYPE);
+        mg.push(0L);
+        mg.ifCmp(Type.LONG_TYPE, GeneratorAdapter.EQ, miss);
+        increment(mg, name + "$memoHits");
+        mg.loadLocal(table);
+        mg.loadLocal(slot);
+        mg.push(entryLength - 1);
+        mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        mg.arrayLoad(Type.LONG_TYPE);
+        fromBits(mg, returnType);
+        mg.returnValue();
+
+        mg.mark(miss);
+        increment(mg, name + "$memoMisses");
+        mg.loadArgs();
+        mg.invokeStatic(owner, getComputeMethod(method));
+        mg.storeLocal(value);
+
+        // The recursive calls may have grown the table, so the slot is looked up again
+        mg.getStatic(owner, name + "$memo", TABLE_TYPE);
+        mg.dup();
+        mg.storeLocal(table);
+        for (int k : key)
+            mg.loadLocal(k);
+        mg.invokeStatic(owner, slotMethod);
+        mg.storeLocal(slot);
+
+        mg.loadLocal(table);
+        mg.loadLocal(slot);
+        mg.arrayLoad(Type.LONG_TYPE);
+        mg.push(0L);
+        mg.ifCmp(Type.LONG_TYPE, GeneratorAdapter.NE, stored);
+        mg.getStatic(owner, name + "$memoSize", Type.INT_TYPE);
+        mg.push(1);
+        mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        mg.putStatic(owner, name + "$memoSize", Type.INT_TYPE);
+        mg.mark(stored);
+
+        storeEntry(mg, table, slot, 0, () -> mg.push(1L));
+        for (int j = 0; j < keyLength; j++) {
+            int k = key[j];
+            storeEntry(mg, table, slot, 1 + j, () -> mg.loadLocal(k));
+        }
+        storeEntry(mg, table, slot, entryLength - 1, () -> {
+            mg.loadLocal(value);
+            toBits(mg, returnType);
+        });
+
+        // Grow when more than half of the entries are used
+        mg.getStatic(owner, name + "$memoSize", Type.INT_TYPE);
+        mg.push(2 * entryLength);
+        mg.math(GeneratorAdapter.MUL, Type.INT_TYPE);
+        mg.loadLocal(table);
+        mg.arrayLength();
+        mg.ifICmp(GeneratorAdapter.LE, done);
+        mg.loadLocal(table);
+        mg.invokeStatic(owner, getGrowMethod(keyLength));
+        mg.putStatic(owner, name + "$memo", TABLE_TYPE);
+
+        mg.mark(done);
+        mg.loadLocal(value);
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Checks whether any function was memoized, so the class needs a static
+     * initializer.
+     *
+     * @return true if there are memo tables
+     */
+    public boolean hasTables() {
+        return !tables.isEmpty();
+    }
+
+    /**
+     * Generates the probe and grow methods for each key length the tables
+     * use. Does nothing if no function was memoized.
+     */
+    public void generateSupport() {
+        for (int keyLength : new TreeSet<>(tables.values())) {
+            generateSlot(keyLength);
+            generateGrow(keyLength);
+        }
+    }
+
+    /**
+     * Allocates the tables in the static initializer of the class.
+     *
+     * @param mg the static initializer
+     */
+    public void generateInitializer(GeneratorAdapter mg) {
+        for (Map.Entry<String, Integer> table : tables.entrySet()) {
+            mg.push((table.getValue() + 2) * INITIAL_CAPACITY);
+            mg.newArray(Type.LONG_TYPE);
+            mg.putStatic(owner, table.getKey(), TABLE_TYPE);
+        }
+    }
+
+    /**
+     * Generates memo$slot, which returns the index of the entry that holds a
+     * key, or of the empty entry where it belongs.
+     *
+     * @param keyLength the number of longs in the key
+     */
+    private void generateSlot(int keyLength) {
+        int entryLength = keyLength + 2;
+        GeneratorAdapter mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, getSlotMethod(keyLength), null, null,
+                cv);
+        int mask = mg.newLocal(Type.INT_TYPE);
+        int index = mg.newLocal(Type.INT_TYPE);
+        int base = mg.newLocal(Type.INT_TYPE);
+        Label probe = new Label();
+        Label found = new Label();
+
+        mg.loadArg(0);
+        mg.arrayLength();
+        mg.push(entryLength);
+        mg.math(GeneratorAdapter.DIV, Type.INT_TYPE);
+        mg.push(1);
+        mg.math(GeneratorAdapter.SUB, Type.INT_TYPE);
+        mg.storeLocal(mask);
+
+        // Longer keys are first combined into one long
+        mg.loadArg(1);
+        for (int j = 2; j <= keyLength; j++) {
+            mg.push(0x9E3779B97F4A7C15L);
+            mg.math(GeneratorAdapter.MUL, Type.LONG_TYPE);
+            mg.loadArg(j);
+            mg.math(GeneratorAdapter.ADD, Type.LONG_TYPE);
+        }
+
+        // Fibonacci hashing of both halves of the key
+        mg.dup2();
+        mg.push(32);
+        mg.math(GeneratorAdapter.USHR, Type.LONG_TYPE);
+        mg.math(GeneratorAdapter.XOR, Type.LONG_TYPE);
+        mg.cast(Type.LONG_TYPE, Type.INT_TYPE);
+        mg.push(0x9E3779B9);
+        mg.math(GeneratorAdapter.MUL, Type.INT_TYPE);
+        mg.dup();
+        mg.push(16);
+        mg.math(GeneratorAdapter.USHR, Type.INT_TYPE);
+        mg.math(GeneratorAdapter.XOR, Type.INT_TYPE);
+        mg.loadLocal(mask);
+        mg.math(GeneratorAdapter.AND, Type.INT_TYPE);
+        mg.storeLocal(index);
+
+        mg.mark(probe);
+        mg.loadLocal(index);
+        mg.push(entryLength);
+        mg.math(GeneratorAdapter.MUL, Type.INT_TYPE);
+        mg.storeLocal(base);
+
+        mg.loadArg(0);
+        mg.loadLocal(base);
+        mg.arrayLoad(Type.LONG_TYPE);
+        mg.push(0L);
+        mg.ifCmp(Type.LONG_TYPE, GeneratorAdapter.EQ, found);
+        Label next = new Label();
+        for (int j = 1; j <= keyLength; j++) {
+            mg.loadArg(0);
+            mg.loadLocal(base);
+            mg.push(j);
+            mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+            mg.arrayLoad(Type.LONG_TYPE);
+            mg.loadArg(j);
+            if (j < keyLength)
+                mg.ifCmp(Type.LONG_TYPE, GeneratorAdapter.NE, next);
+            else
+                mg.ifCmp(Type.LONG_TYPE, GeneratorAdapter.EQ, found);
+        }
+
+        mg.mark(next);
+        mg.loadLocal(index);
+        mg.push(1);
+        mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        mg.loadLocal(mask);
+        mg.math(GeneratorAdapter.AND, Type.INT_TYPE);
+        mg.storeLocal(index);
+        mg.goTo(probe);
+
+        mg.mark(found);
+        mg.loadLocal(base);
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Generates memo$grow, which returns a table of twice the capacity with
+     * all used entries of the given table.
+     *
+     * @param keyLength the number of longs in the key
+     */
+    private void generateGrow(int keyLength) {
+        int entryLength = keyLength + 2;
+        GeneratorAdapter mg = new GeneratorAdapter(ACC_PRIVATE + ACC_STATIC, getGrowMethod(keyLength), null, null,
+                cv);
+        int bigger = mg.newLocal(TABLE_TYPE);
+        int i = mg.newLocal(Type.INT_TYPE);
+        int base = mg.newLocal(Type.INT_TYPE);
+        Label copy = new Label();
+        Label next = new Label();
+        Label condition = new Label();
+
+        mg.loadArg(0);
+        mg.arrayLength();
+        mg.push(2);
+        mg.math(GeneratorAdapter.MUL, Type.INT_TYPE);
+        mg.newArray(Type.LONG_TYPE);
+        mg.storeLocal(bigger);
+        mg.push(0);
+        mg.storeLocal(i);
+        mg.goTo(condition);
+
+        mg.mark(copy);
+        mg.loadArg(0);
+        mg.loadLocal(i);
+        mg.arrayLoad(Type.LONG_TYPE);
+        mg.push(0L);
+        mg.ifCmp(Type.LONG_TYPE, GeneratorAdapter.EQ, next);
+
+        mg.loadLocal(bigger);
+        for (int j = 1; j <= keyLength; j++) {
+            mg.loadArg(0);
+            mg.loadLocal(i);
+            mg.push(j);
+            mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+            mg.arrayLoad(Type.LONG_TYPE);
+        }
+        mg.invokeStatic(owner, getSlotMethod(keyLength));
+        mg.storeLocal(base);
+        for (int offset = 0; offset < entryLength; offset++) {
+            mg.loadLocal(bigger);
+            mg.loadLocal(base);
+            mg.push(offset);
+            mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+            mg.loadArg(0);
+            mg.loadLocal(i);
+            mg.push(offset);
+            mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+            mg.arrayLoad(Type.LONG_TYPE);
+            mg.arrayStore(Type.LONG_TYPE);
+        }
+
+        mg.mark(next);
+        mg.iinc(i, entryLength);
+        mg.mark(condition);
+        mg.loadLocal(i);
+        mg.loadArg(0);
+        mg.arrayLength();
+        mg.ifICmp(GeneratorAdapter.LT, copy);
+
+        mg.loadLocal(bigger);
+        mg.returnValue();
+        mg.endMethod();
+    }
+
+    /**
+     * Returns the probe method of the tables with keys of the given length.
+     *
+     * @param keyLength the number of longs in the key
+     * @return memo$slot for one long, memo$slotN for N longs
+     */
+    private static Method getSlotMethod(int keyLength) {
+        Type[] argumentTypes = new Type[1 + keyLength];
+        argumentTypes[0] = TABLE_TYPE;
+        for (int j = 1; j <= keyLength; j++)
+            argumentTypes[j] = Type.LONG_TYPE;
+        return new Method(keyLength == 1 ? "memo$slot" : "memo$slot" + keyLength, Type.INT_TYPE, argumentTypes);
+    }
+
+    /**
+     * Returns the grow method of the tables with keys of the given length.
+     *
+     * @param keyLength the number of longs in the key
+     * @return memo$grow for one long, memo$growN for N longs
+     */
+    private static Method getGrowMethod(int keyLength) {
+        return new Method(keyLength == 1 ? "memo$grow" : "memo$grow" + keyLength, TABLE_TYPE,
+                new Type[] { TABLE_TYPE });
+    }
+
+    /**
+     * Assigns each argument to the long of the key it is packed into. An
+     * argument starts a new long when it does not fit into the current one.
+     *
+     * @param argumentTypes the argument types
+     * @return the index of the key long of each argument
+     */
+    static int[] getKeyWords(Type[] argumentTypes) {
+        int[] words = new int[argumentTypes.length];
+        int word = 0;
+        int bits = 0;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            int argumentBits = getKeyBits(argumentTypes[i]);
+            if (bits + argumentBits > KEY_BITS) {
+                word++;
+                bits = 0;
+            }
+            words[i] = word;
+            bits += argumentBits;
+        }
+        return words;
+    }
+
+    /**
+     * Stores a value in one element of a table entry.
+     *
+     * @param mg     the method generator
+     * @param table  the local holding the table
+     * @param slot   the local holding the index of the entry
+     * @param offset the element of the entry
+     * @param value  pushes the long value to store
+     */
+    private static void storeEntry(GeneratorAdapter mg, int table, int slot, int offset, Runnable value) {
+        mg.loadLocal(table);
+        mg.loadLocal(slot);
+        if (offset > 0) {
+            mg.push(offset);
+            mg.math(GeneratorAdapter.ADD, Type.INT_TYPE);
+        }
+        value.run();
+        mg.arrayStore(Type.LONG_TYPE);
+    }
+
+    private void increment(GeneratorAdapter mg, String counter) {
+        mg.getStatic(owner, counter, Type.LONG_TYPE);
+        mg.push(1L);
+        mg.math(GeneratorAdapter.ADD, Type.LONG_TYPE);
+        mg.putStatic(owner, counter, Type.LONG_TYPE);
+    }
+
+    /**
+     * Converts the primitive value on top of the stack to its long bits.
+     *
+     * @param mg   the method generator
+     * @param type the type of the value
+     */
+    private static void toBits(GeneratorAdapter mg, Type type) {
+        if (type == Type.DOUBLE_TYPE)
+            mg.invokeStatic(Type.getType(Double.class), Method.getMethod("long doubleToRawLongBits (double)"));
+        else
+            mg.cast(Type.INT_TYPE, Type.LONG_TYPE);
+    }
+
+    /**
+     * Converts long bits on top of the stack back to a primitive value.
+     *
+     * @param mg   the method generator
+     * @param type the type of the value
+     */
+    private static void fromBits(GeneratorAdapter mg, Type type) {
+        if (type == Type.DOUBLE_TYPE)
+            mg.invokeStatic(Type.getType(Double.class), Method.getMethod("double longBitsToDouble (long)"));
+        else
+            mg.cast(Type.LONG_TYPE, Type.INT_TYPE);
+    }
+
+    /**
+     * Returns the number of bits a parameter takes up in the key.
+     *
+     * @param type the parameter type
+     * @return the number of bits
+     */
+    private static int getKeyBits(Type type) {
+        if (type == Type.DOUBLE_TYPE)
+            return 64;
+        else if (type == Type.CHAR_TYPE)
+            return 16;
+        else if (type == Type.BOOLEAN_TYPE)
+            return 1;
+        return 32;
+    }
+}
@@ -0,0 +1,532 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that splits functions too large for the JIT compiler into regions
+ * of statements that the bytecode generator moves into methods of their own.
+ * HotSpot does not compile methods larger than 8000 bytes, so a function whose
+ * estimated size exceeds MAX_SIZE has its statements grouped into regions of
+ * at most REGION_SIZE. A statement larger than a region is kept in place and
+ * split inside its blocks instead. Statements with a return stay in the
+ * function.
+ * Optionally, the loops of main become regions too, so the JIT compiler can
+ * compile them as methods instead of only through on-stack replacement.
+ *
+ * A region method takes the variables declared outside the region that the
+ * region uses. The variables the region assigns and the function uses after
+ * it are handed back: the first one as the result, the others through static
+ * fields. A region inside a loop also takes the temporaries of the loop that
+ * it reads, and hands back through static fields the induction temporaries
+ * it increases. The size of code is estimated as three bytes per token that
+ * is not punctuation, and a region as the size of its call: the argument
+ * loads, the call and the stores of the variables it hands back. Outlining
+ * the loops of main therefore counts toward its size, and main is split
+ * further if the calls make it too large. Such a split may put loop regions
+ * into the region of a larger part.
+ */
+public class Outliner extends OFPBaseVisitor<Object> {
+    /** Estimated size above which a function is split, leaving room for inlined calls. */
+    public static final int MAX_SIZE = 6000;
+
+    /** Maximum estimated size of a region. */
+    public static final int REGION_SIZE = 3000;
+
+    /** Minimum estimated size of a region, which is worth a call. */
+    private static final int MIN_REGION_SIZE = 300;
+
+    /** Maximum number of argument slots of a static method. */
+    private static final int MAX_ARGUMENT_SLOTS = 255;
+
+    private static final Set<String> PUNCTUATION = new HashSet<>(
+            Arrays.asList("(", ")", "[", "]", "{", "}", ",", ";"));
+
+    private ParseTreeProperty<Scope> scopes;
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed;
+    private LoopOptimizer loops;
+    private ParseTreeProperty<Region> regions = new ParseTreeProperty<>();
+    private Set<ParserRuleContext> outlined = new HashSet<>();
+    private Map<Symbol, List<ParserRuleContext>> references = new LinkedHashMap<>();
+    private Map<Symbol, OFPParser.VarDeclStmtContext> declarations = new HashMap<>();
+    private List<OFPParser.WhileStmtContext> enclosingLoops = new ArrayList<>();
+    private boolean outlineLoops;
+    private String functionName;
+    private int regionCount;
+    private int totalRegions;
+
+    /**
+     * A run of statements that is generated as a method of its own.
+     */
+    public static class Region {
+        private String name;
+        private List<OFPParser.StmtContext> statements;
+        private List<Symbol> inputs = new ArrayList<>();
+        private List<Symbol> outputs = new ArrayList<>();
+        private List<LoopOptimizer.Temporary> temporaries = new ArrayList<>();
+        private List<LoopOptimizer.Temporary> updatedTemporaries = new ArrayList<>();
+        private Region head;
+
+        Region(List<OFPParser.StmtContext> statements) {
+            this.statements = statements;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<OFPParser.StmtContext> getStatements() {
+            return statements;
+        }
+
+        public List<Symbol> getInputs() {
+            return inputs;
+        }
+
+        public List<Symbol> getOutputs() {
+            return outputs;
+        }
+
+        public List<LoopOptimizer.Temporary> getTemporaries() {
+            return temporaries;
+        }
+
+        public List<LoopOptimizer.Temporary> getUpdatedTemporaries() {
+            return updatedTemporaries;
+        }
+
+        /**
+         * Returns the region that starts with the same statement, which is
+         * generated inside this one.
+         *
+         * @return the region of the first statement, or null if there is none
+         */
+        public Region getHead() {
+            return head;
+        }
+    }
+
+    /**
+     * Constructs an Outliner with the given scopes, folded constants, removed
+     * code and loop temporaries.
+     *
+     * @param scopes    the mapping of parse tree nodes to scopes
+     * @param constants the values of constant expressions
+     * @param removed   the dead statements and initializers
+     * @param loops     the temporaries of every loop
+     */
+    public Outliner(ParseTreeProperty<Scope> scopes, ParseTreeProperty<Object> constants,
+            ParseTreeProperty<Boolean> removed, LoopOptimizer loops) {
+        this.scopes = scopes;
+        this.constants = constants;
+        this.removed = removed;
+        this.loops = loops;
+    }
+
+    /**
+     * Makes every outermost loop of main a region of its own, whatever the
+     * size of main. Main is entered only once, so its loops are otherwise
+     * only compiled by on-stack replacement.
+     *
+     * @param outlineLoops true to outline the loops of main
+     */
+    public void setOutlineLoops(boolean outlineLoops) {
+        this.outlineLoops = outlineLoops;
+    }
+
+    /**
+     * Returns the regions, keyed by their first statement.
+     *
+     * @return the regions
+     */
+    public ParseTreeProperty<Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * Checks whether a function has regions. Every local of such a function
+     * is initialized when it is declared, so it can be passed to a region
+     * before it is assigned.
+     *
+     * @param function the main or function declaration context
+     * @return true if the function has regions
+     */
+    public boolean hasRegions(ParserRuleContext function) {
+        return outlined.contains(function);
+    }
+
+    /**
+     * Formats the number of regions as one line.
+     *
+     * @return the report
+     */
+    public String formatReport() {
+        return totalRegions + " regions in " + outlined.size() + " functions";
+    }
+
+    @Override
+    public Object visitMain(OFPParser.MainContext ctx) {
+        outline(ctx, "main", ctx.funcBlock(), outlineLoops);
+        return null;
+    }
+
+    @Override
+    public Object visitFuncDecl(OFPParser.FuncDeclContext ctx) {
+        outline(ctx, ctx.ID(0).getText(), ctx.funcBlock(), false);
+        return null;
+    }
+
+    /**
+     * Splits a function into regions if it is too large, after making its
+     * loops regions if asked to.
+     *
+     * @param function the main or function declaration context
+     * @param name     the name of the function
+     * @param body     the function body
+     * @param loops    true to make every outermost loop a region
+     */
+    private void outline(ParserRuleContext function, String name, OFPParser.FuncBlockContext body,
+            boolean loops) {
+        if (estimateSize(body) <= MAX_SIZE && !loops)
+            return;
+
+        functionName = name;
+        regionCount = 0;
+        references.clear();
+        declarations.clear();
+        collectReferences(body, scopes.get(body));
+
+        if (loops)
+            outlineLoops(body.stmt());
+        // Estimated after the loops, whose calls may be larger than the loops
+        if (estimateSize(body) > MAX_SIZE)
+            split(body.stmt());
+        if (regionCount > 0)
+            outlined.add(function);
+        totalRegions += regionCount;
+    }
+
+    /**
+     * Groups a list of statements into regions, splitting statements larger
+     * than a region inside their blocks. A statement that is already a region
+     * counts with the size of its call.
+     *
+     * @param statements the statements
+     */
+    private void split(List<OFPParser.StmtContext> statements) {
+        List<OFPParser.StmtContext> run = new ArrayList<>();
+        int runSize = 0;
+
+        for (OFPParser.StmtContext stmt : statements) {
+            int size = estimateSize(stmt);
+            if (size > REGION_SIZE || containsReturn(stmt)) {
+                close(run, runSize);
+                run = new ArrayList<>();
+                runSize = 0;
+                // A large statement whose blocks cannot be split becomes a region of its own
+                if (size > REGION_SIZE && !splitBlocks(stmt) && !containsReturn(stmt))
+                    close(Collections.singletonList(stmt), size);
+                continue;
+            }
+
+            if (runSize + size > REGION_SIZE) {
+                close(run, runSize);
+                run = new ArrayList<>();
+                runSize = 0;
+            }
+            run.add(stmt);
+            runSize += size;
+        }
+        close(run, runSize);
+    }
+
+    /**
+     * Makes every outermost loop in a list of statements a region of its own.
+     * A loop larger than a region is split inside, as split would.
+     *
+     * @param statements the statements
+     */
+    private void outlineLoops(List<OFPParser.StmtContext> statements) {
+        for (OFPParser.StmtContext stmt : statements) {
+            if (removed.get(stmt) != null)
+                continue;
+
+            if (stmt instanceof OFPParser.WhileStmtContext && !containsReturn(stmt)) {
+                addRegion(Collections.singletonList(stmt), "$loop");
+                if (estimateSize(((OFPParser.WhileStmtContext) stmt).block()) > REGION_SIZE)
+                    splitBlocks(stmt);
+            } else if (stmt instanceof OFPParser.IfStmtContext) {
+                for (OFPParser.BlockContext block : ((OFPParser.IfStmtContext) stmt).block()) {
+                    if (removed.get(block) == null)
+                        outlineLoops(block.stmt());
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits the blocks of an if or while statement.
+     *
+     * @param stmt the statement
+     * @return true if the blocks were split
+     */
+    private boolean splitBlocks(OFPParser.StmtContext stmt) {
+        if (stmt instanceof OFPParser.IfStmtContext) {
+            for (OFPParser.BlockContext block : ((OFPParser.IfStmtContext) stmt).block()) {
+                if (removed.get(block) == null)
+                    split(block.stmt());
+            }
+            return true;
+        }
+        if (stmt instanceof OFPParser.WhileStmtContext) {
+            enclosingLoops.add((OFPParser.WhileStmtContext) stmt);
+            split(((OFPParser.WhileStmtContext) stmt).block().stmt());
+            enclosingLoops.remove(enclosingLoops.size() - 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Turns a run of statements into a region if it is worth a call. A run
+     * that is a single region already stays as it is.
+     *
+     * @param run     the statements
+     * @param runSize the estimated size of the statements
+     */
+    private void close(List<OFPParser.StmtContext> run, int runSize) {
+        if (runSize >= MIN_REGION_SIZE && !(run.size() == 1 && regions.get(run.get(0)) != null))
+            addRegion(run, "$part");
+    }
+
+    /**
+     * Turns a run of statements into a region. A run whose variables do not
+     * fit in the arguments of a method is split in halves. A part whose call
+     * is not smaller than its statements is not outlined.
+     *
+     * @param run  the statements
+     * @param kind the part of the region name before its number
+     */
+    private void addRegion(List<OFPParser.StmtContext> run, String kind) {
+        Region region = createRegion(run);
+        // The type of a temporary is not known here, so it counts as a float
+        int argumentSlots = 2 * region.temporaries.size();
+        for (Symbol input : region.inputs)
+            argumentSlots += input.getType() == OFPType.FLOAT ? 2 : 1;
+
+        if (argumentSlots <= MAX_ARGUMENT_SLOTS) {
+            if (kind.equals("$part") && estimateCallSize(region) >= estimateSize(run))
+                return;
+            region.name = functionName + kind + regionCount++;
+            region.head = regions.get(run.get(0));
+            regions.put(run.get(0), region);
+        } else if (run.size() > 1) {
+            List<OFPParser.StmtContext> first = run.subList(0, run.size() / 2);
+            List<OFPParser.StmtContext> second = run.subList(run.size() / 2, run.size());
+            close(first, estimateSize(first));
+            close(second, estimateSize(second));
+        }
+    }
+
+    /**
+     * Finds the variables a run of statements takes and hands back. A run
+     * takes the variables it uses that are declared outside it, and hands
+     * back those it assigns that are used after it, or before it in a loop
+     * that contains the run and the declaration of the variable.
+     *
+     * @param run the statements
+     * @return the region
+     */
+    private Region createRegion(List<OFPParser.StmtContext> run) {
+        Region region = new Region(run);
+        int start = run.get(0).getStart().getStartIndex();
+        int stop = run.get(run.size() - 1).getStop().getStopIndex();
+
+        for (Map.Entry<Symbol, List<ParserRuleContext>> entry : references.entrySet()) {
+            OFPParser.VarDeclStmtContext declaration = declarations.get(entry.getKey());
+            int declared = declaration == null ? -1 : declaration.getStart().getStartIndex();
+            boolean usedInside = false;
+            boolean usedAfter = false;
+            boolean assigned = false;
+
+            for (ParserRuleContext reference : entry.getValue()) {
+                int position = reference.getStart().getStartIndex();
+                if (position >= start && position <= stop) {
+                    usedInside = true;
+                    assigned |= reference instanceof OFPParser.VarDeclStmtContext
+                            || reference instanceof OFPParser.AssignStmtContext
+                                    && ((OFPParser.AssignStmtContext) reference).expr().size() == 1;
+                } else if (position > stop) {
+                    usedAfter = true;
+                } else {
+                    for (OFPParser.WhileStmtContext loop : enclosingLoops) {
+                        int loopStart = loop.getStart().getStartIndex();
+                        usedAfter |= position >= loopStart && declared < loopStart;
+                    }
+                }
+            }
+            if (!usedInside)
+                continue;
+
+            if (declared < start || declared > stop)
+                region.inputs.add(entry.getKey());
+            if (assigned && usedAfter)
+                region.outputs.add(entry.getKey());
+        }
+
+        Set<LoopOptimizer.Temporary> enclosing = new HashSet<>();
+        for (OFPParser.WhileStmtContext loop : enclosingLoops) {
+            if (loops.getPreheaders().get(loop) != null)
+                enclosing.addAll(loops.getPreheaders().get(loop));
+        }
+        if (!enclosing.isEmpty()) {
+            for (OFPParser.StmtContext stmt : run)
+                collectTemporaries(stmt, enclosing, region);
+        }
+
+        return region;
+    }
+
+    /**
+     * Adds the temporaries of the enclosing loops that a node reads or
+     * increases to a region. These live in the frame of the function, which
+     * computes them before the loop.
+     *
+     * @param node      the node
+     * @param enclosing the temporaries of the loops around the region
+     * @param region    the region
+     */
+    private void collectTemporaries(ParseTree node, Set<LoopOptimizer.Temporary> enclosing, Region region) {
+        if (removed.get(node) != null)
+            return;
+
+        LoopOptimizer.Temporary temporary = loops.getReplaced().get(node);
+        if (temporary != null && enclosing.contains(temporary) && !region.temporaries.contains(temporary))
+            region.temporaries.add(temporary);
+
+        List<LoopOptimizer.Temporary> updates = loops.getUpdates().get(node);
+        if (updates != null) {
+            for (LoopOptimizer.Temporary update : updates) {
+                if (!enclosing.contains(update))
+                    continue;
+                if (!region.temporaries.contains(update))
+                    region.temporaries.add(update);
+                if (!region.updatedTemporaries.contains(update))
+                    region.updatedTemporaries.add(update);
+            }
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collectTemporaries(node.getChild(i), enclosing, region);
+    }
+
+    /**
+     * Records every declaration, assignment and use of a variable in a node.
+     * Folded expressions use no variables.
+     *
+     * @param node  the node
+     * @param scope the scope of the node
+     */
+    private void collectReferences(ParseTree node, Scope scope) {
+        if (removed.get(node) != null || constants.get(node) != null)
+            return;
+
+        if (node instanceof OFPParser.BlockContext || node instanceof OFPParser.FuncBlockContext)
+            scope = scopes.get(node);
+
+        String name = null;
+        if (node instanceof OFPParser.VarDeclStmtContext)
+            name = ((OFPParser.VarDeclStmtContext) node).ID().getText();
+        else if (node instanceof OFPParser.AssignStmtContext)
+            name = ((OFPParser.AssignStmtContext) node).ID().getText();
+        else if (node instanceof OFPParser.IDExprContext)
+            name = ((OFPParser.IDExprContext) node).ID().getText();
+        else if (node instanceof OFPParser.ArrayAccessExprContext)
+            name = ((OFPParser.ArrayAccessExprContext) node).ID().getText();
+
+        Symbol symbol = name == null ? null : scope.resolve(name);
+        if (symbol != null && !(symbol instanceof FunctionSymbol)) {
+            references.computeIfAbsent(symbol, key -> new ArrayList<>()).add((ParserRuleContext) node);
+            if (node instanceof OFPParser.VarDeclStmtContext)
+                declarations.put(symbol, (OFPParser.VarDeclStmtContext) node);
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collectReferences(node.getChild(i), scope);
+    }
+
+    /**
+     * Estimates the size of the bytecode of a list of statements.
+     *
+     * @param statements the statements
+     * @return the estimated size in bytes
+     */
+    private int estimateSize(List<OFPParser.StmtContext> statements) {
+        int size = 0;
+        for (OFPParser.StmtContext stmt : statements)
+            size += estimateSize(stmt);
+        return size;
+    }
+
+    /**
+     * Estimates the size of the bytecode of a node. A statement that starts a
+     * region is as large as the call of the region.
+     *
+     * @param node the node
+     * @return the estimated size in bytes
+     */
+    private int estimateSize(ParseTree node) {
+        if (removed.get(node) != null)
+            return 0;
+        if (node instanceof OFPParser.StmtContext && regions.get(node) != null)
+            return estimateCallSize(regions.get(node));
+        if (node instanceof TerminalNode)
+            return PUNCTUATION.contains(node.getText()) ? 0 : 3;
+
+        int size = 0;
+        for (int i = 0; i < node.getChildCount(); i++)
+            size += estimateSize(node.getChild(i));
+        return size;
+    }
+
+    /**
+     * Estimates the size of the bytecode that calls a region: a load per
+     * argument, the call, a store of the result and a load from a static
+     * field and a store for every other variable and temporary handed back.
+     *
+     * @param region the region
+     * @return the estimated size in bytes
+     */
+    private static int estimateCallSize(Region region) {
+        int size = 3 + 2 * (region.inputs.size() + region.temporaries.size());
+        if (!region.outputs.isEmpty())
+            size += 2 + 5 * (region.outputs.size() - 1);
+        return size + 5 * region.updatedTemporaries.size();
+    }
+
+    private static boolean containsReturn(ParseTree node) {
+        if (node instanceof OFPParser.ReturnStmtContext)
+            return true;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (containsReturn(node.getChild(i)))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package ofp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Captures everything a thread prints to System.out and System.err.
+ * The compiler phases and the generated programs print directly to the
+ * standard streams, so parallel compilations route their output into a
+ * per-thread buffer that is printed once the compilation unit is complete.
+ */
+public class OutputCapture {
+    private static final ThreadLocal<ByteArrayOutputStream> buffers = new ThreadLocal<>();
+    private static PrintStream originalOut;
+
+    /**
+     * Replaces System.out and System.err with streams that write to the buffer
+     * of the current thread, if any, and to the original streams otherwise.
+     */
+    public static synchronized void install() {
+        if (originalOut != null)
+            return;
+
+        originalOut = System.out;
+        PrintStream originalErr = System.err;
+        System.setOut(new PrintStream(new RoutingStream(originalOut), true));
+        System.setErr(new PrintStream(new RoutingStream(originalErr), true));
+    }
+
+    /**
+     * Starts capturing the output of the current thread.
+     */
+    public static void begin() {
+        install();
+        buffers.set(new ByteArrayOutputStream());
+    }
+
+    /**
+     * Stops capturing the output of the current thread.
+     *
+     * @return everything printed since the matching call to begin
+     */
+    public static String end() {
+        System.out.flush();
+        System.err.flush();
+        ByteArrayOutputStream buffer = buffers.get();
+        buffers.remove();
+
+        return buffer == null ? "" : buffer.toString();
+    }
+
+    /**
+     * Returns the standard output stream that was active before capturing was
+     * installed.
+     *
+     * @return the original System.out
+     */
+    public static PrintStream getOriginalOut() {
+        return originalOut != null ? originalOut : System.out;
+    }
+
+    /**
+     * Output stream that forwards to the capturing thread's buffer, or to the
+     * original stream when the thread is not capturing.
+     */
+    private static class RoutingStream extends OutputStream {
+        private final OutputStream original;
+
+        RoutingStream(OutputStream original) {
+            this.original = original;
+        }
+
+        private OutputStream target() {
+            ByteArrayOutputStream buffer = buffers.get();
+            return buffer != null ? buffer : original;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ofp;
+
+import java.io.PrintStream;
+
+/**
+ * Buffered output of a generated program. The print statements of a program
+ * write into the ASCII byte buffer of its sink, which is passed on to
+ * System.out in one write when it fills up and when main ends, normally or
+ * with an exception. A character outside ASCII flushes the buffer and goes
+ * through System.out, so it is encoded as before.
+ *
+ * Every generated class holds its own sink, so programs that run at the same
+ * time never share a buffer. The methods mirror those of PrintStream the
+ * generated code calls, and System.out is looked up on every flush, so output
+ * that is captured per thread stays with the program that printed it.
+ */
+public class OutputSink {
+    /** Number of bytes buffered before they are written. */
+    public static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    private TextFormatter formatter = new TextFormatter();
+
+    /**
+     * Prints an int.
+     *
+     * @param value the value
+     */
+    public void print(int value) {
+        if (count + TextFormatter.MAX_INT_LENGTH > buffer.length)
+            flush();
+        count = formatter.formatInt(value, buffer, count);
+    }
+
+    /**
+     * Prints a float the way Double.toString formats it.
+     *
+     * @param value the value
+     */
+    public void print(double value) {
+        if (count + TextFormatter.MAX_DOUBLE_LENGTH > buffer.length)
+            flush();
+        count = formatter.formatDouble(value, buffer, count);
+    }
+
+    /**
+     * Prints a bool as true or false.
+     *
+     * @param value the value
+     */
+    public void print(boolean value) {
+        write(value ? TRUE : FALSE);
+    }
+
+    /**
+     * Prints a char.
+     *
+     * @param value the value
+     */
+    public void print(char value) {
+        if (value >= 0x80) {
+            printEncoded(String.valueOf(value));
+            return;
+        }
+
+        if (count == buffer.length)
+            flush();
+        buffer[count++] = (byte) value;
+    }
+
+    /**
+     * Prints a string.
+     *
+     * @param value the value
+     */
+    public void print(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                printEncoded(value);
+                return;
+            }
+        }
+
+        for (int start = 0; start < length;) {
+            if (count == buffer.length)
+                flush();
+            int end = Math.min(length, start + buffer.length - count);
+            for (int i = start; i < end; i++)
+                buffer[count++] = (byte) value.charAt(i);
+            start = end;
+        }
+    }
+
+    /**
+     * Ends the current line.
+     */
+    public void println() {
+        write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Prints an int and ends the line.
+     *
+     * @param value the value
+     */
+    public void println(int value) {
+        print(value);
+        println();
+    }
+
+    /**
+     * Prints a float and ends the line.
+     *
+     * @param value the value
+     */
+    public void println(double value) {
+        print(value);
+        println();
+    }
+
+    /**
+     * Prints a bool and ends the line.
+     *
+     * @param value the value
+     */
+    public void println(boolean value) {
+        print(value);
+        println();
+    }
+
+    /**
+     * Prints a char and ends the line.
+     *
+     * @param value the value
+     */
+    public void println(char value) {
+        print(value);
+        println();
+    }
+
+    /**
+     * Prints a string and ends the line.
+     *
+     * @param value the value
+     */
+    public void println(String value) {
+        print(value);
+        println();
+    }
+
+    /**
+     * Writes the buffered bytes to System.out and flushes it.
+     */
+    public void flush() {
+        PrintStream out = System.out;
+        out.write(buffer, 0, count);
+        out.flush();
+        count = 0;
+    }
+
+    /**
+     * Appends bytes that fit into an empty buffer.
+     *
+     * @param bytes the bytes
+     */
+    private void write(byte[] bytes) {
+        if (count + bytes.length > buffer.length)
+            flush();
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Prints text that is not ASCII through System.out, after the buffered
+     * output.
+     *
+     * @param text the text
+     */
+    private void printEncoded(String text) {
+        flush();
+        System.out.print(text);
+    }
+}
@@ -0,0 +1,375 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Class visitor that runs peephole rules on every method before it reaches
+ * the next visitor, usually the ClassWriter.
+ * Each method is buffered in a MethodNode, the registered rules are applied
+ * at every instruction until none of them fires anymore, and the rewritten
+ * method is passed on. Since the rules run before the ClassWriter computes
+ * frames and maximums, they do not need to maintain either.
+ *
+ * The optimizer counts how often each rule fired, over all methods.
+ */
+public class PeepholeOptimizer extends ClassVisitor implements Opcodes {
+    private static final int MAX_PASSES = 16;
+
+    private List<PeepholeRule> rules = new ArrayList<>();
+    private Map<String, Integer> report = new LinkedHashMap<>();
+
+    /**
+     * Constructs a PeepholeOptimizer with the standard rules.
+     *
+     * @param next the visitor that receives the optimized class
+     */
+    public PeepholeOptimizer(ClassVisitor next) {
+        super(ASM5, next);
+        addRule(new IncrementRule());
+        addRule(new LoadStoreRule());
+        addRule(new StoreLoadRule());
+        addRule(new CompareZeroRule());
+        addRule(new JumpToJumpRule());
+        addRule(new JumpToNextRule());
+        addRule(new UnreachableRule());
+    }
+
+    /**
+     * Registers a rule. Rules are tried in the order they were added.
+     *
+     * @param rule the rule
+     */
+    public void addRule(PeepholeRule rule) {
+        rules.add(rule);
+        report.put(rule.getName(), 0);
+    }
+
+    public Map<String, Integer> getReport() {
+        return report;
+    }
+
+    /**
+     * Formats the report as one line with the count of every rule.
+     *
+     * @return the report
+     */
+    public String formatReport() {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : report.entrySet()) {
+            if (line.length() > 0)
+                line.append(", ");
+            line.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return line.toString();
+    }
+
+    /**
+     * Buffers a method, so it can be optimized once it is complete.
+     */
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+            String[] exceptions) {
+        return new MethodNode(ASM5, access, name, desc, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                optimize(instructions);
+                accept(cv);
+            }
+        };
+    }
+
+    /**
+     * Applies the rules to the instructions of a method until none fires.
+     *
+     * @param insns the instructions of the method
+     */
+    private void optimize(InsnList insns) {
+        boolean changed = true;
+
+        for (int pass = 0; changed && pass < MAX_PASSES; pass++) {
+            changed = false;
+            AbstractInsnNode insn = insns.getFirst();
+
+            while (insn != null) {
+                AbstractInsnNode previous = insn.getPrevious();
+                PeepholeRule fired = null;
+                for (PeepholeRule rule : rules) {
+                    if (rule.apply(insns, insn)) {
+                        fired = rule;
+                        break;
+                    }
+                }
+
+                if (fired == null) {
+                    insn = insn.getNext();
+                } else {
+                    // Retry at the same position, since the rewrite may enable another rule
+                    report.put(fired.getName(), report.get(fired.getName()) + 1);
+                    changed = true;
+                    insn = previous != null ? previous.getNext() : insns.getFirst();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the integer pushed by a constant instruction.
+     *
+     * @param insn the instruction
+     * @return the constant, or null if the instruction does not push an int
+     */
+    private static Integer intConstant(AbstractInsnNode insn) {
+        if (insn == null)
+            return null;
+
+        int opcode = insn.getOpcode();
+        if (opcode >= ICONST_M1 && opcode <= ICONST_5)
+            return opcode - ICONST_0;
+        if (opcode == BIPUSH || opcode == SIPUSH)
+            return ((IntInsnNode) insn).operand;
+        if (opcode == LDC && ((LdcInsnNode) insn).cst instanceof Integer)
+            return (Integer) ((LdcInsnNode) insn).cst;
+
+        return null;
+    }
+
+    /**
+     * Returns the first instruction at or after a node that is not a label.
+     *
+     * @param insn the node
+     * @return the instruction, or null if the method ends first
+     */
+    private static AbstractInsnNode skipLabels(AbstractInsnNode insn) {
+        while (insn instanceof LabelNode)
+            insn = insn.getNext();
+        return insn;
+    }
+
+    private static boolean isVar(AbstractInsnNode insn, int opcode, int var) {
+        return insn != null && insn.getOpcode() == opcode && ((VarInsnNode) insn).var == var;
+    }
+
+    /**
+     * Replaces i = i + c and i = i - c with IINC.
+     */
+    private static class IncrementRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "iinc";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            if (insn.getOpcode() != ILOAD)
+                return false;
+
+            int var = ((VarInsnNode) insn).var;
+            AbstractInsnNode push = insn.getNext();
+            AbstractInsnNode math = push != null ? push.getNext() : null;
+            AbstractInsnNode store = math != null ? math.getNext() : null;
+            Integer constant = intConstant(push);
+            if (constant == null || math == null || !isVar(store, ISTORE, var))
+                return false;
+
+            int increment;
+            if (math.getOpcode() == IADD)
+                increment = constant;
+            else if (math.getOpcode() == ISUB)
+                increment = -constant;
+            else
+                return false;
+            if (increment < Short.MIN_VALUE || increment > Short.MAX_VALUE)
+                return false;
+
+            insns.insertBefore(insn, new IincInsnNode(var, increment));
+            insns.remove(push);
+            insns.remove(math);
+            insns.remove(store);
+            insns.remove(insn);
+            return true;
+        }
+    }
+
+    /**
+     * Removes a load that is immediately stored back into the same variable.
+     */
+    private static class LoadStoreRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "load-store";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            int opcode = insn.getOpcode();
+            if (opcode < ILOAD || opcode > ALOAD)
+                return false;
+
+            AbstractInsnNode store = insn.getNext();
+            if (!isVar(store, opcode + (ISTORE - ILOAD), ((VarInsnNode) insn).var))
+                return false;
+
+            insns.remove(store);
+            insns.remove(insn);
+            return true;
+        }
+    }
+
+    /**
+     * Replaces a store followed by a load of the same variable with a
+     * duplicate of the value and the store.
+     */
+    private static class StoreLoadRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "store-load";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            int opcode = insn.getOpcode();
+            if (opcode < ISTORE || opcode > ASTORE)
+                return false;
+
+            AbstractInsnNode load = insn.getNext();
+            if (!isVar(load, opcode - (ISTORE - ILOAD), ((VarInsnNode) insn).var))
+                return false;
+
+            boolean wide = opcode == LSTORE || opcode == DSTORE;
+            insns.insertBefore(insn, new InsnNode(wide ? DUP2 : DUP));
+            insns.remove(load);
+            return true;
+        }
+    }
+
+    /**
+     * Replaces a comparison with the constant zero by a single-operand jump.
+     */
+    private static class CompareZeroRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "compare-zero";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            if (insn.getOpcode() != ICONST_0 || insn.getNext() == null)
+                return false;
+
+            AbstractInsnNode jump = insn.getNext();
+            int opcode = jump.getOpcode();
+            if (opcode < IF_ICMPEQ || opcode > IF_ICMPLE)
+                return false;
+
+            // IF_ICMPxx and IFxx are in the same order
+            insns.set(jump, new JumpInsnNode(opcode - (IF_ICMPEQ - IFEQ), ((JumpInsnNode) jump).label));
+            insns.remove(insn);
+            return true;
+        }
+    }
+
+    /**
+     * Retargets a jump to a GOTO to the destination of the GOTO.
+     */
+    private static class JumpToJumpRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "jump-to-jump";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            if (!(insn instanceof JumpInsnNode))
+                return false;
+
+            JumpInsnNode jump = (JumpInsnNode) insn;
+            LabelNode destination = jump.label;
+
+            // Follow a bounded chain, so a loop of GOTOs cannot hang the optimizer
+            for (int hops = 0; hops < MAX_PASSES; hops++) {
+                AbstractInsnNode target = skipLabels(destination);
+                if (target == null || target.getOpcode() != GOTO || target == jump)
+                    break;
+                destination = ((JumpInsnNode) target).label;
+            }
+
+            if (destination == jump.label)
+                return false;
+
+            jump.label = destination;
+            return true;
+        }
+    }
+
+    /**
+     * Removes a GOTO to the instruction that follows it.
+     */
+    private static class JumpToNextRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "jump-to-next";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            if (insn.getOpcode() != GOTO)
+                return false;
+
+            LabelNode label = ((JumpInsnNode) insn).label;
+            for (AbstractInsnNode next = insn.getNext(); next instanceof LabelNode; next = next.getNext()) {
+                if (next == label) {
+                    insns.remove(insn);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Removes instructions between an unconditional transfer of control and
+     * the next label, which can never run.
+     */
+    private static class UnreachableRule implements PeepholeRule {
+        @Override
+        public String getName() {
+            return "unreachable";
+        }
+
+        @Override
+        public boolean apply(InsnList insns, AbstractInsnNode insn) {
+            int opcode = insn.getOpcode();
+            if (opcode != GOTO && opcode != ATHROW && (opcode < IRETURN || opcode > RETURN))
+                return false;
+
+            AbstractInsnNode next = insn.getNext();
+            if (next == null || next instanceof LabelNode)
+                return false;
+
+            while (next != null && !(next instanceof LabelNode)) {
+                AbstractInsnNode following = next.getNext();
+                insns.remove(next);
+                next = following;
+            }
+            return true;
+        }
+    }
+}
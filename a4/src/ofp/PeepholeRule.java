@@ -0,0 +1,29 @@
+package ofp;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+/**
+ * A rewrite rule of the peephole optimizer.
+ * A rule looks at the instructions starting at one position of a method and
+ * replaces them if they match its pattern.
+ */
+public interface PeepholeRule {
+    /**
+     * Returns the name of the rule, used in the optimization report.
+     *
+     * @return the rule name
+     */
+    String getName();
+
+    /**
+     * Rewrites the instructions starting at the given instruction if they
+     * match the pattern of the rule. Only the given instruction and the ones
+     * after it may be changed.
+     *
+     * @param insns the instructions of the method
+     * @param insn  the first instruction of the pattern
+     * @return true if the rule fired, false otherwise
+     */
+    boolean apply(InsnList insns, AbstractInsnNode insn);
+}
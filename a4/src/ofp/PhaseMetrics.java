@@ -0,0 +1,188 @@
+package ofp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records wall time, CPU time and allocated bytes of each compiler phase for
+ * one compilation unit.
+ * CPU time and allocation are read for the current thread through the
+ * ThreadMXBean, so measurements stay correct when units are compiled in
+ * parallel. Results can be printed as a table or as JSON lines.
+ * Counters the JVM does not support, or has disabled, are recorded as
+ * UNSUPPORTED, shown as "n/a" in the table and as null in JSON, and left out
+ * of the totals.
+ */
+public class PhaseMetrics {
+    public static final long UNSUPPORTED = -1;
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean allocationBean =
+            threadBean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threadBean
+                    : null;
+
+    private String unit;
+    private List<Phase> phases = new ArrayList<>();
+    private String currentPhase;
+    private long startWall;
+    private long startCpu;
+    private long startAllocated;
+
+    /**
+     * Measurements of a single phase.
+     */
+    public static class Phase {
+        private final String name;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        Phase(String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.name = name;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    /**
+     * Constructs PhaseMetrics for a compilation unit.
+     *
+     * @param unit the name of the compilation unit
+     */
+    public PhaseMetrics(String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Starts measuring a phase on the current thread.
+     *
+     * @param phase the phase name
+     */
+    public void begin(String phase) {
+        currentPhase = phase;
+        startAllocated = allocatedBytes();
+        startCpu = cpuNanos();
+        startWall = System.nanoTime();
+    }
+
+    /**
+     * Stops measuring the phase started by the last call to begin.
+     */
+    public void end() {
+        long wall = System.nanoTime() - startWall;
+        long cpu = difference(startCpu, cpuNanos());
+        long allocated = difference(startAllocated, allocatedBytes());
+        phases.add(new Phase(currentPhase, wall, cpu, allocated));
+        currentPhase = null;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    /**
+     * Formats the measurements as a human-readable table with a total row.
+     * The totals of CPU time and allocation only add up the phases where the
+     * counter was supported.
+     *
+     * @return the table
+     */
+    public String toTable() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-16s %10s %10s %12s%n", "Phase", "Wall ms", "CPU ms", "Alloc KB"));
+
+        long wall = 0, cpu = UNSUPPORTED, allocated = UNSUPPORTED;
+        for (Phase phase : phases) {
+            appendRow(table, phase.name, phase.wallNanos, phase.cpuNanos, phase.allocatedBytes);
+            wall += phase.wallNanos;
+            cpu = add(cpu, phase.cpuNanos);
+            allocated = add(allocated, phase.allocatedBytes);
+        }
+        appendRow(table, "total", wall, cpu, allocated);
+
+        return table.toString();
+    }
+
+    private static void appendRow(StringBuilder table, String name, long wall, long cpu, long allocated) {
+        table.append(String.format("%-16s %10.3f %10s %12s%n", name, wall / 1e6,
+                cpu == UNSUPPORTED ? "n/a" : String.format("%.3f", cpu / 1e6),
+                allocated == UNSUPPORTED ? "n/a" : String.format("%.1f", allocated / 1024.0)));
+    }
+
+    /**
+     * Formats the measurements as JSON lines, one object per phase.
+     *
+     * @return the JSON lines
+     */
+    public String toJsonLines() {
+        StringBuilder json = new StringBuilder();
+        String escapedUnit = unit.replace("\\", "\\\\").replace("\"", "\\\"");
+
+        for (Phase phase : phases) {
+            json.append("{\"unit\":\"").append(escapedUnit)
+                    .append("\",\"phase\":\"").append(phase.name)
+                    .append("\",\"wallNanos\":").append(phase.wallNanos)
+                    .append(",\"cpuNanos\":").append(toJson(phase.cpuNanos))
+                    .append(",\"allocatedBytes\":").append(toJson(phase.allocatedBytes))
+                    .append("}\n");
+        }
+
+        return json.toString();
+    }
+
+    private static String toJson(long value) {
+        return value == UNSUPPORTED ? "null" : Long.toString(value);
+    }
+
+    /**
+     * Adds a measurement to a total, skipping unsupported measurements.
+     *
+     * @param total the total so far, or UNSUPPORTED if nothing was added yet
+     * @param value the measurement
+     * @return the new total
+     */
+    private static long add(long total, long value) {
+        if (value == UNSUPPORTED)
+            return total;
+        return total == UNSUPPORTED ? value : total + value;
+    }
+
+    private static long difference(long start, long end) {
+        return start == UNSUPPORTED || end == UNSUPPORTED ? UNSUPPORTED : end - start;
+    }
+
+    private static long cpuNanos() {
+        if (!threadBean.isCurrentThreadCpuTimeSupported() || !threadBean.isThreadCpuTimeEnabled())
+            return UNSUPPORTED;
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    private static long allocatedBytes() {
+        if (allocationBean == null || !allocationBean.isThreadAllocatedMemoryEnabled())
+            return UNSUPPORTED;
+        return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
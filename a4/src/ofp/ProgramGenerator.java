@@ -0,0 +1,683 @@
+package ofp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Generates random, valid and type-correct OFP programs for stress and scaling
+ * benchmarks.
+ * The same seed and settings always give the same program. Generated programs
+ * use every construct of the grammar and are safe to execute: loops count a
+ * fresh counter up to a fixed bound, array and string indices stay within the
+ * minimum length of four, divisors are non-zero literals and functions only
+ * call functions of the next layer, so the call graph has no cycles.
+ *
+ * Usage: java ofp.ProgramGenerator [--seed n] [--functions n] [--statements n]
+ * [--depth n] [--expr n] [--arrays percent] [--layers n] [-o file.ofp]
+ */
+public class ProgramGenerator {
+    private static final int MIN_LENGTH = 4;
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ!.?,=:() ";
+    private static final List<OFPType> SCALAR_TYPES = Arrays.asList(OFPType.INT, OFPType.FLOAT, OFPType.BOOLEAN,
+            OFPType.CHAR, OFPType.STRING);
+    private static final List<OFPType> ARRAY_TYPES = Arrays.asList(OFPType.INT_ARRAY, OFPType.FLOAT_ARRAY,
+            OFPType.CHAR_ARRAY);
+
+    private long seed = 1;
+    private int functions = 10;
+    private int statements = 20;
+    private int depth = 3;
+    private int exprSize = 5;
+    private int arrayPercent = 25;
+    private int layers = 4;
+    private int maxLoopDepth = 2;
+    private int loopBound = 4;
+
+    private Random random;
+    private StringBuilder out;
+    private List<Function> signatures;
+    private List<List<Var>> scopes;
+    private Function currentFunction;
+    private int varCount;
+    private int loopDepth;
+
+    /**
+     * Signature of a generated function.
+     */
+    private static class Function {
+        String name;
+        OFPType returnType;
+        List<Var> params = new ArrayList<>();
+        int layer;
+    }
+
+    /**
+     * A variable, parameter or loop counter visible at the current point.
+     * Loop counters are read-only, and inside their loop they are valid
+     * indices for every array and string of the bounded variable, or for all
+     * of them if the bound is at most the minimum length.
+     */
+    private static class Var {
+        String name;
+        OFPType type;
+        boolean param;
+        boolean counter;
+        boolean active;
+        Var bound;
+
+        Var(String name, OFPType type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        ProgramGenerator generator = new ProgramGenerator();
+        String output = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--seed":
+                        generator.setSeed(Long.parseLong(value));
+                        break;
+                    case "--functions":
+                        generator.setFunctions(Integer.parseInt(value));
+                        break;
+                    case "--statements":
+                        generator.setStatements(Integer.parseInt(value));
+                        break;
+                    case "--depth":
+                        generator.setDepth(Integer.parseInt(value));
+                        break;
+                    case "--expr":
+                        generator.setExprSize(Integer.parseInt(value));
+                        break;
+                    case "--arrays":
+                        generator.setArrayPercent(Integer.parseInt(value));
+                        break;
+                    case "--layers":
+                        generator.setLayers(Integer.parseInt(value));
+                        break;
+                    case "-o":
+                        output = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+                if (value == null)
+                    throw new IllegalArgumentException("Option " + args[i] + " requires a value.");
+                i++;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: java ofp.ProgramGenerator [--seed n] [--functions n] [--statements n]"
+                    + " [--depth n] [--expr n] [--arrays percent] [--layers n] [-o file.ofp]");
+            System.exit(2);
+        }
+
+        String program = generator.generate();
+        if (output == null)
+            System.out.print(program);
+        else
+            Files.write(Paths.get(output), program.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Generates a program with the current settings.
+     *
+     * @return the program source
+     */
+    public String generate() {
+        random = new Random(seed);
+        out = new StringBuilder();
+        signatures = new ArrayList<>();
+
+        for (int i = 0; i < functions; i++)
+            signatures.add(signature(i));
+
+        // Place main in the middle so that both earlier and later declarations are referenced
+        out.append("# Generated by ofp.ProgramGenerator, seed ").append(seed).append("\n\n");
+        int mainIndex = functions / 2;
+        for (int i = 0; i < functions; i++) {
+            if (i == mainIndex)
+                generateMain();
+            generateFunction(signatures.get(i));
+        }
+        if (mainIndex == functions)
+            generateMain();
+
+        return out.toString();
+    }
+
+    /**
+     * Creates the signature of the function with the given index.
+     *
+     * @param index the function index
+     * @return the function signature
+     */
+    private Function signature(int index) {
+        Function function = new Function();
+        function.name = name("fn", index);
+        function.layer = (int) ((long) index * layers / functions);
+        function.returnType = random.nextInt(6) == 0 ? OFPType.VOID : randomType();
+
+        int paramCount = random.nextInt(4);
+        for (int i = 0; i < paramCount; i++) {
+            Var param = new Var(name("par", i), randomType());
+            param.param = true;
+            function.params.add(param);
+        }
+
+        return function;
+    }
+
+    private void generateMain() {
+        currentFunction = new Function();
+        currentFunction.layer = -1;
+        out.append("void main() {\n");
+        generateBody(1);
+
+        // Call every function of the first layer so that all layers are reached
+        for (Function function : signatures) {
+            if (function.layer == 0)
+                statement(1, callStmtOrPrint(function));
+        }
+
+        out.append("}\n\n");
+    }
+
+    private void generateFunction(Function function) {
+        currentFunction = function;
+        out.append(function.returnType).append(' ').append(function.name).append('(');
+        for (int i = 0; i < function.params.size(); i++) {
+            Var param = function.params.get(i);
+            out.append(i > 0 ? ", " : "").append(param.type).append(' ').append(param.name);
+        }
+        out.append(") {\n");
+
+        generateBody(1);
+        if (function.returnType != OFPType.VOID)
+            statement(1, "return " + expr(function.returnType, exprSize) + ";");
+
+        out.append("}\n\n");
+    }
+
+    /**
+     * Generates the statements of a function body, including one chain of
+     * nested blocks that reaches the configured depth.
+     *
+     * @param level the indentation level of the body
+     */
+    private void generateBody(int level) {
+        scopes = new ArrayList<>();
+        scopes.add(new ArrayList<>(currentFunction.params));
+        varCount = 0;
+        loopDepth = 0;
+
+        generateStatements(level, statements, true);
+    }
+
+    /**
+     * Generates statements until the budget is spent.
+     *
+     * @param level  the current nesting level
+     * @param budget the number of statements to generate
+     * @param spine  whether this block must contain a block nested to the
+     *               maximum depth
+     */
+    private void generateStatements(int level, int budget, boolean spine) {
+        // Empty blocks are avoided, since they cannot be written as plain Python blocks
+        budget = Math.max(budget, 1);
+        int spineAt = spine && level <= depth ? random.nextInt(budget) : -1;
+
+        for (int i = 0; i < budget; i++) {
+            if (i == spineAt) {
+                int nested = Math.max(0, (budget - i - 1) / 2);
+                generateCompound(level, nested, true);
+                budget -= nested;
+            } else if (level <= depth && budget - i > 3 && random.nextInt(6) == 0) {
+                int nested = 1 + random.nextInt(Math.min(budget - i - 1, 8));
+                generateCompound(level, nested, false);
+                budget -= nested;
+            } else {
+                generateSimple(level);
+            }
+        }
+    }
+
+    /**
+     * Generates an if or while statement with a nested block.
+     *
+     * @param level  the current nesting level
+     * @param budget the number of statements in the nested block
+     * @param spine  whether the nested block continues the deep chain
+     */
+    private void generateCompound(int level, int budget, boolean spine) {
+        if (loopDepth < maxLoopDepth && random.nextInt(3) == 0) {
+            generateWhile(level, budget, spine);
+            return;
+        }
+
+        statement(level, "if (" + expr(OFPType.BOOLEAN, exprSize) + ") {");
+        block(level, budget, spine);
+        if (currentFunction.returnType != null && currentFunction.returnType != OFPType.VOID
+                && random.nextInt(4) == 0)
+            statement(level + 1, "return " + expr(currentFunction.returnType, exprSize) + ";");
+
+        int elseKind = random.nextInt(4);
+        if (elseKind == 0) {
+            statement(level, "} else {");
+            block(level, Math.max(1, budget / 2), false);
+            statement(level, "}");
+        } else if (elseKind == 1) {
+            // Braceless else-if chain
+            statement(level, "} else if (" + expr(OFPType.BOOLEAN, exprSize) + ")");
+            scopes.add(new ArrayList<>());
+            indent(level + 1);
+            out.append(simpleStatement(false)).append('\n');
+            scopes.remove(scopes.size() - 1);
+        } else {
+            statement(level, "}");
+        }
+    }
+
+    private void generateWhile(int level, int budget, boolean spine) {
+        Var counter = new Var(name("cnt", varCount++), OFPType.INT);
+        counter.counter = true;
+
+        String boundText;
+        Var bounded = random.nextBoolean() ? randomVar(this::hasLength, false) : null;
+        if (bounded != null) {
+            boundText = bounded.name + ".length";
+            counter.bound = bounded;
+        } else {
+            boundText = Integer.toString(1 + random.nextInt(Math.min(loopBound, MIN_LENGTH)));
+        }
+
+        statement(level, "int " + counter.name + " = 0;");
+        scopes.get(scopes.size() - 1).add(counter);
+        statement(level, "while (" + counter.name + " < " + boundText + ") {");
+
+        counter.active = true;
+        loopDepth++;
+        scopes.add(new ArrayList<>());
+        generateStatements(level + 1, budget, spine);
+        statement(level + 1, counter.name + " = " + counter.name + " + 1;");
+        scopes.remove(scopes.size() - 1);
+        loopDepth--;
+        counter.active = false;
+
+        statement(level, "}");
+    }
+
+    private void block(int level, int budget, boolean spine) {
+        scopes.add(new ArrayList<>());
+        generateStatements(level + 1, budget, spine);
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private void generateSimple(int level) {
+        indent(level);
+        out.append(simpleStatement(true)).append('\n');
+    }
+
+    /**
+     * Returns a statement without nested blocks.
+     *
+     * @param declare whether variable declarations are allowed
+     * @return the statement
+     */
+    private String simpleStatement(boolean declare) {
+        int kind = random.nextInt(10);
+
+        if (declare && (kind < 4 || scopes.stream().allMatch(List::isEmpty)))
+            return declaration();
+
+        if (kind < 6) {
+            Var target = randomVar(var -> !var.param && !isLoopBound(var), false);
+            if (target != null)
+                return target.name + " = " + expr(target.type, exprSize) + ";";
+        }
+
+        if (kind < 7) {
+            Var array = randomVar(var -> isArray(var.type), false);
+            if (array != null)
+                return array.name + "[" + index(array) + "] = " + expr(elementType(array.type), exprSize) + ";";
+        }
+
+        if (kind < 8 && loopDepth == 0) {
+            List<Function> callees = callees(null);
+            if (!callees.isEmpty())
+                return callStmtOrPrint(callees.get(random.nextInt(callees.size())));
+        }
+
+        return print(SCALAR_TYPES.get(random.nextInt(SCALAR_TYPES.size())));
+    }
+
+    /**
+     * Returns a variable declaration, with or without an initializer, and
+     * makes the variable visible. Declarations without an initializer are
+     * followed by an assignment so that the variable is always defined.
+     *
+     * @return the declaration
+     */
+    private String declaration() {
+        Var var = new Var(name("var", varCount++), randomType());
+        String declaration;
+        if (isArray(var.type) && var.type != OFPType.CHAR_ARRAY && random.nextBoolean()) {
+            // Array creation is only accepted as an initializer, and new char arrays would
+            // hold numbers instead of characters in the generated Python code
+            declaration = var.type + " " + var.name + " = new " + elementType(var.type) + "["
+                    + (MIN_LENGTH + random.nextInt(5)) + "];";
+        } else if (random.nextInt(5) == 0) {
+            declaration = var.type + " " + var.name + "; " + var.name + " = " + expr(var.type, exprSize) + ";";
+        } else {
+            declaration = var.type + " " + var.name + " = " + expr(var.type, exprSize) + ";";
+        }
+
+        scopes.get(scopes.size() - 1).add(var);
+        return declaration;
+    }
+
+    /**
+     * Returns a call statement for void functions and a print of the result
+     * otherwise.
+     *
+     * @param function the called function
+     * @return the statement
+     */
+    private String callStmtOrPrint(Function function) {
+        if (function.returnType == OFPType.VOID)
+            return call(function) + ";";
+        if (isArray(function.returnType))
+            return "println(" + call(function) + ".length);";
+        return "println(" + call(function) + ");";
+    }
+
+    private String print(OFPType type) {
+        String function = random.nextBoolean() ? "print" : "println";
+        return function + "(" + expr(type, exprSize) + ");";
+    }
+
+    /**
+     * Returns a random expression of the given type.
+     *
+     * @param type the expression type
+     * @param size the maximum number of operands
+     * @return the expression
+     */
+    private String expr(OFPType type, int size) {
+        if (size <= 1 || random.nextInt(4) == 0)
+            return leaf(type);
+
+        if (type == OFPType.INT || type == OFPType.FLOAT) {
+            int kind = random.nextInt(8);
+            if (kind < 3) {
+                int left = 1 + random.nextInt(size - 1);
+                return expr(type, left) + (random.nextBoolean() ? " + " : " - ") + expr(type, size - left);
+            } else if (kind == 3) {
+                return expr(type, size - 1) + " * " + smallLiteral(type);
+            } else if (kind == 4 && type == OFPType.FLOAT) {
+                return expr(type, size - 1) + " / " + smallLiteral(type);
+            } else if (kind == 4) {
+                Var var = randomVar(this::hasLength, true);
+                if (var != null)
+                    return var.name + ".length";
+            } else if (kind == 5) {
+                return "-" + leaf(type);
+            } else if (kind == 6) {
+                return "(" + expr(type, size - 1) + ")";
+            }
+            return callOrLeaf(type);
+        }
+
+        if (type == OFPType.BOOLEAN) {
+            if (random.nextInt(5) == 0)
+                return callOrLeaf(type);
+            OFPType operand = Arrays.asList(OFPType.INT, OFPType.FLOAT, OFPType.CHAR).get(random.nextInt(3));
+            int left = Math.max(1, size / 2);
+            String[] operators = { " < ", " > ", " == " };
+            return expr(operand, left) + operators[random.nextInt(3)] + expr(operand, Math.max(1, size - left));
+        }
+
+        if (type == OFPType.CHAR && random.nextInt(4) == 0)
+            return "(" + expr(type, size - 1) + ")";
+
+        if (isArray(type) && random.nextInt(3) == 0) {
+            StringBuilder literal = new StringBuilder("{");
+            int length = MIN_LENGTH + random.nextInt(3);
+            for (int i = 0; i < length; i++)
+                literal.append(i > 0 ? ", " : "").append(expr(elementType(type), Math.max(1, size / length)));
+            return literal.append('}').toString();
+        }
+
+        return callOrLeaf(type);
+    }
+
+    private String callOrLeaf(OFPType type) {
+        if (loopDepth == 0) {
+            List<Function> callees = callees(type);
+            if (!callees.isEmpty() && random.nextBoolean())
+                return call(callees.get(random.nextInt(callees.size())));
+        }
+        return leaf(type);
+    }
+
+    /**
+     * Returns a literal, a variable or an element access of the given type.
+     *
+     * @param type the expression type
+     * @return the expression
+     */
+    private String leaf(OFPType type) {
+        if (random.nextInt(3) > 0) {
+            Var var = randomVar(v -> v.type == type, true);
+            if (var != null)
+                return var.name;
+
+            if (type == OFPType.INT || type == OFPType.FLOAT || type == OFPType.CHAR) {
+                Var array = randomVar(v -> elementType(v.type) == type || type == OFPType.CHAR
+                        && v.type == OFPType.STRING, true);
+                if (array != null)
+                    return array.name + "[" + index(array) + "]";
+            }
+        }
+
+        if (type == OFPType.INT)
+            return Integer.toString(random.nextInt(10));
+        if (type == OFPType.FLOAT)
+            return random.nextInt(10) + "." + random.nextInt(100);
+        if (type == OFPType.BOOLEAN)
+            return random.nextBoolean() ? "true" : "false";
+        if (type == OFPType.CHAR)
+            return "'" + LETTERS.charAt(random.nextInt(LETTERS.length())) + "'";
+        if (type == OFPType.STRING)
+            return stringLiteral();
+
+        StringBuilder literal = new StringBuilder("{");
+        for (int i = 0; i < MIN_LENGTH; i++)
+            literal.append(i > 0 ? ", " : "").append(leaf(elementType(type)));
+        return literal.append('}').toString();
+    }
+
+    /**
+     * Returns an index that is valid for the given array or string: a literal
+     * below the minimum length, or an active loop counter bounded by the array
+     * itself or by a small literal.
+     *
+     * Both kinds are plain tokens, so they can also be used where the index
+     * text is copied verbatim.
+     *
+     * @param array the indexed variable
+     * @return the index expression
+     */
+    private String index(Var array) {
+        Var counter = randomVar(v -> v.counter && v.active && (v.bound == null || v.bound == array), true);
+        if (counter != null && random.nextBoolean())
+            return counter.name;
+        return Integer.toString(random.nextInt(MIN_LENGTH));
+    }
+
+    private String call(Function function) {
+        StringBuilder call = new StringBuilder(function.name).append('(');
+        for (int i = 0; i < function.params.size(); i++)
+            call.append(i > 0 ? ", " : "").append(expr(function.params.get(i).type, 2));
+        return call.append(')').toString();
+    }
+
+    /**
+     * Returns the functions of the next layer with the given return type.
+     *
+     * @param type the return type, or null for void functions
+     * @return the callable functions
+     */
+    private List<Function> callees(OFPType type) {
+        List<Function> callees = new ArrayList<>();
+        for (Function function : signatures) {
+            if (function.layer == currentFunction.layer + 1
+                    && function.returnType == (type == null ? OFPType.VOID : type))
+                callees.add(function);
+        }
+        return callees;
+    }
+
+    /**
+     * Returns a random visible variable that matches a filter.
+     *
+     * @param filter   the filter
+     * @param readOnly whether loop counters may be returned
+     * @return the variable, or null if none matches
+     */
+    private Var randomVar(Predicate<Var> filter, boolean readOnly) {
+        List<Var> matches = new ArrayList<>();
+        for (List<Var> scope : scopes) {
+            for (Var var : scope) {
+                if (filter.test(var) && (readOnly || !var.counter))
+                    matches.add(var);
+            }
+        }
+        return matches.isEmpty() ? null : matches.get(random.nextInt(matches.size()));
+    }
+
+    private OFPType randomType() {
+        if (random.nextInt(100) < arrayPercent)
+            return ARRAY_TYPES.get(random.nextInt(ARRAY_TYPES.size()));
+        return SCALAR_TYPES.get(random.nextInt(SCALAR_TYPES.size()));
+    }
+
+    /**
+     * Checks whether a variable bounds an active loop, in which case it must
+     * not be reassigned.
+     *
+     * @param var the variable
+     * @return true if the variable bounds an active loop
+     */
+    private boolean isLoopBound(Var var) {
+        return randomVarCount(v -> v.counter && v.active && v.bound == var) > 0;
+    }
+
+    private int randomVarCount(Predicate<Var> filter) {
+        int count = 0;
+        for (List<Var> scope : scopes) {
+            for (Var var : scope) {
+                if (filter.test(var))
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean hasLength(Var var) {
+        return isArray(var.type) || var.type == OFPType.STRING;
+    }
+
+    private static boolean isArray(OFPType type) {
+        return ARRAY_TYPES.contains(type);
+    }
+
+    private static OFPType elementType(OFPType type) {
+        if (type == OFPType.INT_ARRAY)
+            return OFPType.INT;
+        if (type == OFPType.FLOAT_ARRAY)
+            return OFPType.FLOAT;
+        if (type == OFPType.CHAR_ARRAY)
+            return OFPType.CHAR;
+        return null;
+    }
+
+    private String smallLiteral(OFPType type) {
+        return type == OFPType.INT ? Integer.toString(1 + random.nextInt(9)) : (1 + random.nextInt(9)) + ".0";
+    }
+
+    private String stringLiteral() {
+        StringBuilder literal = new StringBuilder("\"");
+        int length = MIN_LENGTH + random.nextInt(8);
+        for (int i = 0; i < length; i++)
+            literal.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        return literal.append('"').toString();
+    }
+
+    private void statement(int level, String text) {
+        indent(level);
+        out.append(text).append('\n');
+    }
+
+    private void indent(int level) {
+        for (int i = 0; i < level; i++)
+            out.append("    ");
+    }
+
+    /**
+     * Returns a name made of a prefix and a letter suffix, since OFP
+     * identifiers may only contain letters.
+     *
+     * @param prefix the name prefix
+     * @param index  the index encoded in the suffix
+     * @return the name
+     */
+    private static String name(String prefix, int index) {
+        StringBuilder name = new StringBuilder(prefix);
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setFunctions(int functions) {
+        this.functions = functions;
+    }
+
+    public void setStatements(int statements) {
+        this.statements = statements;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public void setExprSize(int exprSize) {
+        this.exprSize = exprSize;
+    }
+
+    public void setArrayPercent(int arrayPercent) {
+        this.arrayPercent = arrayPercent;
+    }
+
+    public void setLayers(int layers) {
+        this.layers = Math.max(1, layers);
+    }
+}
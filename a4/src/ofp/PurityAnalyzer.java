@@ -0,0 +1,170 @@
+package ofp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that finds the pure functions of a program.
+ * A function is pure if it does not print, does not write to an array and
+ * only calls pure functions, so calling it has no effect besides its result.
+ * Reading arrays is allowed, since a function can only read arrays it
+ * allocates itself or receives as an argument.
+ *
+ * The visitor records what every function does locally and which functions
+ * it calls, then removes impure functions and their callers from the call
+ * graph until no more change. Recursive functions are pure unless something
+ * in the recursion is impure.
+ */
+public class PurityAnalyzer extends OFPBaseVisitor<Object> {
+    private Scope globalScope;
+    private FunctionSymbol currentFunctionSymbol;
+    private Map<FunctionSymbol, Set<FunctionSymbol>> calls = new HashMap<>();
+    private Set<FunctionSymbol> pureFunctions = new LinkedHashSet<>();
+
+    /**
+     * Constructs a PurityAnalyzer with the given global scope.
+     *
+     * @param globalScope the global scope
+     */
+    public PurityAnalyzer(Scope globalScope) {
+        this.globalScope = globalScope;
+    }
+
+    public Set<FunctionSymbol> getPureFunctions() {
+        return pureFunctions;
+    }
+
+    /**
+     * Collects the effects of all functions, then computes which are pure.
+     *
+     * @param ctx the program context
+     * @return null
+     */
+    @Override
+    public Object visitProgram(OFPParser.ProgramContext ctx) {
+        for (OFPParser.FuncDeclContext funcDecl : ctx.funcDecl())
+            visit(funcDecl);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<FunctionSymbol, Set<FunctionSymbol>> entry : calls.entrySet()) {
+                FunctionSymbol function = entry.getKey();
+                if (pureFunctions.contains(function) && !pureFunctions.containsAll(entry.getValue())) {
+                    pureFunctions.remove(function);
+                    changed = true;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Collects the effects of a function.
+     *
+     * @param ctx the function declaration context
+     * @return null
+     */
+    @Override
+    public Object visitFuncDecl(OFPParser.FuncDeclContext ctx) {
+        Symbol symbol = globalScope.resolve(ctx.ID(0).getText());
+        if (!(symbol instanceof FunctionSymbol))
+            return null;
+
+        currentFunctionSymbol = (FunctionSymbol) symbol;
+        calls.put(currentFunctionSymbol, new HashSet<FunctionSymbol>());
+        pureFunctions.add(currentFunctionSymbol);
+        visit(ctx.funcBlock());
+        currentFunctionSymbol = null;
+
+        return null;
+    }
+
+    /**
+     * Marks the current function as impure.
+     *
+     * @param ctx the print statement context
+     * @return null
+     */
+    @Override
+    public Object visitPrintStmt(OFPParser.PrintStmtContext ctx) {
+        pureFunctions.remove(currentFunctionSymbol);
+        return visitChildren(ctx);
+    }
+
+    /**
+     * Marks the current function as impure if the assignment writes to an
+     * array.
+     *
+     * @param ctx the assignment statement context
+     * @return null
+     */
+    @Override
+    public Object visitAssignStmt(OFPParser.AssignStmtContext ctx) {
+        if (ctx.expr(1) != null)
+            pureFunctions.remove(currentFunctionSymbol);
+        return visitChildren(ctx);
+    }
+
+    /**
+     * Records a call of the current function.
+     *
+     * @param ctx the function call context
+     * @return null
+     */
+    @Override
+    public Object visitFuncCall(OFPParser.FuncCallContext ctx) {
+        Symbol callee = globalScope.resolve(ctx.ID().getText());
+        if (callee instanceof FunctionSymbol)
+            calls.get(currentFunctionSymbol).add((FunctionSymbol) callee);
+        else
+            pureFunctions.remove(currentFunctionSymbol);
+
+        return visitChildren(ctx);
+    }
+
+    /**
+     * Checks whether the results of a function can be cached. The function
+     * must be pure, return a primitive value and only take primitive
+     * parameters.
+     *
+     * @param function the function
+     * @return true if the function can be memoized
+     */
+    public boolean isMemoizable(FunctionSymbol function) {
+        if (!pureFunctions.contains(function) || getKeyBits(function.getReturnType()) == 0)
+            return false;
+
+        for (Symbol param : function.getParameters()) {
+            if (getKeyBits(param.getType()) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of bits a value of a type takes up in a memo key.
+     *
+     * @param type the type
+     * @return the number of bits, or 0 if the type is not primitive
+     */
+    static int getKeyBits(OFPType type) {
+        if (type == OFPType.INT)
+            return 32;
+        else if (type == OFPType.FLOAT)
+            return 64;
+        else if (type == OFPType.CHAR)
+            return 16;
+        else if (type == OFPType.BOOLEAN)
+            return 1;
+        return 0;
+    }
+}
@@ -3,7 +3,9 @@ package ofp;
 import java.util.List;
 import java.util.HashSet;
 import java.util.Arrays;
+import java.util.Set;
 
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
 import generated.OFPBaseVisitor;
@@ -17,7 +19,25 @@ import generated.OFPParser;
 public class PythonGenerator extends OFPBaseVisitor<String> {
     private int depth = 0;
     private ParseTreeProperty<Scope> scopes;
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed;
+    private TailCallAnalyzer tailCalls;
+    private LoopOptimizer loops;
+    private ArrayPool arrayPool;
     private Scope currentScope;
+    private FunctionSymbol currentFunctionSymbol;
+    private String accumulatorOperator;
+    private Set<String> memoized = new HashSet<>();
+    private boolean packsFloats;
+
+    /** Name of the accumulator variable, which cannot clash since OFP identifiers are letters only. */
+    private static final String ACCUMULATOR = "ofp_acc";
+
+    /** Prefix of the loop temporaries, followed by their index. */
+    private static final String TEMPORARY = "ofp_tmp";
+
+    /** Prefix of the module level tuples that hold the pooled arrays, followed by their index. */
+    private static final String POOLED_ARRAY = "ofp_array";
 
     /** Set of Python reserved identifiers to avoid naming conflicts. */
     private static HashSet<String> reservedIds = new HashSet<String>(Arrays.asList("False", "None", "True", "and", "as",
@@ -46,11 +66,86 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
             "vars", "zip"));
 
     public PythonGenerator(ParseTreeProperty<Scope> scopes) {
+        this(scopes, new ParseTreeProperty<Object>(), new ParseTreeProperty<Boolean>());
+    }
+
+    /**
+     * Constructs a PythonGenerator that emits folded constants in place of
+     * constant expressions and skips removed code.
+     *
+     * @param scopes    the mapping of parse tree nodes to scopes
+     * @param constants the values of constant expressions
+     * @param removed   the dead statements and initializers
+     */
+    public PythonGenerator(ParseTreeProperty<Scope> scopes, ParseTreeProperty<Object> constants,
+            ParseTreeProperty<Boolean> removed) {
+        this(scopes, constants, removed, new TailCallAnalyzer(constants, removed));
+    }
+
+    /**
+     * Constructs a PythonGenerator that also turns functions with tail calls
+     * into loops.
+     *
+     * @param scopes    the mapping of parse tree nodes to scopes
+     * @param constants the values of constant expressions
+     * @param removed   the dead statements and initializers
+     * @param tailCalls the tail calls of every function
+     */
+    public PythonGenerator(ParseTreeProperty<Scope> scopes, ParseTreeProperty<Object> constants,
+            ParseTreeProperty<Boolean> removed, TailCallAnalyzer tailCalls) {
         this.scopes = scopes;
+        this.constants = constants;
+        this.removed = removed;
+        this.tailCalls = tailCalls;
+        this.loops = new LoopOptimizer(scopes, constants, removed);
+        this.arrayPool = new ArrayPool(scopes, constants, removed);
+    }
+
+    public void setMemoized(Set<String> memoized) {
+        this.memoized = memoized;
+    }
+
+    public void setLoops(LoopOptimizer loops) {
+        this.loops = loops;
+    }
+
+    public void setArrayPool(ArrayPool arrayPool) {
+        this.arrayPool = arrayPool;
     }
 
     /**
-     * Generates Python code for the program.
+     * Generates Python code for a node, emitting the literal of constant
+     * expressions, the name of the loop temporary holding an expression and
+     * nothing for removed code.
+     *
+     * @param tree the node
+     * @return the generated Python code
+     */
+    @Override
+    public String visit(ParseTree tree) {
+        if (removed.get(tree) != null)
+            return "";
+
+        LoopOptimizer.Temporary temporary = loops.getReplaced().get(tree);
+        if (temporary != null)
+            return TEMPORARY + temporary.getIndex();
+
+        Object constant = constants.get(tree);
+        if (constant == null)
+            return super.visit(tree);
+
+        if (constant instanceof Boolean)
+            return (Boolean) constant ? "True" : "False";
+        else if (constant instanceof Character)
+            return "'" + constant + "'";
+        else if (constant instanceof String)
+            return "\"" + constant + "\"";
+        return constant.toString();
+    }
+
+    /**
+     * Generates Python code for the program, starting with the tuples of the
+     * pooled arrays.
      *
      * @param ctx the program context
      * @return the generated Python code
@@ -59,6 +154,21 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
     public String visitProgram(OFPParser.ProgramContext ctx) {
         StringBuilder progStmt = new StringBuilder();
 
+        List<OFPParser.ArrayInitExprContext> arrays = arrayPool.getArrays();
+        for (int i = 0; i < arrays.size(); i++) {
+            progStmt.append(POOLED_ARRAY).append(i).append(" = (");
+            for (int j = 0; j < arrays.get(i).expr().size(); j++) {
+                if (j > 0) {
+                    progStmt.append(", ");
+                }
+                progStmt.append(visit(arrays.get(i).expr(j)));
+            }
+            progStmt.append(")\n");
+        }
+        if (!arrays.isEmpty()) {
+            progStmt.append("\n");
+        }
+
         for (int i = 0; i < ctx.funcDecl().size(); i++) {
             progStmt.append(visit(ctx.funcDecl(i)));
         }
@@ -67,6 +177,10 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
             progStmt.append(visit(ctx.main()));
         }
 
+        if (packsFloats) {
+            progStmt.insert(0, "import struct\n\n");
+        }
+
         return progStmt.toString();
     }
 
@@ -80,6 +194,7 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
     public String visitMain(OFPParser.MainContext ctx) {
         int previousDepth = depth;
         depth = -1;
+        accumulatorOperator = null;
 
         String mainStmt = visit(ctx.funcBlock());
         depth = previousDepth;
@@ -101,8 +216,13 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
 
         currentScope = scopes.get(ctx);
         FunctionSymbol functionSymbol = (FunctionSymbol) currentScope.resolve(ctx.ID(0).getText());
+        currentFunctionSymbol = functionSymbol;
+        accumulatorOperator = tailCalls.getAccumulators().get(ctx);
 
-        functionDeclStmt.append(indent() + "def " + functionName + "(");
+        // The body of a memoized function is called by a wrapper that looks up the result first
+        boolean memoize = memoized.contains(ctx.ID(0).getText());
+        String defName = memoize ? "ofp_compute_" + ctx.ID(0).getText() : functionName;
+        functionDeclStmt.append(indent() + "def " + defName + "(");
 
         List<Symbol> params = functionSymbol.getParameters();
         for (int i = 0; i < params.size(); i++) {
@@ -113,11 +233,82 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
             }
         }
 
-        functionDeclStmt.append("):\n" + visit(ctx.funcBlock()) + "\n");
+        functionDeclStmt.append("):\n");
+
+        if (tailCalls.getLoops().get(ctx) == null) {
+            functionDeclStmt.append(visit(ctx.funcBlock()) + "\n");
+            if (memoize)
+                functionDeclStmt.append(memoWrapper(ctx.ID(0).getText(), functionName, params));
+            return functionDeclStmt.toString();
+        }
+
+        // Tail calls assign the parameters and continue the loop around the body
+        depth++;
+        String bodyIndent = indent() + indent();
+        if (accumulatorOperator != null)
+            functionDeclStmt.append(bodyIndent + ACCUMULATOR + " = " + (accumulatorOperator.equals("+") ? "0" : "1") + "\n");
+        functionDeclStmt.append(bodyIndent + "while True:\n" + visit(ctx.funcBlock()));
+
+        List<OFPParser.StmtContext> stmts = ctx.funcBlock().stmt();
+        if (stmts.isEmpty() || !(stmts.get(stmts.size() - 1) instanceof OFPParser.ReturnStmtContext)) {
+            depth++;
+            functionDeclStmt.append(indent() + indent() + "break\n");
+            depth--;
+        }
+        depth--;
 
+        functionDeclStmt.append("\n");
+        if (memoize)
+            functionDeclStmt.append(memoWrapper(ctx.ID(0).getText(), functionName, params));
         return functionDeclStmt.toString();
     }
 
+    /**
+     * Generates the memo table of a function and the wrapper that looks up
+     * results in it. The wrapper counts hits and misses in module variables.
+     * Floats are keyed by their bits, since Python takes 0.0 and -0.0 for the
+     * same key, as the JVM table does.
+     *
+     * @param name         the OFP name of the function
+     * @param functionName the Python name of the function
+     * @param params       the parameters of the function
+     * @return the generated Python code for the memo table and wrapper
+     */
+    private String memoWrapper(String name, String functionName, List<Symbol> params) {
+        StringBuilder wrapper = new StringBuilder();
+        String table = "ofp_memo_" + name;
+        StringBuilder args = new StringBuilder();
+        StringBuilder keys = new StringBuilder();
+        for (int i = 0; i < params.size(); i++) {
+            String arg = getSafeId(params.get(i).getName());
+            args.append(i > 0 ? ", " : "").append(arg);
+            keys.append(i > 0 ? ", " : "");
+            if (params.get(i).getType() == OFPType.FLOAT) {
+                keys.append("struct.pack('<d', ").append(arg).append(")");
+                packsFloats = true;
+            } else {
+                keys.append(arg);
+            }
+        }
+        String key = params.size() == 1 ? keys.toString() : "(" + keys + ")";
+
+        wrapper.append(table + " = {}\n");
+        wrapper.append(table + "_hits = 0\n");
+        wrapper.append(table + "_misses = 0\n\n");
+        wrapper.append("def " + functionName + "(" + args + "):\n");
+        wrapper.append("    global " + table + "_hits, " + table + "_misses\n");
+        wrapper.append("    ofp_key = " + key + "\n");
+        wrapper.append("    if ofp_key in " + table + ":\n");
+        wrapper.append("        " + table + "_hits += 1\n");
+        wrapper.append("        return " + table + "[ofp_key]\n");
+        wrapper.append("    " + table + "_misses += 1\n");
+        wrapper.append("    ofp_value = ofp_compute_" + name + "(" + args + ")\n");
+        wrapper.append("    " + table + "[ofp_key] = ofp_value\n");
+        wrapper.append("    return ofp_value\n\n");
+
+        return wrapper.toString();
+    }
+
     /**
      * Generates Python code for a function call.
      *
@@ -155,16 +346,14 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
         StringBuilder blockStmt = new StringBuilder();
 
         depth++;
-        if (ctx.stmt().isEmpty())
-            blockStmt.append(indent()).append("\tpass\n");
-        else {
-            for (int i = 0; i < ctx.getChildCount(); i++) {
-                String stmt = visit(ctx.getChild(i));
-                if (stmt != null && !stmt.isEmpty()) {
-                    blockStmt.append(indent()).append(stmt);
-                }
+        for (int i = 0; i < ctx.getChildCount(); i++) {
+            String stmt = visit(ctx.getChild(i));
+            if (stmt != null && !stmt.isEmpty()) {
+                blockStmt.append(indent()).append(stmt);
             }
         }
+        if (blockStmt.length() == 0)
+            blockStmt.append(indent()).append(indent()).append("pass\n");
         depth--;
 
         return blockStmt.toString();
@@ -181,16 +370,14 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
         StringBuilder blockStmt = new StringBuilder();
 
         depth++;
-        if (ctx.stmt().isEmpty())
-            blockStmt.append(indent()).append("\tpass\n");
-        else {
-            for (int i = 0; i < ctx.getChildCount(); i++) {
-                String stmt = visit(ctx.getChild(i));
-                if (stmt != null && !stmt.isEmpty()) {
-                    blockStmt.append(indent()).append(stmt);
-                }
+        for (int i = 0; i < ctx.getChildCount(); i++) {
+            String stmt = visit(ctx.getChild(i));
+            if (stmt != null && !stmt.isEmpty()) {
+                blockStmt.append(indent()).append(stmt);
             }
         }
+        if (blockStmt.length() == 0)
+            blockStmt.append(indent()).append(indent()).append("pass\n");
         depth--;
 
         return blockStmt.toString();
@@ -252,7 +439,20 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
 
         if (ctx.expr(1) == null) {
             String assignExpr = visit(ctx.expr(0));
-            return indent() + varName + " = " + assignExpr + "\n";
+            StringBuilder assignStmt = new StringBuilder(indent() + varName + " = " + assignExpr + "\n");
+
+            // Induction temporaries follow every update of their variable
+            List<LoopOptimizer.Temporary> updates = loops.getUpdates().get(ctx);
+            if (updates != null) {
+                for (LoopOptimizer.Temporary temporary : updates) {
+                    String name = TEMPORARY + temporary.getIndex();
+                    long step = temporary.getStep();
+                    assignStmt.append(indent() + indent() + name + " = " + name + (step < 0 ? " - " : " + ")
+                            + Math.abs(step) + "\n");
+                }
+            }
+
+            return assignStmt.toString();
         } else {
             String assignIndex = ctx.expr(0).getText();
             String assignExpr = visit(ctx.expr(1));
@@ -269,7 +469,7 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
     @Override
     public String visitVarDeclStmt(OFPParser.VarDeclStmtContext ctx) {
         String varName = getSafeId(ctx.ID().getText());
-        String expr = ctx.expr() != null ? visit(ctx.expr()) : "None";
+        String expr = ctx.expr() != null && removed.get(ctx.expr()) == null ? visit(ctx.expr()) : "None";
 
         return indent() + varName + " = " + expr + "\n";
     }
@@ -289,9 +489,9 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
                 .append(visit(ctx.expr()))
                 .append(":\n");
 
-        ifStmt.append(visit(ctx.block(0)));
+        ifStmt.append(visitBranch(ctx.block(0)));
 
-        if (ctx.block(1) != null) {
+        if (ctx.block(1) != null && removed.get(ctx.block(1)) == null) {
             if (ctx.block(1).getChild(0) instanceof OFPParser.IfStmtContext) {
                 OFPParser.IfStmtContext elif = (OFPParser.IfStmtContext) ctx.block(1).stmt(0);
 
@@ -301,9 +501,9 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
 
                 ifStmt.append(visit(elif.expr()))
                         .append(":\n")
-                        .append(visit(elif.block(0)));
+                        .append(visitBranch(elif.block(0)));
 
-                if (elif.block(1) != null) {
+                if (elif.block(1) != null && removed.get(elif.block(1)) == null) {
                     depth *= 2;
                     ifStmt.append(indent()).append("else:\n");
                     depth /= 2;
@@ -322,6 +522,24 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
         return ifStmt.toString();
     }
 
+    /**
+     * Generates Python code for a branch of an if statement. A removed branch
+     * is emitted as an empty block.
+     *
+     * @param block the branch
+     * @return the generated Python code for the branch
+     */
+    private String visitBranch(OFPParser.BlockContext block) {
+        if (removed.get(block) == null)
+            return visit(block);
+
+        depth++;
+        String emptyBlock = indent() + indent() + "pass\n";
+        depth--;
+
+        return emptyBlock;
+    }
+
     /**
      * Generates Python code for a while statement.
      *
@@ -331,8 +549,20 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
     @Override
     public String visitWhileStmt(OFPParser.WhileStmtContext ctx) {
         StringBuilder whileStmt = new StringBuilder();
+        // Only the first line is indented by the enclosing block
+        String lineIndent = indent();
+
+        // The temporaries of the loop are computed once before it starts
+        List<LoopOptimizer.Temporary> preheader = loops.getPreheaders().get(ctx);
+        if (preheader != null) {
+            for (LoopOptimizer.Temporary temporary : preheader) {
+                whileStmt.append(lineIndent + TEMPORARY + temporary.getIndex() + " = "
+                        + super.visit(temporary.getValue()) + "\n");
+                lineIndent = indent() + indent();
+            }
+        }
 
-        whileStmt.append(indent())
+        whileStmt.append(lineIndent)
                 .append("while ")
                 .append(visit(ctx.expr()))
                 .append(":\n");
@@ -352,21 +582,71 @@ public class PythonGenerator extends OFPBaseVisitor<String> {
     public String visitReturnStmt(OFPParser.ReturnStmtContext ctx) {
         StringBuilder returnStmt = new StringBuilder();
 
+        OFPParser.FuncCallContext tailCall = tailCalls.getTailCalls().get(ctx);
+        if (tailCall != null)
+            return visitTailCall(tailCall, tailCalls.getAccumulated().get(ctx));
+
         returnStmt.append(indent()).append("return ");
-        returnStmt.append(visit(ctx.expr()));
+        if (accumulatorOperator != null)
+            returnStmt.append(ACCUMULATOR + " " + accumulatorOperator + " (" + visit(ctx.expr()) + ")");
+        else
+            returnStmt.append(visit(ctx.expr()));
         returnStmt.append("\n");
 
         return returnStmt.toString();
     }
 
     /**
-     * Generates Python code for array initialization expressions.
+     * Generates Python code for a self tail call, which assigns all parameters
+     * at once and starts the next iteration of the function loop.
+     *
+     * @param tailCall the call
+     * @param operand  the value to add to the accumulator, or null
+     * @return the generated Python code for the tail call
+     */
+    private String visitTailCall(OFPParser.FuncCallContext tailCall, OFPParser.ExprContext operand) {
+        StringBuilder tailCallStmt = new StringBuilder();
+        // Only the first line is indented by the enclosing block
+        String lineIndent = indent();
+
+        if (operand != null) {
+            tailCallStmt.append(lineIndent).append(ACCUMULATOR + " = " + ACCUMULATOR + " " + accumulatorOperator
+                    + " (" + visit(operand) + ")\n");
+            lineIndent = indent() + indent();
+        }
+
+        List<Symbol> params = currentFunctionSymbol.getParameters();
+        if (!params.isEmpty()) {
+            tailCallStmt.append(lineIndent);
+            for (int i = 0; i < params.size(); i++) {
+                tailCallStmt.append(i > 0 ? ", " : "").append(getSafeId(params.get(i).getName()));
+            }
+            tailCallStmt.append(" = ");
+            for (int i = 0; i < params.size(); i++) {
+                tailCallStmt.append(i > 0 ? ", " : "").append(visit(tailCall.expr(i)));
+            }
+            tailCallStmt.append("\n");
+            lineIndent = indent() + indent();
+        }
+
+        return tailCallStmt.append(lineIndent).append("continue\n").toString();
+    }
+
+    /**
+     * Generates Python code for array initialization expressions. Pooled
+     * literals use the tuple of their array, copied into a list if the array
+     * may be changed.
      *
      * @param ctx the array initialization expression context
      * @return the generated Python code for the array initialization
      */
     @Override
     public String visitArrayInitExpr(OFPParser.ArrayInitExprContext ctx) {
+        Integer index = arrayPool.getIndex(ctx);
+        if (index != null) {
+            return arrayPool.isCopied(ctx) ? "list(" + POOLED_ARRAY + index + ")" : POOLED_ARRAY + index;
+        }
+
         StringBuilder arrayInit = new StringBuilder();
 
         if ("new".equals(ctx.getChild(0).getText())) {
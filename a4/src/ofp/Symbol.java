@@ -2,16 +2,18 @@ package ofp;
 
 /**
  * Represents a symbol in the OFP language, such as a variable and parameter.
- * Stores the symbol's name, type, and pointer (e.g., memory location).
+ * Stores the symbol's name, type, and pointer (e.g., memory location). A
+ * parameter also stores its position in the parameter list.
  */
 public class Symbol {
     private String name;
     private OFPType type;
     private int pointer;
+    private int parameterIndex;
 
     /**
      * Constructs a Symbol with the given name and type.
-     * The pointer is initialized to -1.
+     * The pointer and parameter index are initialized to -1.
      *
      * @param name the name of the symbol
      * @param type the type of the symbol
@@ -20,6 +22,7 @@ public class Symbol {
         this.name = name;
         this.type = type;
         this.pointer = -1;
+        this.parameterIndex = -1;
     }
 
     public void setPointer(int pointer) {
@@ -30,6 +33,14 @@ public class Symbol {
         return pointer;
     }
 
+    public void setParameterIndex(int parameterIndex) {
+        this.parameterIndex = parameterIndex;
+    }
+
+    public int getParameterIndex() {
+        return parameterIndex;
+    }
+
     public String getName() {
         return name;
     }
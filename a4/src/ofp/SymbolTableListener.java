@@ -15,6 +15,7 @@ public class SymbolTableListener extends OFPBaseListener {
     private Scope globalScope;
     private FunctionSymbol currentFunctionSymbol = null;
     private ParseTreeProperty<Scope> scopes = new ParseTreeProperty<Scope>();
+    private int errorCount = 0;
 
     /**
      * Initializes the global scope at the start of the program.
@@ -37,7 +38,7 @@ public class SymbolTableListener extends OFPBaseListener {
     public void enterMain(OFPParser.MainContext ctx) {
         Symbol mainSymbol = globalScope.resolve("main");
         if (mainSymbol != null && mainSymbol instanceof FunctionSymbol) {
-            System.err.println("Error: 'main' function is already defined.");
+            error("Error: 'main' function is already defined.");
             return;
         }
         currentFunctionSymbol = new FunctionSymbol("main", OFPType.VOID);
@@ -72,14 +73,14 @@ public class SymbolTableListener extends OFPBaseListener {
         OFPType returnType = OFPType.getTypeFor(returnTypeStr);
 
         if (!(ctx.getChild(ctx.getChildCount() - 1) instanceof OFPParser.FuncBlockContext)) {
-            System.err.println("Error: Invalid function declaration for '" + functionName
+            error("Error: Invalid function declaration for '" + functionName
                     + "'. Expected a function body enclosed in '{ }'.");
             return;
         }
 
         Symbol existingSymbol = currentScope.resolve(functionName);
         if (existingSymbol instanceof FunctionSymbol) {
-            System.err.println("Error: Function '" + functionName + "' is already declared within this scope.");
+            error("Error: Function '" + functionName + "' is already declared within this scope.");
             return;
         }
 
@@ -134,7 +135,7 @@ public class SymbolTableListener extends OFPBaseListener {
 
         Symbol existingSymbol = currentScope.paramLocalResolve(varName);
         if (existingSymbol != null && !(existingSymbol instanceof FunctionSymbol)) {
-            System.err.println("Error: Variable '" + varName + "' is already declared within this scope.");
+            error("Error: Variable '" + varName + "' is already declared within this scope.");
             return;
         }
 
@@ -231,7 +232,7 @@ public class SymbolTableListener extends OFPBaseListener {
 
         Symbol existingParam = currentScope.localResolve(paramName);
         if (existingParam != null && !(existingSymbol instanceof FunctionSymbol)) {
-            System.err.println("Error: Parameter '" + paramName + "' is already declared in function '"
+            error("Error: Parameter '" + paramName + "' is already declared in function '"
                     + functionName + "'.");
             return;
         }
@@ -240,6 +241,20 @@ public class SymbolTableListener extends OFPBaseListener {
         currentFunctionSymbol.addParameter(paramSymbol);
     }
 
+    /**
+     * Reports a symbol table error and counts it.
+     *
+     * @param message the error message
+     */
+    private void error(String message) {
+        System.err.println(message);
+        errorCount++;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
     public ParseTreeProperty<Scope> getScope() {
         return scopes;
     }
@@ -252,6 +267,15 @@ public class SymbolTableListener extends OFPBaseListener {
      * Prints the symbol table, including all scopes and symbols.
      */
     public void printSymbolTable() {
+        printSymbolTable(globalScope);
+    }
+
+    /**
+     * Prints the symbol table below the given global scope.
+     *
+     * @param globalScope the global scope
+     */
+    public static void printSymbolTable(Scope globalScope) {
         System.out.println("\n===== Symbol Table =====");
         printScope(globalScope, 0);
     }
@@ -262,7 +286,7 @@ public class SymbolTableListener extends OFPBaseListener {
      * @param scope       the scope to print
      * @param indentLevel the indentation level for printing
      */
-    private void printScope(Scope scope, int indentLevel) {
+    private static void printScope(Scope scope, int indentLevel) {
         String indent = "    ".repeat(indentLevel);
         System.out.println(indent + "Scope: " + scope);
 
@@ -0,0 +1,174 @@
+package ofp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+import generated.OFPBaseVisitor;
+import generated.OFPParser;
+
+/**
+ * Visitor that finds self-recursive calls the backends can compile as jumps.
+ * Runs after dead code elimination and records, for every return statement
+ * that ends in a call of its own function, the call whose arguments replace
+ * the parameters before the function starts over.
+ *
+ * Besides plain tail calls such as return f(n - 1), an int function may
+ * return e + f(..) or e * f(..). Since int addition and multiplication wrap
+ * and are associative, such a function keeps a running sum or product in an
+ * accumulator and applies it to the value of every other return. The call
+ * may also be the left operand if the other operand is free of side effects,
+ * so evaluating it before the call is unobservable. All accumulating returns
+ * of a function must use the same operator.
+ *
+ * Returns inside while loops are never rewritten, so a loop in the generated
+ * code always belongs to the function itself.
+ */
+public class TailCallAnalyzer extends OFPBaseVisitor<Object> {
+    private ParseTreeProperty<Object> constants;
+    private ParseTreeProperty<Boolean> removed;
+    private ParseTreeProperty<OFPParser.FuncCallContext> tailCalls = new ParseTreeProperty<>();
+    private ParseTreeProperty<OFPParser.ExprContext> accumulated = new ParseTreeProperty<>();
+    private ParseTreeProperty<String> accumulators = new ParseTreeProperty<>();
+    private ParseTreeProperty<Boolean> loops = new ParseTreeProperty<>();
+
+    /**
+     * Constructs a TailCallAnalyzer with the folded constants and removed
+     * code.
+     *
+     * @param constants the values of constant expressions
+     * @param removed   the dead statements and initializers
+     */
+    public TailCallAnalyzer(ParseTreeProperty<Object> constants, ParseTreeProperty<Boolean> removed) {
+        this.constants = constants;
+        this.removed = removed;
+    }
+
+    public ParseTreeProperty<OFPParser.FuncCallContext> getTailCalls() {
+        return tailCalls;
+    }
+
+    public ParseTreeProperty<OFPParser.ExprContext> getAccumulated() {
+        return accumulated;
+    }
+
+    public ParseTreeProperty<String> getAccumulators() {
+        return accumulators;
+    }
+
+    public ParseTreeProperty<Boolean> getLoops() {
+        return loops;
+    }
+
+    /**
+     * Finds the tail calls of a function. Marks the function as a loop if it
+     * has any, and records its accumulator operator if they accumulate.
+     *
+     * @param ctx the function declaration context
+     * @return null
+     */
+    @Override
+    public Object visitFuncDecl(OFPParser.FuncDeclContext ctx) {
+        String name = ctx.ID(0).getText();
+        boolean returnsInt = ctx.getChild(0).getText().equals("int");
+        List<OFPParser.ReturnStmtContext> returns = new ArrayList<>();
+        collectReturns(ctx.funcBlock(), returns);
+
+        List<OFPParser.ReturnStmtContext> accumulating = new ArrayList<>();
+        String operator = null;
+        boolean mixed = false;
+
+        for (OFPParser.ReturnStmtContext returnStmt : returns) {
+            OFPParser.ExprContext expr = unwrap(returnStmt.expr());
+            OFPParser.FuncCallContext call = selfCall(expr, name);
+
+            if (call != null) {
+                tailCalls.put(returnStmt, call);
+                continue;
+            }
+
+            String exprOperator = null;
+            if (expr instanceof OFPParser.AddiExprContext || expr instanceof OFPParser.MultExprContext)
+                exprOperator = expr.getChild(1).getText();
+            if (!returnsInt || constants.get(expr) != null
+                    || !(exprOperator != null && (exprOperator.equals("+") || exprOperator.equals("*"))))
+                continue;
+
+            OFPParser.ExprContext left = expr.getChild(OFPParser.ExprContext.class, 0);
+            OFPParser.ExprContext right = expr.getChild(OFPParser.ExprContext.class, 1);
+            if ((call = selfCall(unwrap(right), name)) != null) {
+                accumulated.put(returnStmt, left);
+            } else if ((call = selfCall(unwrap(left), name)) != null
+                    && DeadCodeEliminator.isPure(right, constants)) {
+                accumulated.put(returnStmt, right);
+            } else {
+                continue;
+            }
+
+            tailCalls.put(returnStmt, call);
+            accumulating.add(returnStmt);
+            if (operator != null && !operator.equals(exprOperator))
+                mixed = true;
+            operator = exprOperator;
+        }
+
+        // Returns that accumulate with different operators stay recursive calls
+        if (mixed) {
+            for (OFPParser.ReturnStmtContext returnStmt : accumulating) {
+                tailCalls.removeFrom(returnStmt);
+                accumulated.removeFrom(returnStmt);
+            }
+        } else if (operator != null) {
+            accumulators.put(ctx, operator);
+        }
+
+        for (OFPParser.ReturnStmtContext returnStmt : returns) {
+            if (tailCalls.get(returnStmt) != null)
+                loops.put(ctx, true);
+        }
+
+        return null;
+    }
+
+    /**
+     * Collects the reachable return statements outside of while loops.
+     *
+     * @param node    the node to search
+     * @param returns the list to add the return statements to
+     */
+    private void collectReturns(ParseTree node, List<OFPParser.ReturnStmtContext> returns) {
+        if (removed.get(node) != null || node instanceof OFPParser.WhileStmtContext)
+            return;
+
+        if (node instanceof OFPParser.ReturnStmtContext) {
+            returns.add((OFPParser.ReturnStmtContext) node);
+            return;
+        }
+
+        for (int i = 0; i < node.getChildCount(); i++)
+            collectReturns(node.getChild(i), returns);
+    }
+
+    /**
+     * Returns the call of a function if an expression is nothing else.
+     *
+     * @param expr the expression
+     * @param name the name of the function
+     * @return the call, or null if the expression is not a call of the function
+     */
+    private OFPParser.FuncCallContext selfCall(OFPParser.ExprContext expr, String name) {
+        if (!(expr instanceof OFPParser.FuncCallExprContext) || constants.get(expr) != null)
+            return null;
+
+        OFPParser.FuncCallContext call = ((OFPParser.FuncCallExprContext) expr).funcCall();
+        return call.ID().getText().equals(name) ? call : null;
+    }
+
+    private static OFPParser.ExprContext unwrap(OFPParser.ExprContext expr) {
+        while (expr instanceof OFPParser.ParenExprContext)
+            expr = ((OFPParser.ParenExprContext) expr).expr();
+        return expr;
+    }
+}
@@ -0,0 +1,346 @@
+package ofp;
+
+import java.math.BigInteger;
+
+/**
+ * Formats ints and floats as ASCII text directly into a byte buffer, without
+ * allocating. The text is the same as that of Integer.toString and
+ * Double.toString.
+ *
+ * Floats are rendered with the Schubfach algorithm of Raffaello Giulietti,
+ * which finds the shortest decimal that rounds to the float with a 128 bit
+ * approximation of a power of ten. The approximations are computed with
+ * BigInteger the first time a power is needed and kept for all formatters,
+ * so a float only allocates the first time a value of its magnitude is
+ * printed.
+ *
+ * Before Java 19, Double.toString does not always pick the shortest decimal.
+ * It prints some integers from 2^53 on with more digits, and misses a few
+ * shortest decimals of larger floats, like 1.0E23, and of subnormals, like
+ * 1.0E-323, which it prints as 9.9E-324. Floats from 2^53 on and subnormals
+ * are therefore formatted by Double.toString itself, which allocates. For the
+ * normal floats in between both give the same text.
+ *
+ * A formatter keeps the decimal it computed in fields, so every thread needs
+ * its own.
+ */
+public class TextFormatter {
+    /** Maximum number of bytes of a formatted int. */
+    public static final int MAX_INT_LENGTH = 11;
+    /** Maximum number of bytes of a formatted float. */
+    public static final int MAX_DOUBLE_LENGTH = 24;
+
+    private static final int P = 53;
+    private static final int Q_MIN = -1074;
+    private static final int Q_MAX = 971;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final int K_MIN = flog10pow2(Q_MIN);
+    private static final int K_MAX = flog10pow2(Q_MAX) + 1;
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final int MAX_DIGITS = 17;
+    private static final int BQ_TRUSTED = 1023 + P;
+
+    private static final byte[] MIN_INT = "-2147483648".getBytes();
+    private static final byte[] NAN = "NaN".getBytes();
+    private static final byte[] INFINITY = "Infinity".getBytes();
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 2];
+    private static final Power[] POWERS = new Power[K_MAX - K_MIN + 1];
+
+    private long digits;
+    private int exponent;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    /**
+     * The 126 bit approximation g of 10^-k, split into its upper and lower 63
+     * bits. With 10^-k = b * 2^r and 2^125 <= b < 2^126, g = floor(b) + 1.
+     */
+    private static class Power {
+        final long g1;
+        final long g0;
+
+        Power(int k) {
+            int r = flog2pow10(-k) - 125;
+            BigInteger numerator = BigInteger.ONE;
+            BigInteger denominator = BigInteger.ONE;
+            if (k < 0)
+                numerator = BigInteger.TEN.pow(-k);
+            else
+                denominator = BigInteger.TEN.pow(k);
+            if (r < 0)
+                numerator = numerator.shiftLeft(-r);
+            else
+                denominator = denominator.shiftLeft(r);
+
+            BigInteger g = numerator.divide(denominator).add(BigInteger.ONE);
+            g1 = g.shiftRight(63).longValue();
+            g0 = g.longValue() & MASK_63;
+        }
+    }
+
+    /**
+     * Writes an int in decimal.
+     *
+     * @param value  the value
+     * @param buffer the buffer, with room for MAX_INT_LENGTH bytes at offset
+     * @param offset the position to write at
+     * @return the position after the text
+     */
+    public int formatInt(int value, byte[] buffer, int offset) {
+        if (value == Integer.MIN_VALUE) {
+            System.arraycopy(MIN_INT, 0, buffer, offset, MIN_INT.length);
+            return offset + MIN_INT.length;
+        }
+
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        int length = digitCount(value);
+        writeDigits(value, length, buffer, offset);
+        return offset + length;
+    }
+
+    /**
+     * Writes a float as Double.toString does: in plain notation with at least
+     * one fraction digit from 10^-3 up to 10^7, and in computerized scientific
+     * notation otherwise.
+     *
+     * @param value  the value
+     * @param buffer the buffer, with room for MAX_DOUBLE_LENGTH bytes at
+     *               offset
+     * @param offset the position to write at
+     * @return the position after the text
+     */
+    public int formatDouble(double value, byte[] buffer, int offset) {
+        long bits = Double.doubleToRawLongBits(value);
+        long t = bits & (C_MIN - 1);
+        int bq = (int) (bits >>> (P - 1)) & 0x7ff;
+
+        if (bq == 0x7ff) {
+            if (t != 0)
+                return write(NAN, buffer, offset);
+            if (bits < 0)
+                buffer[offset++] = '-';
+            return write(INFINITY, buffer, offset);
+        }
+
+        if (bq >= BQ_TRUSTED || bq == 0 && t != 0) {
+            String text = Double.toString(value);
+            for (int i = 0; i < text.length(); i++)
+                buffer[offset++] = (byte) text.charAt(i);
+            return offset;
+        }
+
+        if (bits < 0)
+            buffer[offset++] = '-';
+        if (bq == 0) {
+            buffer[offset++] = '0';
+            buffer[offset++] = '.';
+            buffer[offset++] = '0';
+            return offset;
+        }
+
+        int mq = -Q_MIN + 1 - bq;
+        long c = C_MIN | t;
+        if (0 < mq && mq < P && (c >> mq) << mq == c) {
+            // An integer below 2^53 is its own shortest decimal
+            digits = c >> mq;
+            exponent = 0;
+        } else {
+            toDecimal(-mq, c);
+        }
+        return writeDecimal(buffer, offset);
+    }
+
+    /**
+     * Finds the shortest decimal in the rounding interval of c * 2^q, and the
+     * one closest to it if there are several. The decimal is left in digits
+     * and exponent.
+     *
+     * @param q the binary exponent
+     * @param c the significand
+     */
+    private void toDecimal(int q, long c) {
+        int out = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        // The interval is asymmetric at the powers of two
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10ThreeQuartersPow2(q);
+        }
+
+        int h = q + flog2pow10(-k) + 2;
+        Power power = getPower(k);
+        long vb = roundToOdd(power, cb << h);
+        long vbl = roundToOdd(power, cbl << h);
+        long vbr = roundToOdd(power, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // Try one digit less first: s' * 10 or t' * 10
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                setDecimal(upin ? sp10 : tp10, k);
+                return;
+            }
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            setDecimal(uin ? s : t, k);
+            return;
+        }
+
+        long cmp = vb - (s + t << 1);
+        setDecimal(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k);
+    }
+
+    private void setDecimal(long digits, int exponent) {
+        this.digits = digits;
+        this.exponent = exponent;
+    }
+
+    /**
+     * Writes digits * 10^exponent in the notation of Double.toString.
+     *
+     * @param buffer the buffer
+     * @param offset the position to write at
+     * @return the position after the text
+     */
+    private int writeDecimal(byte[] buffer, int offset) {
+        long f = digits;
+        int e = exponent;
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+
+        int length = digitCount(f);
+        // The value is 0.d1d2...dn * 10^point
+        int point = e + length;
+        if (point > 0 && point <= 7) {
+            if (length <= point) {
+                writeDigits(f, length, buffer, offset);
+                offset += length;
+                for (int i = length; i < point; i++)
+                    buffer[offset++] = '0';
+                buffer[offset++] = '.';
+                buffer[offset++] = '0';
+            } else {
+                writeDigits(f / POWERS_OF_TEN[length - point], point, buffer, offset);
+                offset += point;
+                buffer[offset++] = '.';
+                writeDigits(f % POWERS_OF_TEN[length - point], length - point, buffer, offset);
+                offset += length - point;
+            }
+        } else if (point <= 0 && point > -3) {
+            buffer[offset++] = '0';
+            buffer[offset++] = '.';
+            for (int i = point; i < 0; i++)
+                buffer[offset++] = '0';
+            writeDigits(f, length, buffer, offset);
+            offset += length;
+        } else {
+            writeDigits(f / POWERS_OF_TEN[length - 1], 1, buffer, offset++);
+            buffer[offset++] = '.';
+            if (length == 1) {
+                buffer[offset++] = '0';
+            } else {
+                writeDigits(f % POWERS_OF_TEN[length - 1], length - 1, buffer, offset);
+                offset += length - 1;
+            }
+            buffer[offset++] = 'E';
+            int scientific = point - 1;
+            if (scientific < 0) {
+                buffer[offset++] = '-';
+                scientific = -scientific;
+            }
+            int exponentLength = digitCount(scientific);
+            writeDigits(scientific, exponentLength, buffer, offset);
+            offset += exponentLength;
+        }
+        return offset;
+    }
+
+    /**
+     * Writes the lowest digits of a number, with leading zeros.
+     *
+     * @param value  the number
+     * @param length the number of digits to write
+     * @param buffer the buffer
+     * @param offset the position of the first digit
+     */
+    private static void writeDigits(long value, int length, byte[] buffer, int offset) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int write(byte[] text, byte[] buffer, int offset) {
+        System.arraycopy(text, 0, buffer, offset, text.length);
+        return offset + text.length;
+    }
+
+    private static int digitCount(long value) {
+        int length = 1;
+        while (length < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[length])
+            length++;
+        return length;
+    }
+
+    private static Power getPower(int k) {
+        // Racing threads may both compute a power, but its fields are final
+        Power power = POWERS[k - K_MIN];
+        if (power == null) {
+            power = new Power(k);
+            POWERS[k - K_MIN] = power;
+        }
+        return power;
+    }
+
+    /**
+     * Multiplies the approximation g by cp and rounds the product to odd,
+     * dropping 126 bits.
+     *
+     * @param power the approximation
+     * @param cp    the factor
+     * @return the rounded product
+     */
+    private static long roundToOdd(Power power, long cp) {
+        long x1 = Math.multiplyHigh(power.g0, cp);
+        long y0 = power.g1 * cp;
+        long y1 = Math.multiplyHigh(power.g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    private static int flog10ThreeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L - 274_743_187_321L >> 41);
+    }
+
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+}
@@ -0,0 +1,109 @@
+package ofp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import generated.OFPParser;
+
+/**
+ * Parses OFP programs in two stages.
+ * The first stage uses the faster SLL prediction mode and bails out on the
+ * first syntax error without reporting it. Only if that fails, the input is
+ * parsed again with full LL prediction and the default error strategy, which
+ * reports errors and recovers as usual. Valid programs are almost always
+ * parsed by the first stage alone, so they are parsed only once.
+ *
+ * The first stage only needs a few tokens of lookahead, so it can read from
+ * an unbuffered token stream that releases tokens once they are consumed.
+ * The second stage then reads from a fresh token stream.
+ *
+ * Process-wide counters record how often each stage is used.
+ */
+public class TwoStageParser {
+    private static final AtomicLong sllParses = new AtomicLong();
+    private static final AtomicLong llFallbacks = new AtomicLong();
+
+    private OFPParser parser;
+    private Supplier<TokenStream> fallbackTokens;
+    private boolean fallback = false;
+
+    /**
+     * Constructs a TwoStageParser reading from a token stream.
+     * The stream must support seeking back to the start, as buffered token
+     * streams do.
+     *
+     * @param tokens the token stream
+     */
+    public TwoStageParser(TokenStream tokens) {
+        this(tokens, null);
+    }
+
+    /**
+     * Constructs a TwoStageParser that reads the second stage from a new token
+     * stream, for first-stage streams that cannot seek back to the start.
+     *
+     * @param tokens         the token stream of the first stage
+     * @param fallbackTokens creates the token stream of the second stage, or
+     *                       null to rewind the first one
+     */
+    public TwoStageParser(TokenStream tokens, Supplier<TokenStream> fallbackTokens) {
+        this.parser = new OFPParser(tokens);
+        this.fallbackTokens = fallbackTokens;
+    }
+
+    /**
+     * Parses a complete program, falling back to full LL prediction if the
+     * SLL stage fails.
+     *
+     * @return the program context
+     */
+    public OFPParser.ProgramContext parse() {
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.removeErrorListeners();
+
+        try {
+            OFPParser.ProgramContext root = parser.program();
+            sllParses.incrementAndGet();
+            return root;
+        } catch (ParseCancellationException e) {
+            // Either a real syntax error or a program SLL cannot decide
+            llFallbacks.incrementAndGet();
+            fallback = true;
+        }
+
+        // Both rewind the token stream and clear the error count
+        if (fallbackTokens != null)
+            parser.setTokenStream(fallbackTokens.get());
+        else
+            parser.reset();
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+
+        return parser.program();
+    }
+
+    public int getNumberOfSyntaxErrors() {
+        return parser.getNumberOfSyntaxErrors();
+    }
+
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    public static long getSllParses() {
+        return sllParses.get();
+    }
+
+    public static long getLlFallbacks() {
+        return llFallbacks.get();
+    }
+}
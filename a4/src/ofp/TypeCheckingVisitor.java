@@ -1,5 +1,6 @@
 package ofp;
 
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
 import generated.OFPBaseVisitor;
@@ -8,11 +9,16 @@ import generated.OFPParser;
 /**
  * Visitor for type checking expressions and statements in the OFP language.
  * Reports type errors and ensures semantic correctness during traversal.
+ * The type of every checked expression is recorded, so later phases look it
+ * up instead of inferring it again. A rejected expression is recorded with
+ * the type it most likely has, since code is still generated for it.
  */
 public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
-    private ParseTreeProperty<Scope> scopes;
-    private Scope currentScope;
-    private Scope globalScope;
+    protected ParseTreeProperty<Scope> scopes;
+    protected Scope currentScope;
+    protected Scope globalScope;
+    private int errorCount = 0;
+    private ParseTreeProperty<OFPType> types = new ParseTreeProperty<>();
 
     /**
      * Constructs a TypeCheckingVisitor with the given scopes and global scope.
@@ -25,6 +31,20 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         this.globalScope = globalScope;
     }
 
+    /**
+     * Checks a node and records its type if it is an expression.
+     *
+     * @param tree the node
+     * @return the type of the node
+     */
+    @Override
+    public OFPType visit(ParseTree tree) {
+        OFPType type = super.visit(tree);
+        if (type != null && tree instanceof OFPParser.ExprContext && types.get(tree) == null)
+            types.put(tree, type);
+        return type;
+    }
+
     /**
      * Checks type correctness for function calls.
      *
@@ -42,15 +62,17 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             functionSymbol = currentScope.resolve(functionName);
 
         if (functionSymbol == null || !(functionSymbol instanceof FunctionSymbol)) {
-            System.err.println("Error: Function '" + functionName + "' is not declared.");
+            error("Error: Function '" + functionName + "' is not declared.");
+            visitArguments(ctx, 0);
             return OFPType.ERROR;
         }
 
         FunctionSymbol funcSym = (FunctionSymbol) functionSymbol;
         if (ctx.expr().size() != funcSym.getParameters().size()) {
-            System.err.println("Error: Function '" + functionName + "' expects " + funcSym.getParameters().size()
+            error("Error: Function '" + functionName + "' expects " + funcSym.getParameters().size()
                     + " arguments, but " + ctx.expr().size() + " were provided.");
-            return OFPType.ERROR;
+            visitArguments(ctx, 0);
+            return reject(ctx, funcSym.getReturnType());
         }
 
         for (int i = 0; i < ctx.expr().size(); i++) {
@@ -58,20 +80,46 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             OFPType paramType = funcSym.getParameters().get(i).getType();
 
             if (argType.equals(OFPType.VOID)) {
-                System.err.println("Error: Cannot pass void as an argument to function '" + functionName + "'.");
-                return OFPType.ERROR;
+                error("Error: Cannot pass void as an argument to function '" + functionName + "'.");
+                visitArguments(ctx, i + 1);
+                return reject(ctx, funcSym.getReturnType());
             }
 
             if (!argType.equals(paramType)) {
-                System.err.println("Error: Argument type mismatch in function '" + functionName + "'. Expected '"
+                error("Error: Argument type mismatch in function '" + functionName + "'. Expected '"
                         + paramType + "', but got '" + argType + "'.");
-                return OFPType.ERROR;
+                visitArguments(ctx, i + 1);
+                return reject(ctx, funcSym.getReturnType());
             }
         }
 
         return funcSym.getReturnType();
     }
 
+    /**
+     * Checks the arguments of a rejected function call that were not checked
+     * yet, so each of them has a type.
+     *
+     * @param ctx  the function call context
+     * @param from the index of the first argument to check
+     */
+    private void visitArguments(OFPParser.FuncCallContext ctx, int from) {
+        for (int i = from; i < ctx.expr().size(); i++)
+            visit(ctx.expr(i));
+    }
+
+    /**
+     * Checks a function call expression, which has the type of its call.
+     *
+     * @param ctx the function call expression context
+     * @return the return type of the function, or error type if invalid
+     */
+    @Override
+    public OFPType visitFuncCallExpr(OFPParser.FuncCallExprContext ctx) {
+        OFPType type = visit(ctx.funcCall());
+        return type == OFPType.ERROR ? reject(ctx, types.get(ctx.funcCall())) : type;
+    }
+
     /**
      * Updates the current scope when visiting a function block.
      *
@@ -111,7 +159,7 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         if (ctx.expr() != null) {
             OFPType exprType = visit(ctx.expr());
             if (exprType == null) {
-                System.err.println("Error: Invalid type in print statement.");
+                error("Error: Invalid type in print statement.");
                 return OFPType.ERROR;
             }
         }
@@ -134,12 +182,12 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             OFPType exprType = visit(ctx.expr(0));
 
             if (exprType != null && exprType.equals(OFPType.VOID)) {
-                System.err.println("Error: Cannot assign the result of a void function.");
+                error("Error: Cannot assign the result of a void function.");
                 return OFPType.ERROR;
             }
 
             if (varSymbol == null) {
-                System.err.println("Error: Variable '" + varName + "' not declared.");
+                error("Error: Variable '" + varName + "' not declared.");
                 return OFPType.ERROR;
             }
 
@@ -151,12 +199,12 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
                             || exprType.equals(OFPType.CHAR_ARRAY))) {
 
                 if (!varType.equals(exprType)) {
-                    System.err.println("Error: Type mismatch in array assignment. Expected '" + varType + "' but got '"
+                    error("Error: Type mismatch in array assignment. Expected '" + varType + "' but got '"
                             + exprType + "'.");
                     return OFPType.ERROR;
                 }
             } else if (!varType.equals(exprType)) {
-                System.err.println(
+                error(
                         "Error: Type mismatch in assignment. Expected '" + varType + "' but got '" + exprType + "'.");
                 return OFPType.ERROR;
             }
@@ -168,22 +216,22 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             OFPType exprType = visit(ctx.expr(1));
 
             if (!indexType.equals(OFPType.INT)) {
-                System.err.println("Error: Array index must be of type int.");
+                error("Error: Array index must be of type int.");
             }
 
             if (varSymbol == null) {
-                System.err.println("Error: Array '" + varName + "' not declared.");
+                error("Error: Array '" + varName + "' not declared.");
                 return OFPType.ERROR;
             }
 
             OFPType arrayType = varSymbol.getType();
 
             if (arrayType.equals(OFPType.INT_ARRAY) && !exprType.equals(OFPType.INT)) {
-                System.err.println("Error: Cannot assign non-int to int array.");
+                error("Error: Cannot assign non-int to int array.");
             } else if (arrayType.equals(OFPType.FLOAT_ARRAY) && !exprType.equals(OFPType.FLOAT)) {
-                System.err.println("Error: Cannot assign non-float to float array.");
+                error("Error: Cannot assign non-float to float array.");
             } else if (arrayType.equals(OFPType.CHAR_ARRAY) && !exprType.equals(OFPType.CHAR)) {
-                System.err.println("Error: Cannot assign non-char to char array.");
+                error("Error: Cannot assign non-char to char array.");
             }
 
             return null;
@@ -206,7 +254,7 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             exprType = visit(ctx.expr());
 
             if (exprType.equals(OFPType.VOID)) {
-                System.err.println("Error: Cannot assign void type to variable '" + varName + "'.");
+                error("Error: Cannot assign void type to variable '" + varName + "'.");
                 return OFPType.ERROR;
             }
 
@@ -218,13 +266,13 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
                 if (!(!(varType.equals(OFPType.INT_ARRAY) && exprType.equals(OFPType.INT))
                         || !(varType.equals(OFPType.FLOAT_ARRAY) && exprType.equals(OFPType.FLOAT))
                         || !(varType.equals(OFPType.CHAR_ARRAY) && exprType.equals(OFPType.CHAR)))) {
-                    System.err.println("Error: Type mismatch in array assignment. Expected '" + varType + "' but got '"
+                    error("Error: Type mismatch in array assignment. Expected '" + varType + "' but got '"
                             + exprType + "'.");
                     return OFPType.ERROR;
                 }
 
             } else if (!varType.equals(exprType)) {
-                System.err.println(
+                error(
                         "Error: Type mismatch in assignment. Expected '" + varType + "' but got '" + exprType + "'.");
                 return OFPType.ERROR;
             }
@@ -242,11 +290,14 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
     @Override
     public OFPType visitIfStmt(OFPParser.IfStmtContext ctx) {
         OFPType conditionType = visit(ctx.expr());
-        if (!conditionType.equals(OFPType.BOOLEAN)) {
-            System.err.println("Error: Condition in if-statement must be of type bool.");
-            return OFPType.ERROR;
-        }
-        return super.visitIfStmt(ctx);
+        boolean valid = conditionType.equals(OFPType.BOOLEAN);
+        if (!valid)
+            error("Error: Condition in if-statement must be of type bool.");
+
+        // Visit only the blocks, so errors in the condition are reported once
+        for (OFPParser.BlockContext block : ctx.block())
+            visit(block);
+        return valid ? null : OFPType.ERROR;
     }
 
     /**
@@ -258,11 +309,12 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
     @Override
     public OFPType visitWhileStmt(OFPParser.WhileStmtContext ctx) {
         OFPType conditionType = visit(ctx.expr());
-        if (!conditionType.equals(OFPType.BOOLEAN)) {
-            System.err.println("Error: Condition in while-statement must be of type bool.");
-            return OFPType.ERROR;
-        }
-        return super.visitWhileStmt(ctx);
+        boolean valid = conditionType.equals(OFPType.BOOLEAN);
+        if (!valid)
+            error("Error: Condition in while-statement must be of type bool.");
+
+        visit(ctx.block());
+        return valid ? null : OFPType.ERROR;
     }
 
     /**
@@ -276,7 +328,7 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         Scope returnScope = scopes.get(ctx);
 
         if (returnScope == null) {
-            System.err.println("Error: 'return' statement is outside of a valid scope.");
+            error("Error: 'return' statement is outside of a valid scope.");
             return OFPType.ERROR;
         }
 
@@ -284,19 +336,20 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
 
         if (currentFunction.getReturnType().equals(OFPType.VOID)) {
             if (ctx.expr() != null) {
-                System.err.println("Error: Cannot return a value from a void function.");
+                error("Error: Cannot return a value from a void function.");
+                visit(ctx.expr());
                 return OFPType.ERROR;
             }
         } else {
             if (ctx.expr() == null) {
-                System.err.println("Error: Function '" + currentFunction.getName() + "' requires a return value.");
+                error("Error: Function '" + currentFunction.getName() + "' requires a return value.");
                 return OFPType.ERROR;
             }
 
             OFPType returnType = visit(ctx.expr());
 
             if (!returnType.equals(currentFunction.getReturnType())) {
-                System.err.println("Error: Return type mismatch in function '" + currentFunction.getName()
+                error("Error: Return type mismatch in function '" + currentFunction.getName()
                         + "'. Expected '" + currentFunction.getReturnType() + "' but got '" + returnType + "'.");
                 return OFPType.ERROR;
             }
@@ -319,17 +372,20 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             OFPType sizeType = visit(ctx.expr(0));
 
             if (!sizeType.equals(OFPType.INT)) {
-                System.err.println("Error: Array size must be of type int.");
-                return OFPType.ERROR;
+                error("Error: Array size must be of type int.");
+                return reject(ctx, getArrayType(arrayType));
             }
 
             if (!arrayType.equals(OFPType.INT) && !arrayType.equals(OFPType.FLOAT)
                     && !arrayType.equals(OFPType.CHAR)) {
-                System.err.println("Error: Invalid array type at line " + ctx.getStart().getLine() + ", column "
+                error("Error: Invalid array type at line " + ctx.getStart().getLine() + ", column "
                         + ctx.getStart().getCharPositionInLine() + ".");
                 return OFPType.ERROR;
             }
 
+            // The checks of declarations expect the element type, but the
+            // expression is an array
+            types.put(ctx, getArrayType(arrayType));
             return arrayType;
         } else {
             // Handle { expr, (expr*)? }
@@ -338,24 +394,39 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
             for (int i = 1; i < ctx.expr().size(); i++) {
                 OFPType elementType = visit(ctx.expr(i));
                 if (!elementType.equals(firstExprType)) {
-                    System.err.println("Error: All elements in the array must have the same type.");
-                    return OFPType.ERROR;
+                    error("Error: All elements in the array must have the same type.");
+                    for (int j = i + 1; j < ctx.expr().size(); j++)
+                        visit(ctx.expr(j));
+                    return reject(ctx, getArrayType(firstExprType));
                 }
             }
 
-            if (firstExprType.equals(OFPType.INT)) {
-                return OFPType.INT_ARRAY;
-            } else if (firstExprType.equals(OFPType.FLOAT)) {
-                return OFPType.FLOAT_ARRAY;
-            } else if (firstExprType.equals(OFPType.CHAR)) {
-                return OFPType.CHAR_ARRAY;
-            } else {
-                System.err.println("Error: Invalid element type in array initialization.");
+            OFPType arrayType = getArrayType(firstExprType);
+            if (arrayType == null) {
+                error("Error: Invalid element type in array initialization.");
                 return OFPType.ERROR;
             }
+            return arrayType;
         }
     }
 
+    /**
+     * Returns the array type for an element type.
+     *
+     * @param elementType the element type
+     * @return the array type, or null if there are no arrays of the type
+     */
+    private static OFPType getArrayType(OFPType elementType) {
+        if (elementType.equals(OFPType.INT)) {
+            return OFPType.INT_ARRAY;
+        } else if (elementType.equals(OFPType.FLOAT)) {
+            return OFPType.FLOAT_ARRAY;
+        } else if (elementType.equals(OFPType.CHAR)) {
+            return OFPType.CHAR_ARRAY;
+        }
+        return null;
+    }
+
     /**
      * Checks type correctness for array access expressions.
      *
@@ -368,23 +439,35 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         Symbol varSymbol = currentScope.resolve(varName);
 
         if (varSymbol == null) {
-            System.err.println("Error: Array '" + varName + "' not declared.");
+            error("Error: Array '" + varName + "' not declared.");
             return OFPType.ERROR;
         }
 
         OFPType varType = varSymbol.getType();
         if (!varType.equals(OFPType.INT_ARRAY) && !varType.equals(OFPType.FLOAT_ARRAY)
                 && !varType.equals(OFPType.CHAR_ARRAY) && !varType.equals(OFPType.STRING)) {
-            System.err.println("Error: '" + varName + "' is not an array.");
+            error("Error: '" + varName + "' is not an array.");
+            visit(ctx.expr());
             return OFPType.ERROR;
         }
 
+        OFPType elementType = getElementType(varType);
         OFPType indexType = visit(ctx.expr());
         if (!indexType.equals(OFPType.INT)) {
-            System.err.println("Error: Array index must be of type int.");
-            return OFPType.ERROR;
+            error("Error: Array index must be of type int.");
+            return reject(ctx, elementType);
         }
 
+        return elementType;
+    }
+
+    /**
+     * Returns the element type of an array or string type.
+     *
+     * @param varType the array or string type
+     * @return the element type
+     */
+    private static OFPType getElementType(OFPType varType) {
         if (varType.equals(OFPType.INT_ARRAY)) {
             return OFPType.INT;
         }
@@ -411,14 +494,14 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         OFPType exprType = visit(ctx.expr());
 
         if (exprType == null) {
-            System.err.println("Error: Invalid expression type in length operation.");
-            return OFPType.ERROR;
+            error("Error: Invalid expression type in length operation.");
+            return reject(ctx, OFPType.INT);
         }
 
         if (!exprType.equals(OFPType.STRING) && !exprType.equals(OFPType.INT_ARRAY)
                 && !exprType.equals(OFPType.FLOAT_ARRAY) && !exprType.equals(OFPType.CHAR_ARRAY)) {
-            System.err.println("Error: Length can only be applied to strings or arrays.");
-            return OFPType.ERROR;
+            error("Error: Length can only be applied to strings or arrays.");
+            return reject(ctx, OFPType.INT);
         }
 
         return OFPType.INT;
@@ -432,7 +515,8 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
      */
     @Override
     public OFPType visitParenExpr(OFPParser.ParenExprContext ctx) {
-        return visit(ctx.expr());
+        OFPType type = visit(ctx.expr());
+        return type == OFPType.ERROR ? reject(ctx, types.get(ctx.expr())) : type;
     }
 
     /**
@@ -445,8 +529,8 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
     public OFPType visitUnaryExpr(OFPParser.UnaryExprContext ctx) {
         OFPType exprType = visit(ctx.expr());
         if (!exprType.equals(OFPType.INT) && !exprType.equals(OFPType.FLOAT)) {
-            System.err.println("Error: Unary minus can only be applied to int or float types.");
-            return OFPType.ERROR;
+            error("Error: Unary minus can only be applied to int or float types.");
+            return reject(ctx, getArithmeticType(ctx.expr(), ctx.expr()));
         }
         return exprType;
     }
@@ -463,24 +547,24 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         OFPType rightType = visit(ctx.expr(1));
 
         if (leftType.equals(OFPType.ERROR) || rightType.equals(OFPType.ERROR)) {
-            System.err.println("Error: Invalid multiplication/division expression.");
-            return OFPType.ERROR;
+            error("Error: Invalid multiplication/division expression.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         if (leftType.equals(OFPType.VOID) || rightType.equals(OFPType.VOID)) {
-            System.err.println("Error: Cannot use a void function in a multiplication/division expression.");
-            return OFPType.ERROR;
+            error("Error: Cannot use a void function in a multiplication/division expression.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         if (!leftType.equals(rightType)) {
-            System.err.println("Error: Type mismatch in expression. Both sides must have the same type.");
-            return OFPType.ERROR;
+            error("Error: Type mismatch in expression. Both sides must have the same type.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         if (!leftType.equals(OFPType.INT) && !leftType.equals(OFPType.FLOAT)
                 || !rightType.equals(OFPType.INT) && !rightType.equals(OFPType.FLOAT)) {
-            System.err.println("Error: Multiplication is only allowed for int or float types.");
-            return OFPType.ERROR;
+            error("Error: Multiplication is only allowed for int or float types.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         return leftType;
@@ -498,23 +582,23 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         OFPType rightType = visit(ctx.expr(1));
 
         if (leftType.equals(OFPType.ERROR) || rightType.equals(OFPType.ERROR)) {
-            System.err.println("Error: Invalid arithmetic expression.");
-            return OFPType.ERROR;
+            error("Error: Invalid arithmetic expression.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         if (leftType.equals(OFPType.VOID) || rightType.equals(OFPType.VOID)) {
-            System.err.println("Error: Cannot use a void function in an arithmetic expression.");
-            return OFPType.ERROR;
+            error("Error: Cannot use a void function in an arithmetic expression.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         if (!leftType.equals(rightType)) {
-            System.err.println("Error: Type mismatch in expression. Both sides must have the same type.");
-            return OFPType.ERROR;
+            error("Error: Type mismatch in expression. Both sides must have the same type.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         if (!leftType.equals(OFPType.INT) && !leftType.equals(OFPType.FLOAT)) {
-            System.err.println("Error: Addition and subtraction are only allowed for int or float types.");
-            return OFPType.ERROR;
+            error("Error: Addition and subtraction are only allowed for int or float types.");
+            return reject(ctx, getArithmeticType(ctx.expr(0), ctx.expr(1)));
         }
 
         return leftType;
@@ -532,8 +616,8 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         OFPType rightType = visit(ctx.expr(1));
 
         if (leftType.equals(OFPType.ERROR) || rightType.equals(OFPType.ERROR)) {
-            System.err.println("Error: Invalid comparison expression.");
-            return OFPType.ERROR;
+            error("Error: Invalid comparison expression.");
+            return reject(ctx, OFPType.BOOLEAN);
         }
 
         if (!leftType.equals(rightType)) {
@@ -542,8 +626,8 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
                     || rightType.equals(OFPType.INT_ARRAY) || rightType.equals(OFPType.FLOAT_ARRAY)
                     || rightType.equals(OFPType.CHAR_ARRAY) || rightType.equals(OFPType.STRING)) {
                 if (!(ctx.getParent() instanceof OFPParser.ArrayLengthExprContext)) {
-                    System.err.println("Error: Type mismatch in comparison. Both sides must have the same type.");
-                    return OFPType.ERROR;
+                    error("Error: Type mismatch in comparison. Both sides must have the same type.");
+                    return reject(ctx, OFPType.BOOLEAN);
                 }
             }
         }
@@ -552,12 +636,12 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
                 && !leftType.equals(OFPType.CHAR)) {
             if (leftType.equals(OFPType.STRING)) {
                 if (ctx.getChild(1).getText().equals(">") || ctx.getChild(1).getText().equals("<")) {
-                    System.err.println("Error: Cannot use '>' or '<' with string type.");
-                    return OFPType.ERROR;
+                    error("Error: Cannot use '>' or '<' with string type.");
+                    return reject(ctx, OFPType.BOOLEAN);
                 }
             } else {
-                System.err.println("Error: Comparison operators can only be used with int, float, or char types.");
-                return OFPType.ERROR;
+                error("Error: Comparison operators can only be used with int, float, or char types.");
+                return reject(ctx, OFPType.BOOLEAN);
             }
         }
 
@@ -576,8 +660,8 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         OFPType rightType = visit(ctx.expr(1));
 
         if (leftType.equals(OFPType.ERROR) || rightType.equals(OFPType.ERROR)) {
-            System.err.println("Error: Invalid equality expression.");
-            return OFPType.ERROR;
+            error("Error: Invalid equality expression.");
+            return reject(ctx, OFPType.BOOLEAN);
         }
 
         if (!leftType.equals(rightType)) {
@@ -586,8 +670,8 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
                     || rightType.equals(OFPType.INT_ARRAY) || rightType.equals(OFPType.FLOAT_ARRAY)
                     || rightType.equals(OFPType.CHAR_ARRAY) || rightType.equals(OFPType.STRING)) {
                 if (!(ctx.getParent() instanceof OFPParser.ArrayLengthExprContext)) {
-                    System.err.println("Error: Type mismatch in comparison. Both sides must have the same type.");
-                    return OFPType.ERROR;
+                    error("Error: Type mismatch in comparison. Both sides must have the same type.");
+                    return reject(ctx, OFPType.BOOLEAN);
                 }
             }
         }
@@ -596,12 +680,12 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
                 && !leftType.equals(OFPType.CHAR)) {
             if (leftType.equals(OFPType.STRING)) {
                 if (ctx.getChild(1).getText().equals("==")) {
-                    System.err.println("Error: Cannot use '==' with string type.");
-                    return OFPType.ERROR;
+                    error("Error: Cannot use '==' with string type.");
+                    return reject(ctx, OFPType.BOOLEAN);
                 }
             } else {
-                System.err.println("Error: Comparison operators can only be used with int, float, or char types.");
-                return OFPType.ERROR;
+                error("Error: Comparison operators can only be used with int, float, or char types.");
+                return reject(ctx, OFPType.BOOLEAN);
             }
         }
 
@@ -675,10 +759,56 @@ public class TypeCheckingVisitor extends OFPBaseVisitor<OFPType> {
         Symbol varSymbol = currentScope.resolve(varName);
 
         if (varSymbol == null) {
-            System.err.println("Error: Variable '" + varName + "' not declared.");
+            error("Error: Variable '" + varName + "' not declared.");
             return OFPType.ERROR;
         }
 
         return varSymbol.getType();
     }
-}
+
+    /**
+     * Returns the type of arithmetic on two checked operands: float if either
+     * of them is a float, and int otherwise.
+     *
+     * @param left  the left operand
+     * @param right the right operand
+     * @return the type of the arithmetic
+     */
+    private OFPType getArithmeticType(OFPParser.ExprContext left, OFPParser.ExprContext right) {
+        if (OFPType.FLOAT.equals(types.get(left)) || OFPType.FLOAT.equals(types.get(right)))
+            return OFPType.FLOAT;
+        return OFPType.INT;
+    }
+
+    /**
+     * Records the type a rejected node most likely has, so later phases find
+     * a type for it.
+     *
+     * @param tree the rejected node
+     * @param type the most likely type, or null or error type if unknown
+     * @return error type
+     */
+    protected OFPType reject(ParseTree tree, OFPType type) {
+        if (type != null && type != OFPType.ERROR)
+            types.put(tree, type);
+        return OFPType.ERROR;
+    }
+
+    /**
+     * Reports a type error and counts it.
+     *
+     * @param message the error message
+     */
+    protected void error(String message) {
+        System.err.println(message);
+        errorCount++;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public ParseTreeProperty<OFPType> getTypes() {
+        return types;
+    }
+}
\ No newline at end of file